@@ -0,0 +1,154 @@
+package org.rspspin.benchmarks;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+import org.apache.jena.query.QuerySolutionMap;
+import org.apache.jena.rdf.model.RDFNode;
+import org.json.JSONObject;
+import org.rspspin.core.RSPSPINException;
+import org.rspspin.core.RSPSPINTemplateManager;
+import org.rspspin.core.RSPSPINUtils;
+import org.rspspin.core.ValidationPlan;
+import org.topbraid.spin.model.Template;
+
+/**
+ * Inputs shared by the benchmarks: the CSRBench RSP-QL queries and the
+ * scenario templates of the repository. The repository root is given by the
+ * rspspin.home system property, by default the current directory or its
+ * parent.
+ */
+public class BenchmarkInputs {
+	public static final String QUERIES = "queries/csrbench/rspql";
+	public static final String TEMPLATES = "papers/Template-based RSP Execution/Scenario templates";
+
+	private static RSPSPINTemplateManager manager = null;
+
+	/**
+	 * Get the repository root
+	 *
+	 * @return
+	 */
+	public static Path getHome() {
+		String home = System.getProperty("rspspin.home");
+		if (home != null)
+			return Paths.get(home);
+		for (Path candidate : new Path[] { Paths.get("."), Paths.get("..") }) {
+			if (Files.isDirectory(candidate.resolve(QUERIES)))
+				return candidate;
+		}
+		throw new IllegalStateException("Repository root not found, set the rspspin.home system property");
+	}
+
+	/**
+	 * Get a template manager without a library. Creating the manager also
+	 * registers the parsers of all dialects.
+	 *
+	 * @return
+	 */
+	public static synchronized RSPSPINTemplateManager getManager() {
+		if (manager == null)
+			manager = new RSPSPINTemplateManager("benchmark.properties");
+		return manager;
+	}
+
+	/**
+	 * Read a CSRBench query, e.g. query1
+	 *
+	 * @param name
+	 * @return
+	 */
+	public static String readQuery(String name) {
+		return read(getHome().resolve(QUERIES).resolve(name + ".rspql"));
+	}
+
+	/**
+	 * Read all CSRBench queries, ordered by name
+	 *
+	 * @return
+	 */
+	public static Map<String, String> readQueries() {
+		Map<String, String> queries = new TreeMap<String, String>();
+		try (Stream<Path> files = Files.list(getHome().resolve(QUERIES))) {
+			files.filter((p) -> p.toString().endsWith(".rspql")).forEach((p) -> {
+				String name = p.getFileName().toString();
+				queries.put(name.substring(0, name.length() - ".rspql".length()), read(p));
+			});
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return queries;
+	}
+
+	/**
+	 * Read a scenario template file, e.g. template1. The files hold JSON with
+	 * line breaks inside the query string, which are replaced the same way as
+	 * in the demo.
+	 *
+	 * @param name
+	 * @return
+	 */
+	public static JSONObject readTemplate(String name) {
+		String content = read(getHome().resolve(TEMPLATES).resolve(name + ".txt"));
+		return new JSONObject(content.replaceAll("(#.*)\n", "$1\\\\n").replaceAll("\n", " "));
+	}
+
+	/**
+	 * Create a template from a scenario template file, e.g. template1.
+	 *
+	 * @param name
+	 * @return
+	 * @throws RSPSPINException
+	 */
+	public static Template createTemplate(String name) throws RSPSPINException {
+		return getManager().createTemplateFromJson(readTemplate(name));
+	}
+
+	/**
+	 * Create bindings for all arguments of a template, with a fixed sample
+	 * value for each value type so that runs are comparable.
+	 *
+	 * @param template
+	 * @return
+	 * @throws RSPSPINException
+	 */
+	public static QuerySolutionMap createBindings(Template template) throws RSPSPINException {
+		ValidationPlan plan = getManager().getValidationPlan(template);
+		QuerySolutionMap bindings = new QuerySolutionMap();
+		for (int i = 0; i < plan.size(); i++) {
+			String valueType = plan.getValueType(i) == null ? null : plan.getValueType(i).getURI();
+			RDFNode value = RSPSPINUtils.createRDFNode(sampleValue(plan.getVarName(i), valueType), valueType);
+			bindings.add(plan.getVarName(i), value);
+		}
+		return bindings;
+	}
+
+	private static String sampleValue(String varName, String valueType) {
+		if (valueType == null || valueType.endsWith("#Resource"))
+			return "http://example.org/" + varName;
+		if (valueType.endsWith("#duration"))
+			return "PT10S";
+		if (valueType.endsWith("#integer") || valueType.endsWith("#int") || valueType.endsWith("#long"))
+			return "10";
+		if (valueType.endsWith("#double") || valueType.endsWith("#float") || valueType.endsWith("#decimal"))
+			return "1.5";
+		if (valueType.endsWith("#boolean"))
+			return "true";
+		return varName;
+	}
+
+	private static String read(Path path) {
+		try {
+			return new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
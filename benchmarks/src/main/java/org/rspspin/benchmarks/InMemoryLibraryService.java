@@ -0,0 +1,60 @@
+package org.rspspin.benchmarks;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.rspspin.core.LibraryEndpointService;
+import org.rspspin.core.RSPSPINException;
+import org.topbraid.spin.model.Template;
+
+/**
+ * A library holding templates in memory, used to drive the remote operations
+ * of the template manager without a triple store.
+ */
+public class InMemoryLibraryService implements LibraryEndpointService {
+	private final ConcurrentHashMap<String, Template> templates = new ConcurrentHashMap<String, Template>();
+
+	@Override
+	public void storeTemplate(Template template) throws RSPSPINException {
+		if (templates.putIfAbsent(template.getURI(), template) != null)
+			throw new RSPSPINException(String.format("Template URI '%s' already in use", template.getURI()));
+	}
+
+	@Override
+	public void deleteTemplate(String templateUri) {
+		templates.remove(templateUri);
+	}
+
+	@Override
+	public void clearTemplateGraph() {
+		templates.clear();
+	}
+
+	@Override
+	public Template getTemplate(String templateUri) {
+		return templates.get(templateUri);
+	}
+
+	@Override
+	public ArrayList<Template> loadTemplates() {
+		return new ArrayList<Template>(templates.values());
+	}
+
+	@Override
+	public void setQueryEndpoint(String queryEndpoint) {
+	}
+
+	@Override
+	public void setUpdateEndpoint(String updateEndpoint) {
+	}
+
+	@Override
+	public String getUpdateEndpoint() {
+		return null;
+	}
+
+	@Override
+	public String getQueryEndpoint() {
+		return null;
+	}
+}
@@ -0,0 +1,62 @@
+package org.rspspin.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.jena.query.Query;
+import org.apache.jena.query.QuerySolutionMap;
+import org.apache.own.query.RSPQLQuery;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.rspspin.core.CompiledTemplate;
+import org.rspspin.core.RSPSPINTemplateManager;
+import org.topbraid.spin.model.Template;
+
+/**
+ * Instantiation of the scenario templates, through the query text and through
+ * the compiled template. The instantiated query cache of the manager is
+ * disabled.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 2, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+public class InstantiationBenchmark {
+	@Param({ "template1", "template2", "template3", "template4", "template5" })
+	public String template;
+
+	private RSPSPINTemplateManager manager;
+	private Template spinTemplate;
+	private CompiledTemplate compiledTemplate;
+	private QuerySolutionMap bindings;
+
+	@Setup
+	public void setup() throws Exception {
+		manager = BenchmarkInputs.getManager();
+		manager.setQueryCacheSize(0);
+		spinTemplate = BenchmarkInputs.createTemplate(template);
+		manager.addTemplate(spinTemplate, false, true);
+		compiledTemplate = manager.getCompiledTemplate(spinTemplate);
+		bindings = BenchmarkInputs.createBindings(spinTemplate);
+	}
+
+	@Benchmark
+	public Query instantiateQuery() throws Exception {
+		return manager.instantiateQuery(spinTemplate, bindings);
+	}
+
+	@Benchmark
+	public RSPQLQuery instantiateCompiledQuery() throws Exception {
+		return manager.instantiateQuery(compiledTemplate, bindings);
+	}
+}
@@ -0,0 +1,259 @@
+package org.rspspin.benchmarks;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.apache.jena.query.QuerySolutionMap;
+import org.json.JSONObject;
+import org.rspspin.core.RSPSPINTemplateManager;
+import org.topbraid.spin.model.Template;
+
+/**
+ * Load generator for the template manager. A configurable mix of template
+ * operations is run from a number of threads against an in-memory library,
+ * after which the throughput, latency percentiles and allocated bytes of each
+ * operation are reported.
+ *
+ * Usage: java -cp target/benchmarks.jar org.rspspin.benchmarks.LoadHarness
+ * [--threads 4] [--warmup 10] [--duration 30] [--seed 42] [--query-cache 0]
+ * [--mix instantiate=85,compiled=5,get=4,add=3,delete=3]
+ *
+ * The operations are: instantiate (instantiate a registered template through
+ * the query text), compiled (instantiate the compiled template), get (look up
+ * a template in the library), add (create and store a new template) and delete
+ * (delete a template added by the same thread).
+ */
+public class LoadHarness {
+	private static final String[] TEMPLATES = { "template1", "template2", "template3", "template4", "template5" };
+	private static final String[] OPERATIONS = { "instantiate", "compiled", "get", "add", "delete" };
+	private static final long MAX_LATENCY = TimeUnit.SECONDS.toNanos(60);
+
+	private final RSPSPINTemplateManager manager;
+	private final List<JSONObject> templateJson = new ArrayList<>();
+	private final List<String> templateUris = new ArrayList<>();
+	private final Map<String, QuerySolutionMap> bindings = new LinkedHashMap<>();
+	private final int[] weights = new int[OPERATIONS.length];
+	private int totalWeight = 0;
+	private final Map<String, Recorder> latencies = new LinkedHashMap<>();
+	private final Map<String, LongAdder> allocations = new LinkedHashMap<>();
+	private final Map<String, LongAdder> errors = new LinkedHashMap<>();
+	private final com.sun.management.ThreadMXBean threads;
+	private volatile boolean measuring = false;
+	private volatile boolean running = true;
+
+	public LoadHarness(String mix, long queryCacheSize) throws Exception {
+		manager = BenchmarkInputs.getManager();
+		manager.setLibrary(new InMemoryLibraryService());
+		manager.setQueryCacheSize(queryCacheSize);
+		for (String name : TEMPLATES) {
+			JSONObject json = BenchmarkInputs.readTemplate(name);
+			Template template = manager.createTemplateFromJson(json);
+			manager.addTemplate(template, true, true);
+			templateJson.add(json);
+			templateUris.add(template.getURI());
+			bindings.put(template.getURI(), BenchmarkInputs.createBindings(template));
+		}
+		for (String entry : mix.split(",")) {
+			String[] pair = entry.split("=");
+			int i = indexOf(pair[0].trim());
+			weights[i] = Integer.parseInt(pair[1].trim());
+			totalWeight += weights[i];
+		}
+		if (totalWeight <= 0)
+			throw new IllegalArgumentException("The operation mix is empty");
+		for (String op : OPERATIONS) {
+			latencies.put(op, new Recorder(MAX_LATENCY, 3));
+			allocations.put(op, new LongAdder());
+			errors.put(op, new LongAdder());
+		}
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean
+				&& ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+			threads = (com.sun.management.ThreadMXBean) bean;
+			threads.setThreadAllocatedMemoryEnabled(true);
+		} else {
+			threads = null;
+		}
+	}
+
+	private static int indexOf(String op) {
+		for (int i = 0; i < OPERATIONS.length; i++) {
+			if (OPERATIONS[i].equals(op))
+				return i;
+		}
+		throw new IllegalArgumentException("Unknown operation: " + op);
+	}
+
+	/**
+	 * Run the load and print a report
+	 *
+	 * @param threadCount
+	 * @param warmupSeconds
+	 * @param durationSeconds
+	 * @param seed
+	 * @throws InterruptedException
+	 */
+	public void run(int threadCount, int warmupSeconds, int durationSeconds, long seed) throws InterruptedException {
+		CountDownLatch done = new CountDownLatch(threadCount);
+		for (int t = 0; t < threadCount; t++) {
+			Worker worker = new Worker(t, new Random(seed + t), done);
+			Thread thread = new Thread(worker, "load-" + t);
+			thread.setDaemon(true);
+			thread.start();
+		}
+		Thread.sleep(TimeUnit.SECONDS.toMillis(warmupSeconds));
+		measuring = true;
+		long start = System.nanoTime();
+		Thread.sleep(TimeUnit.SECONDS.toMillis(durationSeconds));
+		measuring = false;
+		double elapsed = (System.nanoTime() - start) / 1e9;
+		running = false;
+		done.await();
+		report(threadCount, elapsed);
+	}
+
+	private void report(int threadCount, double elapsed) {
+		System.out.println(String.format("threads=%d, duration=%.1fs, query cache=%s", threadCount, elapsed,
+				manager.getQueryCacheStats()));
+		System.out.println(String.format("%-12s %10s %10s %10s %10s %10s %10s %12s %8s", "operation", "count",
+				"ops/s", "p50 us", "p99 us", "p999 us", "max us", "alloc B/op", "errors"));
+		long total = 0;
+		for (String op : OPERATIONS) {
+			Histogram h = latencies.get(op).getIntervalHistogram();
+			long count = h.getTotalCount();
+			if (count == 0)
+				continue;
+			total += count;
+			String alloc = threads == null ? "n/a" : String.valueOf(allocations.get(op).sum() / count);
+			System.out.println(String.format("%-12s %10d %10.0f %10.1f %10.1f %10.1f %10.1f %12s %8d", op, count,
+					count / elapsed, h.getValueAtPercentile(50) / 1e3, h.getValueAtPercentile(99) / 1e3,
+					h.getValueAtPercentile(99.9) / 1e3, h.getMaxValue() / 1e3, alloc, errors.get(op).sum()));
+		}
+		System.out.println(String.format("%-12s %10d %10.0f", "total", total, total / elapsed));
+	}
+
+	private class Worker implements Runnable {
+		private final int id;
+		private final Random random;
+		private final CountDownLatch done;
+		private final Deque<String> added = new ArrayDeque<>();
+		private int addCount = 0;
+
+		public Worker(int id, Random random, CountDownLatch done) {
+			this.id = id;
+			this.random = random;
+			this.done = done;
+		}
+
+		@Override
+		public void run() {
+			long threadId = Thread.currentThread().getId();
+			try {
+				while (running) {
+					int op = nextOperation();
+					if (op == 4 && added.isEmpty())
+						continue;
+					boolean record = measuring;
+					long allocated = record && threads != null ? threads.getThreadAllocatedBytes(threadId) : 0;
+					long start = System.nanoTime();
+					try {
+						execute(op);
+					} catch (Exception e) {
+						if (record)
+							errors.get(OPERATIONS[op]).increment();
+					}
+					long latency = System.nanoTime() - start;
+					if (record) {
+						latencies.get(OPERATIONS[op]).recordValue(Math.min(latency, MAX_LATENCY));
+						if (threads != null)
+							allocations.get(OPERATIONS[op]).add(threads.getThreadAllocatedBytes(threadId) - allocated);
+					}
+				}
+			} finally {
+				done.countDown();
+			}
+		}
+
+		private int nextOperation() {
+			int r = random.nextInt(totalWeight);
+			for (int i = 0; i < weights.length; i++) {
+				r -= weights[i];
+				if (r < 0)
+					return i;
+			}
+			return 0;
+		}
+
+		private void execute(int op) throws Exception {
+			int i = random.nextInt(templateUris.size());
+			String uri = templateUris.get(i);
+			switch (op) {
+			case 0:
+				manager.instantiateQuery(manager.getTemplate(uri, false), bindings.get(uri));
+				break;
+			case 1:
+				manager.instantiateQuery(manager.getCompiledTemplate(manager.getTemplate(uri, false)),
+						bindings.get(uri));
+				break;
+			case 2:
+				manager.getTemplate(uri, true);
+				break;
+			case 3:
+				JSONObject json = new JSONObject(templateJson.get(i).toString());
+				json.put("id", String.format("load-%d-%d", id, addCount++));
+				Template template = manager.createTemplateFromJson(json);
+				manager.addTemplate(template, true, false);
+				added.add(template.getURI());
+				break;
+			case 4:
+				manager.deleteTemplate(added.poll(), true);
+				break;
+			}
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		int threadCount = 4;
+		int warmup = 10;
+		int duration = 30;
+		long seed = 42;
+		long queryCache = 0;
+		String mix = "instantiate=85,compiled=5,get=4,add=3,delete=3";
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			switch (args[i]) {
+			case "--threads":
+				threadCount = Integer.parseInt(args[i + 1]);
+				break;
+			case "--warmup":
+				warmup = Integer.parseInt(args[i + 1]);
+				break;
+			case "--duration":
+				duration = Integer.parseInt(args[i + 1]);
+				break;
+			case "--seed":
+				seed = Long.parseLong(args[i + 1]);
+				break;
+			case "--query-cache":
+				queryCache = Long.parseLong(args[i + 1]);
+				break;
+			case "--mix":
+				mix = args[i + 1];
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown option: " + args[i]);
+			}
+		}
+		new LoadHarness(mix, queryCache).run(threadCount, warmup, duration, seed);
+	}
+}
@@ -0,0 +1,49 @@
+package org.rspspin.benchmarks;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+import org.apache.jena.query.QueryFactory;
+import org.rspspin.lang.rspql.ParserRSPQL;
+
+/**
+ * Measures the bytes allocated per parse of each CSRBench query, with and
+ * without reuse of the char stream and token manager of the parser.
+ *
+ * Usage: java -cp target/benchmarks.jar org.rspspin.benchmarks.ParserAllocation
+ * [iterations]
+ */
+public class ParserAllocation {
+
+	public static void main(String[] args) {
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (!(bean instanceof com.sun.management.ThreadMXBean)
+				|| !((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported())
+			throw new IllegalStateException("Thread allocation measurement is not supported by this JVM");
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+		threads.setThreadAllocatedMemoryEnabled(true);
+
+		BenchmarkInputs.getManager();
+		Map<String, String> queries = BenchmarkInputs.readQueries();
+		System.out.println(String.format("%-10s %8s %16s %16s %8s", "query", "chars", "pooled B/parse",
+				"unpooled B/parse", "saved"));
+		long threadId = Thread.currentThread().getId();
+		for (Map.Entry<String, String> e : queries.entrySet()) {
+			long[] perParse = new long[2];
+			for (int mode = 0; mode < 2; mode++) {
+				ParserRSPQL.setPooling(mode == 0);
+				// Warm up before measuring
+				for (int i = 0; i < iterations; i++)
+					QueryFactory.create(e.getValue(), ParserRSPQL.syntax);
+				long before = threads.getThreadAllocatedBytes(threadId);
+				for (int i = 0; i < iterations; i++)
+					QueryFactory.create(e.getValue(), ParserRSPQL.syntax);
+				perParse[mode] = (threads.getThreadAllocatedBytes(threadId) - before) / iterations;
+			}
+			System.out.println(String.format("%-10s %8d %16d %16d %7.1f%%", e.getKey(), e.getValue().length(),
+					perParse[0], perParse[1], 100.0 * (perParse[1] - perParse[0]) / perParse[1]));
+		}
+		ParserRSPQL.setPooling(true);
+	}
+}
@@ -0,0 +1,51 @@
+package org.rspspin.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.jena.query.Query;
+import org.apache.jena.query.QueryFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.rspspin.lang.rspql.ParserRSPQL;
+
+/**
+ * Parsing of the CSRBench queries with the RSP-QL parser, with and without
+ * reuse of the char stream and token manager. Run with -prof gc for the bytes
+ * allocated per parse.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 2, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+public class ParserBenchmark {
+	@Param({ "query1", "query2", "query3", "query4", "query5", "query6", "query7" })
+	public String query;
+
+	@Param({ "true", "false" })
+	public boolean pooling;
+
+	private String queryString;
+
+	@Setup
+	public void setup() {
+		BenchmarkInputs.getManager();
+		ParserRSPQL.setPooling(pooling);
+		queryString = BenchmarkInputs.readQuery(query);
+	}
+
+	@Benchmark
+	public Query parse() {
+		return QueryFactory.create(queryString, ParserRSPQL.syntax);
+	}
+}
@@ -0,0 +1,100 @@
+package org.rspspin.benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.jena.query.Query;
+import org.apache.jena.query.QueryFactory;
+import org.apache.jena.query.Syntax;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.rspspin.lang.QueryWriter;
+import org.rspspin.lang.cqels.ParserCQELS;
+import org.rspspin.lang.csparql.ParserCSPARQL;
+import org.rspspin.lang.rspql.ParserRSPQL;
+import org.rspspin.lang.sparqlstream.ParserSPARQLStream;
+
+/**
+ * Serialization of all CSRBench queries in each dialect. Queries that can not
+ * be expressed in a dialect are left out of its measurement, the number of
+ * serialized queries is printed when the benchmark is set up. The queries are
+ * serialized to Strings and written to a stream that discards its input.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 2, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+public class SerializerBenchmark {
+	@Param({ "rspql", "cqels", "csparql", "sparqlstream" })
+	public String dialect;
+
+	private final List<Query> queries = new ArrayList<>();
+	private final OutputStream sink = new OutputStream() {
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+	};
+
+	@Setup
+	public void setup() {
+		BenchmarkInputs.getManager();
+		Syntax syntax = getSyntax(dialect);
+		for (String queryString : BenchmarkInputs.readQueries().values()) {
+			Query query = QueryFactory.create(queryString, ParserRSPQL.syntax);
+			query.setSyntax(syntax);
+			try {
+				query.toString();
+				queries.add(query);
+			} catch (RuntimeException e) {
+				// Not expressible in this dialect
+			}
+		}
+		System.out.println(String.format("Serializing %d queries as %s", queries.size(), dialect));
+	}
+
+	@Benchmark
+	public void serialize(Blackhole bh) {
+		for (Query query : queries)
+			bh.consume(query.toString());
+	}
+
+	@Benchmark
+	public void write() throws IOException {
+		for (Query query : queries)
+			QueryWriter.write(query, sink);
+	}
+
+	private static Syntax getSyntax(String dialect) {
+		switch (dialect) {
+		case "rspql":
+			return ParserRSPQL.syntax;
+		case "cqels":
+			return ParserCQELS.syntax;
+		case "csparql":
+			return ParserCSPARQL.syntax;
+		case "sparqlstream":
+			return ParserSPARQLStream.syntax;
+		default:
+			throw new IllegalArgumentException("Unknown dialect: " + dialect);
+		}
+	}
+}
@@ -0,0 +1,60 @@
+package org.rspspin.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.jena.query.Query;
+import org.apache.jena.query.QueryFactory;
+import org.apache.own.query.RSPQLQuery;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.rspspin.lang.rspql.ParserRSPQL;
+import org.topbraid.spin.arq.ARQ2SPIN;
+import org.topbraid.spin.arq.ARQFactory;
+import org.topbraid.spin.util.JenaUtil;
+
+/**
+ * Conversion of the CSRBench queries from ARQ to SPIN (ARQ2SPIN) and back
+ * (ARQFactory). The ARQFactory caches are disabled, so that each conversion
+ * prints and parses the query.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 2, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+public class SpinConversionBenchmark {
+	@Param({ "query1", "query2", "query3", "query4", "query5", "query6", "query7" })
+	public String query;
+
+	private RSPQLQuery arqQuery;
+	private org.topbraid.spin.model.Query spinQuery;
+
+	@Setup
+	public void setup() {
+		BenchmarkInputs.getManager();
+		ARQFactory.get().setUseCaches(false);
+		arqQuery = (RSPQLQuery) QueryFactory.create(BenchmarkInputs.readQuery(query), ParserRSPQL.syntax);
+		spinQuery = new ARQ2SPIN(JenaUtil.createDefaultModel()).createRSPQLQuery(arqQuery, null);
+	}
+
+	@Benchmark
+	public org.topbraid.spin.model.Query createRSPQLQuery() {
+		// A new model for each conversion, so that the model does not grow
+		return new ARQ2SPIN(JenaUtil.createDefaultModel()).createRSPQLQuery(arqQuery, null);
+	}
+
+	@Benchmark
+	public Query createQuery() {
+		return ARQFactory.get().createQuery(spinQuery);
+	}
+}
@@ -20,13 +20,17 @@ package org.apache.own.query;
 
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.regex.MatchResult;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -50,6 +54,8 @@ import org.apache.jena.sparql.util.FmtUtils;
 import org.apache.jena.sparql.util.NodeFactoryExtra;
 import org.apache.jena.update.UpdateFactory;
 import org.apache.jena.update.UpdateRequest;
+import org.topbraid.spin.arq.Instrumentation;
+import org.topbraid.spin.arq.Metrics;
 
 /**
  * <p>
@@ -148,6 +154,7 @@ public class ParameterizedSparqlString implements PrefixMapping {
 	private Map<String, Node> params = new HashMap<>();
 	private Map<Integer, Node> positionalParams = new HashMap<>();
 	private PrefixMapping prefixes;
+	private volatile TokenizedCommand tokenizedCommand = null;
 
 	/**
 	 * Creates a new parameterized string
@@ -1214,8 +1221,7 @@ public class ParameterizedSparqlString implements PrefixMapping {
 		Pattern p = Pattern.compile("\"[?$]" + var + "\"|'[?$]" + var + "'");
 
 		if (p.matcher(command).find() && n.isLiteral()) {
-			throw new ARQException("Command string is vunerable to injection attack, variable ?" + var
-					+ " appears surrounded directly by quotes and is bound to a literal which provides a SPARQL injection attack vector");
+			throw new ARQException(quotedVariableMessage(var));
 		}
 
 		// Parse out delimiter info
@@ -1229,8 +1235,7 @@ public class ParameterizedSparqlString implements PrefixMapping {
 
 			if (n.isLiteral()) {
 				if (delims.isInsideLiteral(posMatch.start(1), posMatch.end(1))) {
-					throw new ARQException("Command string is vunerable to injection attack, variable ?" + var
-							+ " appears inside of a literal and is bound to a literal which provides a SPARQL injection attack vector");
+					throw new ARQException(variableInLiteralMessage(var));
 				}
 			}
 		}
@@ -1282,6 +1287,10 @@ public class ParameterizedSparqlString implements PrefixMapping {
 	}
 
 	protected final String stringForNode(Node n, SerializationContext context) {
+		return formatNode(n, context);
+	}
+
+	private static String formatNode(Node n, SerializationContext context) {
 		String str = FmtUtils.stringForNode(n, context);
 		if (n.isLiteral() && str.contains("'")) {
 			// Should escape ' to avoid a possible injection vulnerability
@@ -1313,12 +1322,84 @@ public class ParameterizedSparqlString implements PrefixMapping {
 	 */
 	@Override
 	public String toString() {
+		long start = Metrics.start();
 		String command = this.cmd.toString();
-		Pattern p;
 
-		// Go ahead and inject Variable Parameters
+		// Build the final command string
+		StringBuilder finalCmd = new StringBuilder(command.length() + 256);
+
+		// Add BASE declaration
+		if (this.baseUri != null) {
+			finalCmd.append("BASE ");
+			finalCmd.append(FmtUtils.stringForURI(this.baseUri, null, null));
+			finalCmd.append('\n');
+		}
+
+		// Then pre-pend prefixes
+
+		for (String prefix : this.prefixes.getNsPrefixMap().keySet()) {
+			finalCmd.append("PREFIX ");
+			finalCmd.append(prefix);
+			finalCmd.append(": ");
+			finalCmd.append(FmtUtils.stringForURI(this.prefixes.getNsPrefixURI(prefix), null, null));
+			finalCmd.append('\n');
+		}
+
+		// Go ahead and inject the parameters. The command is tokenized once
+		// and the variable parameters are written out in a single pass,
+		// falling back to sequential injection whenever the single pass
+		// cannot guarantee an identical result
 		SerializationContext context = new SerializationContext(this.prefixes);
 		context.setBaseIRI(this.baseUri);
+		boolean injected = false;
+		try {
+			if (this.positionalParams.isEmpty() && this.getClass() == ParameterizedSparqlString.class)
+				injected = this.tokenize(command).inject(this.params, context, finalCmd);
+			if (!injected)
+				finalCmd.append(this.injectSequentially(command, context));
+		} catch (RuntimeException e) {
+			Metrics.fail(Instrumentation.PARAMETERIZED_STRING, start, e);
+			throw e;
+		}
+		Metrics.stop(Instrumentation.PARAMETERIZED_STRING, start, finalCmd.length());
+		return finalCmd.toString();
+	}
+
+	/**
+	 * Gets the tokenized form of the command, tokenizing it if the command
+	 * text changed since it was last tokenized
+	 * 
+	 * @param command
+	 *            Command string
+	 * @return Tokenized command
+	 */
+	private TokenizedCommand tokenize(String command) {
+		TokenizedCommand tokenized = this.tokenizedCommand;
+		if (tokenized == null || !tokenized.command.equals(command)) {
+			tokenized = new TokenizedCommand(command);
+			this.tokenizedCommand = tokenized;
+		}
+		return tokenized;
+	}
+
+	/**
+	 * Injects the variable and positional parameters one at a time, each
+	 * variable rewriting the whole command string. This is the reference
+	 * behaviour that the single pass injection must reproduce.
+	 * 
+	 * @param command
+	 *            Command string
+	 * @param context
+	 *            Serialization context
+	 * @return Command string with the parameters injected
+	 * @throws ARQException
+	 *             May be thrown if the code detects a SPARQL Injection
+	 *             vulnerability
+	 */
+	private String injectSequentially(String command, SerializationContext context) throws ARQException {
+		Pattern p;
+
+		// Go ahead and inject Variable Parameters
 		for (String var : this.params.keySet()) {
 			Node n = this.params.get(var);
 			if (n == null) {
@@ -1328,7 +1409,7 @@ public class ParameterizedSparqlString implements PrefixMapping {
 
 			// Special case for RSP-QL: Duration data type in windows should be
 			// printed with lexical form
-			if (n.isLiteral() && n.getLiteralDatatype().getURI().equals(XSDDatatype.XSDduration.getURI())) {
+			if (isDuration(n)) {
 				p = Pattern.compile("(RANGE\\s+|STEP\\s+)([?$]" + var + ")([^\\w]|$)");
 				command = p.matcher(command).replaceAll("$1" + n.getLiteralLexicalForm() + "$3");
 				p = Pattern.compile("(FROM\\s+NOW\\-|TO\\s+NOW\\-)([?$]" + var + ")([^\\w]|$)");
@@ -1363,29 +1444,21 @@ public class ParameterizedSparqlString implements PrefixMapping {
 			// track the offset adjustments to make
 			adj += nodeStr.length() - 1;
 		}
+		return command;
+	}
 
-		// Build the final command string
-		StringBuilder finalCmd = new StringBuilder();
-
-		// Add BASE declaration
-		if (this.baseUri != null) {
-			finalCmd.append("BASE ");
-			finalCmd.append(FmtUtils.stringForURI(this.baseUri, null, null));
-			finalCmd.append('\n');
-		}
-
-		// Then pre-pend prefixes
+	private static boolean isDuration(Node n) {
+		return n.isLiteral() && n.getLiteralDatatype().getURI().equals(XSDDatatype.XSDduration.getURI());
+	}
 
-		for (String prefix : this.prefixes.getNsPrefixMap().keySet()) {
-			finalCmd.append("PREFIX ");
-			finalCmd.append(prefix);
-			finalCmd.append(": ");
-			finalCmd.append(FmtUtils.stringForURI(this.prefixes.getNsPrefixURI(prefix), null, null));
-			finalCmd.append('\n');
-		}
+	private static String quotedVariableMessage(String var) {
+		return "Command string is vunerable to injection attack, variable ?" + var
+				+ " appears surrounded directly by quotes and is bound to a literal which provides a SPARQL injection attack vector";
+	}
 
-		finalCmd.append(command);
-		return finalCmd.toString();
+	private static String variableInLiteralMessage(String var) {
+		return "Command string is vunerable to injection attack, variable ?" + var
+				+ " appears inside of a literal and is bound to a literal which provides a SPARQL injection attack vector";
 	}
 
 	/**
@@ -1397,7 +1470,7 @@ public class ParameterizedSparqlString implements PrefixMapping {
 	 *                Thrown if the command text does not parse
 	 */
 	public Query asQuery(Syntax syntax) throws QueryException {
-		return QueryFactory.create(this.toString(), syntax);
+		return RSPQLQueryFactory.create(this.toString(), syntax);
 	}
 
 	/*
@@ -1409,7 +1482,7 @@ public class ParameterizedSparqlString implements PrefixMapping {
 	 * @exception QueryException Thrown if the command text does not parse
 	 */
 	public Query asQuery() throws QueryException {
-		return QueryFactory.create(this.toString());
+		return RSPQLQueryFactory.create(this.toString(), Syntax.defaultQuerySyntax);
 	}
 
 	/**
@@ -1445,7 +1518,9 @@ public class ParameterizedSparqlString implements PrefixMapping {
 	}
 
 	/**
-	 * Makes a copy of the command text and optionally copies other aspects
+	 * Makes a copy of the command text and optionally copies other aspects.
+	 * The copy shares the tokenized form of the command, so many copies of
+	 * one command can be instantiated without tokenizing it again.
 	 * 
 	 * @param copyParams
 	 *            Whether to copy parameters
@@ -1456,8 +1531,10 @@ public class ParameterizedSparqlString implements PrefixMapping {
 	 * @return Copy of the string
 	 */
 	public ParameterizedSparqlString copy(boolean copyParams, boolean copyBase, boolean copyPrefixes) {
-		ParameterizedSparqlString copy = new ParameterizedSparqlString(this.cmd.toString(), null,
+		String command = this.cmd.toString();
+		ParameterizedSparqlString copy = new ParameterizedSparqlString(command, null,
 				(copyBase ? this.baseUri : null), (copyPrefixes ? this.prefixes : null));
+		copy.tokenizedCommand = this.tokenize(command);
 		if (copyParams) {
 			Iterator<String> vars = this.getVars();
 			while (vars.hasNext()) {
@@ -1536,6 +1613,729 @@ public class ParameterizedSparqlString implements PrefixMapping {
 		return this.prefixes.samePrefixMappingAs(other);
 	}
 
+	/**
+	 * A variable occurrence in the command text
+	 * 
+	 */
+	private static class VarOccurrence {
+		private static final int CONTEXT_NONE = 0;
+		private static final int CONTEXT_RANGE_STEP = 1;
+		private static final int CONTEXT_FROM_TO = 2;
+
+		private final int index;
+		private final int start;
+		private final int end;
+		private final String var;
+		private int context = CONTEXT_NONE;
+		private int contextStart;
+
+		public VarOccurrence(int index, int start, int end, String var) {
+			this.index = index;
+			this.start = start;
+			this.end = end;
+			this.var = var;
+			this.contextStart = start;
+		}
+
+		/**
+		 * Detect whether the occurrence is a window range/step (preceded by
+		 * RANGE or STEP) or a past window bound (preceded by FROM NOW- or TO
+		 * NOW-)
+		 * 
+		 * @param command
+		 *            Command string
+		 */
+		public void findWindowContext(String command) {
+			int ws = skipWhitespaceBackwards(command, this.start);
+			if (ws < this.start) {
+				if (command.startsWith("RANGE", ws - 5)) {
+					this.context = CONTEXT_RANGE_STEP;
+					this.contextStart = ws - 5;
+				} else if (command.startsWith("STEP", ws - 4)) {
+					this.context = CONTEXT_RANGE_STEP;
+					this.contextStart = ws - 4;
+				}
+			} else if (command.startsWith("NOW-", this.start - 4)) {
+				ws = skipWhitespaceBackwards(command, this.start - 4);
+				if (ws < this.start - 4) {
+					if (command.startsWith("FROM", ws - 4)) {
+						this.context = CONTEXT_FROM_TO;
+						this.contextStart = ws - 4;
+					} else if (command.startsWith("TO", ws - 2)) {
+						this.context = CONTEXT_FROM_TO;
+						this.contextStart = ws - 2;
+					}
+				}
+			}
+		}
+
+		/**
+		 * Position at which a match of this occurrence resumes scanning, a
+		 * match consumes the character following the variable name
+		 * 
+		 * @param length
+		 *            Command length
+		 * @return Resume position
+		 */
+		public int resumeAt(int length) {
+			return this.end < length ? this.end + 1 : this.end;
+		}
+	}
+
+	/**
+	 * Represents the command text broken into variable occurrences so that
+	 * parameters can be injected in a single pass. Tokenization is done once
+	 * per command text and reused while only the parameters change. Instances
+	 * are shared between copies of a parameterized string and are safe for
+	 * concurrent use, so they hold no reference to the string they came from.
+	 * 
+	 */
+	private static class TokenizedCommand {
+		private final String command;
+		private final List<VarOccurrence> occurrences = new ArrayList<>();
+		private final Map<String, List<VarOccurrence>> occurrencesByVar = new HashMap<>();
+		private final Set<String> quotedVars = new HashSet<>();
+		private volatile CharIndex index = null;
+
+		public TokenizedCommand(String command) {
+			this.command = command;
+
+			int length = command.length();
+			for (int i = 0; i < length; i++) {
+				char c = command.charAt(i);
+				if (c != '?' && c != '$')
+					continue;
+				int end = i + 1;
+				while (end < length && isWordChar(command.charAt(end)))
+					end++;
+				if (end == i + 1)
+					continue;
+
+				VarOccurrence occ = new VarOccurrence(this.occurrences.size(), i, end, command.substring(i + 1, end));
+				occ.findWindowContext(command);
+				this.occurrences.add(occ);
+				this.occurrencesByVar.computeIfAbsent(occ.var, k -> new ArrayList<>()).add(occ);
+
+				// A ?var surrounded by " or ' is an attack vector for literals
+				if (i > 0 && end < length) {
+					char before = command.charAt(i - 1);
+					if ((before == '"' || before == '\'') && command.charAt(end) == before)
+						this.quotedVars.add(occ.var);
+				}
+				i = end - 1;
+			}
+		}
+
+		/**
+		 * Inject the variable parameters, appending the resulting command to
+		 * the given builder. Nothing is appended when the parameters interact
+		 * with the command text in a way that only sequential injection
+		 * reproduces, e.g. injected values that contain variables themselves.
+		 * 
+		 * @param params
+		 *            Variable parameters
+		 * @param context
+		 *            Serialization context
+		 * @param out
+		 *            Builder to append to
+		 * @return Whether the command was appended
+		 * @throws ARQException
+		 *             Thrown if a parameter is not safe to inject
+		 */
+		public boolean inject(Map<String, Node> params, SerializationContext context, StringBuilder out)
+				throws ARQException {
+			String[] replacements = new String[this.occurrences.size()];
+			for (String var : params.keySet()) {
+				Node n = params.get(var);
+				if (n == null)
+					continue;
+				if (!isWordString(var))
+					return false;
+				List<VarOccurrence> occs = this.occurrencesByVar.get(var);
+				if (occs == null)
+					continue;
+
+				String nodeStr = formatNode(n, context);
+				if (!isInert(nodeStr))
+					return false;
+				if (isDuration(n)) {
+					String lexical = n.getLiteralLexicalForm();
+					if (!isInert(lexical) || !this.isWindowContextStable(occs, params))
+						return false;
+					this.substitute(occs, VarOccurrence.CONTEXT_RANGE_STEP, lexical, replacements);
+					this.substitute(occs, VarOccurrence.CONTEXT_FROM_TO, lexical, replacements);
+				}
+				this.substitute(occs, VarOccurrence.CONTEXT_NONE, nodeStr, replacements);
+			}
+
+			// Directly adjacent occurrences of different parameters would let
+			// one injected value change how the next one is matched, as would
+			// a value injected right after a ? or $
+			for (VarOccurrence occ : this.occurrences) {
+				if (params.get(occ.var) == null || occ.start == 0)
+					continue;
+				char before = this.command.charAt(occ.start - 1);
+				if (before == '?' || before == '$')
+					return false;
+				if (occ.index > 0) {
+					VarOccurrence prev = this.occurrences.get(occ.index - 1);
+					if (prev.end == occ.start && !prev.var.equals(occ.var) && params.get(prev.var) != null)
+						return false;
+				}
+			}
+
+			if (!this.validateSafeToInject(params, replacements))
+				return false;
+
+			int pos = 0;
+			for (VarOccurrence occ : this.occurrences) {
+				String replacement = replacements[occ.index];
+				if (replacement == null)
+					continue;
+				out.append(this.command, pos, occ.start).append(replacement);
+				pos = occ.end;
+			}
+			out.append(this.command, pos, this.command.length());
+			return true;
+		}
+
+		/**
+		 * Mirrors a regular expression replaceAll over the occurrences of one
+		 * variable, a match is skipped when it starts inside the text consumed
+		 * by the previous match
+		 */
+		private void substitute(List<VarOccurrence> occs, int context, String value, String[] replacements) {
+			int resume = 0;
+			for (VarOccurrence occ : occs) {
+				if (replacements[occ.index] != null)
+					continue;
+				if (context != VarOccurrence.CONTEXT_NONE && occ.context != context)
+					continue;
+				int start = context == VarOccurrence.CONTEXT_NONE ? occ.start : occ.contextStart;
+				if (start < resume)
+					continue;
+				replacements[occ.index] = value;
+				resume = occ.resumeAt(this.command.length());
+			}
+		}
+
+		/**
+		 * Checks that the window keywords in front of the occurrences of a
+		 * duration parameter can not be affected by injecting another
+		 * parameter directly before them
+		 */
+		private boolean isWindowContextStable(List<VarOccurrence> occs, Map<String, Node> params) {
+			for (VarOccurrence occ : occs) {
+				if (occ.index == 0)
+					continue;
+				VarOccurrence prev = this.occurrences.get(occ.index - 1);
+				if (prev.var.equals(occ.var) || params.get(prev.var) == null)
+					continue;
+				String gap = this.command.substring(prev.end, occ.start);
+				if (gap.endsWith("NOW-"))
+					gap = gap.substring(0, gap.length() - 4);
+				if (gap.equals("-") || skipWhitespaceBackwards(gap, gap.length()) == 0)
+					return false;
+			}
+			return true;
+		}
+
+		/**
+		 * Performs the same checks as
+		 * {@link ParameterizedSparqlString#validateSafeToInject(String, String, Node)}
+		 * in parameter order, each against the command text as it would be at
+		 * that point of a sequential injection. The delimiters of the command
+		 * are indexed once and the injected values are tracked as they are
+		 * added rather than re-parsing the partially injected text.
+		 * 
+		 * @return Whether the checks could be performed, false when an
+		 *         injected value joins with the command text around it
+		 */
+		private boolean validateSafeToInject(Map<String, Node> params, String[] replacements) throws ARQException {
+			PartialCommand partial = null;
+			for (String var : params.keySet()) {
+				Node n = params.get(var);
+				if (n == null)
+					continue;
+				List<VarOccurrence> occs = this.occurrencesByVar.get(var);
+				if (occs == null)
+					continue;
+
+				if (n.isLiteral()) {
+					if (this.quotedVars.contains(var))
+						throw new ARQException(quotedVariableMessage(var));
+
+					if (partial == null)
+						partial = new PartialCommand(this, replacements);
+					partial.findJumps();
+
+					// Occurrences matched by the generic replacement
+					int resume = 0;
+					for (VarOccurrence occ : occs) {
+						if (occ.start < resume)
+							continue;
+						if (partial.isInsideLiteral(occ))
+							throw new ARQException(variableInLiteralMessage(var));
+						resume = occ.resumeAt(this.command.length());
+					}
+				}
+
+				for (VarOccurrence occ : occs) {
+					if (replacements[occ.index] == null)
+						continue;
+					if (partial == null)
+						partial = new PartialCommand(this, replacements);
+					if (!partial.inject(occ))
+						return false;
+				}
+			}
+			return true;
+		}
+
+		private CharIndex index() {
+			CharIndex index = this.index;
+			if (index == null) {
+				index = new CharIndex(this.command);
+				this.index = index;
+			}
+			return index;
+		}
+
+		/**
+		 * Index of the first occurrence that starts at or after the given
+		 * position
+		 */
+		private int occurrenceFrom(int position) {
+			int low = 0;
+			int high = this.occurrences.size();
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (this.occurrences.get(mid).start < position)
+					low = mid + 1;
+				else
+					high = mid;
+			}
+			return low;
+		}
+	}
+
+	/**
+	 * Positions of the characters that delimiter parsing acts on, grouped by
+	 * the role they can play
+	 * 
+	 */
+	private static class CharIndex {
+		private static final int DQUOTE = 0;
+		private static final int SQUOTE = 1;
+		private static final int LT = 2;
+		private static final int HASH = 3;
+		private static final int DQUOTE_CLOSE = 4;
+		private static final int SQUOTE_CLOSE = 5;
+		private static final int GT_CLOSE = 6;
+		private static final int NEWLINE = 7;
+		private static final int DQUOTE_TRIPLE = 8;
+		private static final int SQUOTE_TRIPLE = 9;
+		private static final int DELIMITER = 10;
+		private static final int CLASSES = 11;
+
+		private final int[][] positions = new int[CLASSES][];
+
+		public CharIndex(String str) {
+			int[] counts = new int[CLASSES];
+			for (int i = 0; i < str.length(); i++) {
+				int classes = classify(str, i);
+				for (int c = 0; classes != 0; c++, classes >>>= 1) {
+					if ((classes & 1) != 0)
+						counts[c]++;
+				}
+			}
+			for (int c = 0; c < CLASSES; c++) {
+				this.positions[c] = new int[counts[c]];
+				counts[c] = 0;
+			}
+			for (int i = 0; i < str.length(); i++) {
+				int classes = classify(str, i);
+				for (int c = 0; classes != 0; c++, classes >>>= 1) {
+					if ((classes & 1) != 0)
+						this.positions[c][counts[c]++] = i;
+				}
+			}
+		}
+
+		private static int classify(String str, int i) {
+			char c = str.charAt(i);
+			boolean escaped = i > 0 && str.charAt(i - 1) == '\\';
+			switch (c) {
+			case '"':
+			case '\'':
+				boolean dquote = c == '"';
+				int classes = (1 << (dquote ? DQUOTE : SQUOTE)) | (1 << DELIMITER);
+				if (!escaped)
+					classes |= 1 << (dquote ? DQUOTE_CLOSE : SQUOTE_CLOSE);
+				if (i < str.length() - 2 && str.charAt(i + 1) == c && str.charAt(i + 2) == c)
+					classes |= 1 << (dquote ? DQUOTE_TRIPLE : SQUOTE_TRIPLE);
+				return classes;
+			case '<':
+				return (1 << LT) | (1 << DELIMITER);
+			case '>':
+				return escaped ? 0 : 1 << GT_CLOSE;
+			case '#':
+				return (1 << HASH) | (1 << DELIMITER);
+			case '\n':
+			case '\r':
+				return (1 << NEWLINE) | (1 << DELIMITER);
+			case '.':
+			case ',':
+			case ';':
+			case '(':
+			case ')':
+			case '{':
+			case '}':
+			case '[':
+			case ']':
+				return 1 << DELIMITER;
+			default:
+				return 0;
+			}
+		}
+
+		public boolean contains(int cls) {
+			return this.positions[cls].length > 0;
+		}
+
+		/**
+		 * First position of the class at or after the given position, -1 if
+		 * there is none
+		 */
+		public int next(int cls, int from) {
+			int[] ps = this.positions[cls];
+			int i = Arrays.binarySearch(ps, from);
+			if (i < 0)
+				i = -i - 1;
+			return i < ps.length ? ps[i] : -1;
+		}
+
+		/**
+		 * Last position of the class before the given position, -1 if there
+		 * is none
+		 */
+		public int previous(int cls, int before) {
+			int[] ps = this.positions[cls];
+			int i = Arrays.binarySearch(ps, before);
+			if (i < 0)
+				i = -i - 1;
+			return i > 0 ? ps[i - 1] : -1;
+		}
+	}
+
+	/**
+	 * The command text of a {@link TokenizedCommand} with the values of some
+	 * of its occurrences injected. Positions in the text are ordered keys, the
+	 * high half is a position in the command and for an injected occurrence
+	 * the low half is a position in its value. Finds the same delimiters as
+	 * {@link DelimiterInfo#parseFrom(String)} over the text.
+	 * 
+	 */
+	private static class PartialCommand {
+		private static final long NONE = -1;
+
+		private final TokenizedCommand tokenized;
+		private final String[] replacements;
+		private final CharIndex commandIndex;
+		private final CharIndex[] injected;
+		private final Map<String, CharIndex> valueIndexes = new HashMap<>();
+		private final List<TreeSet<Integer>> injectedByClass = new ArrayList<>();
+		private final long end;
+		private long[] jumps = new long[0];
+
+		public PartialCommand(TokenizedCommand tokenized, String[] replacements) {
+			this.tokenized = tokenized;
+			this.replacements = replacements;
+			this.commandIndex = tokenized.index();
+			this.injected = new CharIndex[replacements.length];
+			for (int c = 0; c < CharIndex.CLASSES; c++)
+				this.injectedByClass.add(new TreeSet<>());
+			this.end = key(tokenized.command.length());
+		}
+
+		/**
+		 * Injects the value of an occurrence
+		 * 
+		 * @return False if the value would join with the characters around it,
+		 *         e.g. continue a run of quotes or follow a backslash
+		 */
+		public boolean inject(VarOccurrence occ) {
+			String value = this.replacements[occ.index];
+			if (value.isEmpty())
+				return false;
+			char first = value.charAt(0);
+			char last = value.charAt(value.length() - 1);
+			char before = this.charAt(occ.start - 1, occ.index - 1, true);
+			char after = this.charAt(occ.end, occ.index + 1, false);
+			if (before == '\\' || last == '\\')
+				return false;
+			if ((first == '"' || first == '\'') && before == first)
+				return false;
+			if ((last == '"' || last == '\'') && after == last)
+				return false;
+
+			CharIndex index = this.valueIndexes.computeIfAbsent(value, CharIndex::new);
+			this.injected[occ.index] = index;
+			for (int c = 0; c < CharIndex.CLASSES; c++) {
+				if (index.contains(c))
+					this.injectedByClass.get(c).add(occ.index);
+			}
+			return true;
+		}
+
+		/**
+		 * Character next to an occurrence, taken from the neighbouring
+		 * occurrence when that is adjacent and injected
+		 */
+		private char charAt(int position, int neighbour, boolean before) {
+			String command = this.tokenized.command;
+			if (position < 0 || position >= command.length())
+				return 0;
+			List<VarOccurrence> occurrences = this.tokenized.occurrences;
+			if (neighbour >= 0 && neighbour < occurrences.size() && this.injected[neighbour] != null) {
+				VarOccurrence occ = occurrences.get(neighbour);
+				String value = this.replacements[neighbour];
+				if (before && occ.end == position + 1)
+					return value.charAt(value.length() - 1);
+				if (!before && occ.start == position)
+					return value.charAt(0);
+			}
+			return command.charAt(position);
+		}
+
+		private static long key(int position) {
+			return (long) position << 32;
+		}
+
+		private static long key(VarOccurrence occ, int offset) {
+			return key(occ.start) | offset;
+		}
+
+		private VarOccurrence injectedAt(long key) {
+			int position = (int) (key >>> 32);
+			int i = this.tokenized.occurrenceFrom(position);
+			if (i < this.injected.length && this.injected[i] != null) {
+				VarOccurrence occ = this.tokenized.occurrences.get(i);
+				if (occ.start == position)
+					return occ;
+			}
+			return null;
+		}
+
+		private char charAt(long key) {
+			VarOccurrence occ = this.injectedAt(key);
+			if (occ != null)
+				return this.replacements[occ.index].charAt((int) key);
+			int position = (int) (key >>> 32);
+			return position < this.tokenized.command.length() ? this.tokenized.command.charAt(position) : 0;
+		}
+
+		private long following(long key) {
+			VarOccurrence occ = this.injectedAt(key);
+			if (occ == null)
+				return key + key(1);
+			int offset = (int) key + 1;
+			return offset < this.replacements[occ.index].length() ? key + 1 : key(occ.end);
+		}
+
+		private boolean isTripleStart(long key, char quote) {
+			long second = this.following(key);
+			return this.charAt(key) == quote && this.charAt(second) == quote
+					&& this.charAt(this.following(second)) == quote;
+		}
+
+		/**
+		 * First position of the class at or after the given key
+		 */
+		private long next(int cls, long from) {
+			int position = (int) (from >>> 32);
+			int occFrom;
+			VarOccurrence occ = this.injectedAt(from);
+			if (occ != null) {
+				int found = this.injected[occ.index].next(cls, (int) from);
+				if (found >= 0)
+					return key(occ, found);
+				position = occ.end;
+				occFrom = occ.index + 1;
+			} else {
+				occFrom = this.tokenized.occurrenceFrom(position);
+			}
+
+			long best = NONE;
+			int found = this.commandIndex.next(cls, position);
+			if (found >= 0)
+				best = key(found);
+			Integer i = this.injectedByClass.get(cls).ceiling(occFrom);
+			if (i != null) {
+				VarOccurrence value = this.tokenized.occurrences.get(i);
+				long candidate = key(value, this.injected[i].next(cls, 0));
+				if (best == NONE || candidate < best)
+					best = candidate;
+			}
+			return best;
+		}
+
+		/**
+		 * Last position of the class before the given key
+		 */
+		private long previous(int cls, long before) {
+			int position = (int) (before >>> 32);
+			int occBefore;
+			VarOccurrence occ = this.injectedAt(before);
+			if (occ != null) {
+				int found = this.injected[occ.index].previous(cls, (int) before);
+				if (found >= 0)
+					return key(occ, found);
+				position = occ.start;
+				occBefore = occ.index;
+			} else {
+				occBefore = this.tokenized.occurrenceFrom(position);
+			}
+
+			long best = NONE;
+			int found = this.commandIndex.previous(cls, position);
+			if (found >= 0)
+				best = key(found);
+			Integer i = this.injectedByClass.get(cls).lower(occBefore);
+			if (i != null) {
+				VarOccurrence value = this.tokenized.occurrences.get(i);
+				long candidate = key(value, this.injected[i].previous(cls, Integer.MAX_VALUE));
+				if (candidate > best)
+					best = candidate;
+			}
+			return best;
+		}
+
+		/**
+		 * Finds the delimiters whose scan skips ahead to a closing character,
+		 * as pairs of the opening position and the last position skipped
+		 */
+		public void findJumps() {
+			long lastGt = this.previous(CharIndex.GT_CLOSE, this.end);
+			long lastNewline = this.previous(CharIndex.NEWLINE, this.end);
+			long lastDquote = this.previous(CharIndex.DQUOTE_CLOSE, this.end);
+			long lastSquote = this.previous(CharIndex.SQUOTE_CLOSE, this.end);
+			long lastDtriple = this.previous(CharIndex.DQUOTE_TRIPLE, this.end);
+			long lastStriple = this.previous(CharIndex.SQUOTE_TRIPLE, this.end);
+
+			List<Long> found = new ArrayList<>();
+			long from = 0;
+			while (true) {
+				long[] jump = this.firstJump(CharIndex.LT, lastGt, from, null);
+				jump = this.firstJump(CharIndex.HASH, lastNewline, from, jump);
+				jump = this.firstQuoteJump('"', lastDquote, lastDtriple, from, jump);
+				jump = this.firstQuoteJump('\'', lastSquote, lastStriple, from, jump);
+				if (jump == null)
+					break;
+				found.add(jump[0]);
+				found.add(jump[1]);
+				from = this.following(jump[1]);
+			}
+			this.jumps = new long[found.size()];
+			for (int i = 0; i < this.jumps.length; i++)
+				this.jumps[i] = found.get(i);
+		}
+
+		/**
+		 * A '<' or '#' skips ahead when its closing character occurs after it
+		 */
+		private long[] firstJump(int opener, long lastClose, long from, long[] jump) {
+			long start = this.next(opener, from);
+			if (start == NONE || lastClose <= start || (jump != null && jump[0] < start))
+				return jump;
+			return new long[] { start, lastClose };
+		}
+
+		/**
+		 * A quote skips ahead when it is followed by a closing quote, a long
+		 * literal by a closing triple quote. A long literal without one leaves
+		 * the scan to continue with its second quote.
+		 */
+		private long[] firstQuoteJump(char quote, long lastClose, long lastTriple, long from, long[] jump) {
+			boolean dquote = quote == '"';
+			long start = this.next(dquote ? CharIndex.DQUOTE : CharIndex.SQUOTE, from);
+			while (start != NONE && (jump == null || start < jump[0])) {
+				if (this.isTripleStart(start, quote)) {
+					long first = this.following(this.following(this.following(start)));
+					if (lastTriple != NONE && lastTriple >= first)
+						return new long[] { start, this.following(this.following(lastTriple)) };
+					start = this.following(start);
+				} else {
+					if (lastClose > start)
+						return new long[] { start, lastClose };
+					break;
+				}
+			}
+			return jump;
+		}
+
+		/**
+		 * Same result as {@link DelimiterInfo#isInsideLiteral(int, int)} for
+		 * the occurrence, requires {@link #findJumps()} to be current
+		 */
+		public boolean isInsideLiteral(VarOccurrence occ) {
+			long start = key(occ.start);
+			long stop = key(occ.end);
+			long delimiter = NONE;
+			long skipped = NONE;
+			for (int i = 0; i < this.jumps.length; i += 2) {
+				if (this.jumps[i] >= start)
+					break;
+				if (start <= this.jumps[i + 1])
+					return this.isLiteralStart(this.jumps[i], stop);
+				delimiter = this.jumps[i];
+				skipped = this.jumps[i + 1];
+			}
+			long before = this.previous(CharIndex.DELIMITER, start);
+			if (before != NONE && before > skipped)
+				delimiter = before;
+			return delimiter != NONE && this.isLiteralStart(delimiter, stop);
+		}
+
+		private boolean isLiteralStart(long delimiter, long stop) {
+			if (this.charAt(delimiter) != '"' || this.isTripleStart(delimiter, '"'))
+				return false;
+			long close = this.next(CharIndex.DQUOTE_CLOSE, this.following(delimiter));
+			return close == NONE || close > stop;
+		}
+	}
+	private static boolean isWordChar(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+	}
+
+	private static boolean isWordString(String str) {
+		if (str.isEmpty())
+			return false;
+		for (int i = 0; i < str.length(); i++) {
+			if (!isWordChar(str.charAt(i)))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Whether an injected value can not introduce new variable occurrences
+	 * into the command
+	 */
+	private static boolean isInert(String value) {
+		return value.indexOf('?') < 0 && value.indexOf('$') < 0;
+	}
+
+	private static int skipWhitespaceBackwards(String str, int index) {
+		while (index > 0) {
+			char c = str.charAt(index - 1);
+			if (c != ' ' && c != '\t' && c != '\n' && c != '\u000B' && c != '\f' && c != '\r')
+				break;
+			index--;
+		}
+		return index;
+	}
+
 	/**
 	 * Represents information about delimiters in a string
 	 * 
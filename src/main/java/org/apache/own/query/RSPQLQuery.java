@@ -8,6 +8,8 @@ import org.rspspin.syntax.ElementLogicalWindow;
 import org.rspspin.syntax.ElementPhysicalWindow;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 
 public class RSPQLQuery extends Query{
 
@@ -20,10 +22,12 @@ public class RSPQLQuery extends Query{
 	private int outputStreamType = OutputStreamTypeUnknown;
 
 	private Node outputStream = null;
-	private List<Node> namedWindowNodes = new ArrayList<>();
+	private Set<Node> namedWindowNodes = new HashSet<>();
 	private List<ElementLogicalWindow> logicalWindows = new ArrayList<>();
 	private List<ElementLogicalPastWindow> logicalPastWindows = new ArrayList<>();
 	private List<ElementPhysicalWindow> physicalWindows = new ArrayList<>();
+	// Window declarations rendered by the dialect serializers, by dialect
+	private final Map<String, WindowDeclarations> windowDeclarations = new ConcurrentHashMap<>();
 
 
 	// LIMIT/OFFSET
@@ -106,17 +110,47 @@ public class RSPQLQuery extends Query{
 
 
 	/**
-	 * Makes a copy of this query. Copies by parsing a query from the serialized
-	 * form of this query
+	 * Makes a copy of this query. Copies the syntax tree of this query, the
+	 * query is not serialized and parsed.
 	 *
 	 * @return Copy of this query
 	 */
 	public RSPQLQuery cloneQuery() {
-		String qs = this.toString();
-		return RSPQLQueryFactory.create(qs, getSyntax());
+		return RSPQLQueryTransformOps.copy(this);
+	}
+
+	/**
+	 * Compute the structural fingerprint of this query
+	 *
+	 * @return
+	 * @see RSPQLQueryFingerprint
+	 */
+	public RSPQLQueryFingerprint getFingerprint() {
+		return RSPQLQueryFingerprint.of(this);
 	}
 
 
+	/**
+	 * Get the window declarations of this query rendered for a dialect, one
+	 * line per declaration. The lines are rendered on first use and cached
+	 * together with the windows they were rendered from, so they are rendered
+	 * again when the windows of the query change.
+	 *
+	 * @param dialect
+	 *            the dialect and any options the rendering depends on
+	 * @param render
+	 *            renders the declarations of this query
+	 * @return
+	 */
+	public List<String> getWindowDeclarations(String dialect, Function<RSPQLQuery, List<String>> render) {
+		WindowDeclarations declarations = windowDeclarations.get(dialect);
+		if (declarations == null || !declarations.renderedFrom(this)) {
+			declarations = new WindowDeclarations(this, render.apply(this));
+			windowDeclarations.put(dialect, declarations);
+		}
+		return declarations.lines;
+	}
+
 	public void addLogicalWindow(Node windowNameNode, Node streamNameNode, Node rangeNode, Node stepNode) {
 		checkDuplicateWindowUri(windowNameNode);
 		namedWindowNodes.add(windowNameNode);
@@ -147,12 +181,7 @@ public class RSPQLQuery extends Query{
 	}
 	
 	public boolean hasWindowUri(Node windowNameNode){
-		for (Node n : namedWindowNodes) {
-			if (n.toString().equals(windowNameNode.toString())) {
-				return true;
-			}
-		}
-		return false;
+		return namedWindowNodes.contains(windowNameNode);
 	}
 
 	public List<ElementLogicalWindow> getLogicalWindows() {
@@ -194,4 +223,27 @@ public class RSPQLQuery extends Query{
 	public void setQueryRstreamType() {
 		outputStreamType = OutputStreamTypeRstream;
 	}
+
+	/**
+	 * Window declarations rendered for a dialect and the windows they were
+	 * rendered from
+	 */
+	private static class WindowDeclarations {
+		private final List<ElementLogicalWindow> logicalWindows;
+		private final List<ElementLogicalPastWindow> logicalPastWindows;
+		private final List<ElementPhysicalWindow> physicalWindows;
+		private final List<String> lines;
+
+		private WindowDeclarations(RSPQLQuery query, List<String> lines) {
+			this.logicalWindows = new ArrayList<>(query.logicalWindows);
+			this.logicalPastWindows = new ArrayList<>(query.logicalPastWindows);
+			this.physicalWindows = new ArrayList<>(query.physicalWindows);
+			this.lines = Collections.unmodifiableList(new ArrayList<>(lines));
+		}
+
+		private boolean renderedFrom(RSPQLQuery query) {
+			return logicalWindows.equals(query.logicalWindows) && logicalPastWindows.equals(query.logicalPastWindows)
+					&& physicalWindows.equals(query.physicalWindows);
+		}
+	}
 }
@@ -1,8 +1,15 @@
 package org.apache.own.query;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
 import org.apache.jena.query.Query;
 import org.apache.jena.query.QueryFactory;
 import org.apache.jena.query.Syntax;
+import org.rspspin.lang.rspql.ParserRSPQL;
 
 public class RSPQLQueryFactory extends QueryFactory {
 
@@ -16,4 +23,45 @@ public class RSPQLQueryFactory extends QueryFactory {
         Query query = new RSPQLQuery();
         return (RSPQLQuery) parse(query, queryString, baseURI, syntax);
     }
+
+    /**
+     * Parse an RSP-QL query from a character sequence, reading the characters
+     * in place. Note that a String argument selects QueryFactory.create(String).
+     */
+    static public RSPQLQuery create(CharSequence queryString)
+    {
+        return (RSPQLQuery) new ParserRSPQL().parse(new RSPQLQuery(), queryString);
+    }
+
+    /**
+     * Parse an RSP-QL query from a reader
+     */
+    static public RSPQLQuery create(Reader reader)
+    {
+        return (RSPQLQuery) new ParserRSPQL().parse(new RSPQLQuery(), reader);
+    }
+
+    /**
+     * Parse an RSP-QL query from a UTF-8 encoded input stream
+     */
+    static public RSPQLQuery create(InputStream in)
+    {
+        return (RSPQLQuery) new ParserRSPQL().parse(new RSPQLQuery(), in);
+    }
+
+    /**
+     * Parse an RSP-QL query from the remaining UTF-8 encoded bytes of a buffer
+     */
+    static public RSPQLQuery create(ByteBuffer bytes)
+    {
+        return (RSPQLQuery) new ParserRSPQL().parse(new RSPQLQuery(), bytes);
+    }
+
+    /**
+     * Parse an RSP-QL query from a UTF-8 encoded file
+     */
+    static public RSPQLQuery read(Path path) throws IOException
+    {
+        return (RSPQLQuery) new ParserRSPQL().parse(new RSPQLQuery(), path);
+    }
 }
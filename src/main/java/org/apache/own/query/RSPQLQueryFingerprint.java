@@ -0,0 +1,506 @@
+package org.apache.own.query;
+
+import java.util.List;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.query.Query;
+import org.apache.jena.query.SortCondition;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.sparql.core.TriplePath;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.core.VarExprList;
+import org.apache.jena.sparql.engine.binding.Binding;
+import org.apache.jena.sparql.expr.Expr;
+import org.apache.jena.sparql.expr.ExprAggregator;
+import org.apache.jena.sparql.expr.ExprFunction;
+import org.apache.jena.sparql.expr.ExprFunctionOp;
+import org.apache.jena.sparql.syntax.*;
+import org.apache.own.sparql.syntax.WindowedElementVisitor;
+import org.rspspin.syntax.ElementLogicalPastWindow;
+import org.rspspin.syntax.ElementLogicalWindow;
+import org.rspspin.syntax.ElementPhysicalWindow;
+import org.rspspin.syntax.ElementWindowGraph;
+
+/**
+ * A 128-bit structural hash of an RSP-QL query, computed from the syntax tree
+ * instead of the query text. Two queries that only differ in prefix
+ * declarations, formatting or the order of their window declarations have the
+ * same fingerprint. Variables are not renamed, so queries that use different
+ * variable names have different fingerprints.
+ *
+ * Fingerprints are not cryptographic. They are meant as keys for caching and
+ * deduplication, where two queries with the same fingerprint can be treated as
+ * the same query.
+ */
+public final class RSPQLQueryFingerprint {
+	private final long high;
+	private final long low;
+
+	private RSPQLQueryFingerprint(long high, long low) {
+		this.high = high;
+		this.low = low;
+	}
+
+	/**
+	 * Compute the fingerprint of a query. The fingerprint is not stored on the
+	 * query, since a query can be changed after it has been computed.
+	 *
+	 * @param query
+	 * @return
+	 */
+	public static RSPQLQueryFingerprint of(RSPQLQuery query) {
+		return of(query, true);
+	}
+
+	/**
+	 * Compute the fingerprint of a query, optionally leaving out the name of
+	 * the output stream. Queries that only differ in the name of the stream
+	 * they register have the same fingerprint when the output stream is left
+	 * out. The stream operator is always included.
+	 *
+	 * @param query
+	 * @param outputStream
+	 *            include the name of the output stream
+	 * @return
+	 */
+	public static RSPQLQueryFingerprint of(RSPQLQuery query, boolean outputStream) {
+		Hasher hasher = new Hasher(outputStream);
+		hasher.hash(query);
+		return hasher.finish();
+	}
+
+	public long getHigh() {
+		return high;
+	}
+
+	public long getLow() {
+		return low;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (!(obj instanceof RSPQLQueryFingerprint))
+			return false;
+		RSPQLQueryFingerprint f = (RSPQLQueryFingerprint) obj;
+		return high == f.high && low == f.low;
+	}
+
+	@Override
+	public int hashCode() {
+		return (int) (low ^ (low >>> 32));
+	}
+
+	/**
+	 * Get the fingerprint as 32 hexadecimal digits
+	 */
+	@Override
+	public String toString() {
+		return String.format("%016x%016x", high, low);
+	}
+
+	/**
+	 * Feeds the syntax tree of a query into two 64-bit hash lanes. Every part
+	 * is preceded by a tag, so that e.g. an empty OPTIONAL and an empty MINUS
+	 * hash differently.
+	 */
+	private static class Hasher implements WindowedElementVisitor {
+		private static final long C1 = 0x87c37b91114253d5L;
+		private static final long C2 = 0x4cf5ad432745937fL;
+
+		private final boolean outputStream;
+		private long h1 = 0x52dce729L;
+		private long h2 = 0x38495ab5L;
+		private int length = 0;
+		private Query root = null;
+
+		private Hasher(boolean outputStream) {
+			this.outputStream = outputStream;
+		}
+
+		private void add(long v) {
+			long k1 = Long.rotateLeft(v * C1, 31) * C2;
+			h1 = Long.rotateLeft(h1 ^ k1, 27) + h2;
+			h1 = h1 * 5 + 0x52dce729L;
+			long k2 = Long.rotateLeft(v * C2, 33) * C1;
+			h2 = Long.rotateLeft(h2 ^ k2, 31) + h1;
+			h2 = h2 * 5 + 0x38495ab5L;
+			length++;
+		}
+
+		private void add(boolean b) {
+			add(b ? 1 : 0);
+		}
+
+		private void add(String s) {
+			if (s == null) {
+				add(-1);
+				return;
+			}
+			add(s.length());
+			long v = 0;
+			for (int i = 0; i < s.length(); i++) {
+				v = (v << 16) | s.charAt(i);
+				if ((i & 3) == 3) {
+					add(v);
+					v = 0;
+				}
+			}
+			if ((s.length() & 3) != 0)
+				add(v);
+		}
+
+		private void add(Node node) {
+			if (node == null) {
+				add('0');
+			} else if (node.isURI()) {
+				add('U');
+				add(node.getURI());
+			} else if (node.isLiteral()) {
+				add('L');
+				add(node.getLiteralLexicalForm());
+				add(node.getLiteralDatatypeURI());
+				add(node.getLiteralLanguage());
+			} else if (node.isBlank()) {
+				add('B');
+				add(node.getBlankNodeLabel());
+			} else if (node.isVariable()) {
+				add('V');
+				add(node.getName());
+			} else {
+				add('N');
+				add(node.toString());
+			}
+		}
+
+		private void add(Triple triple) {
+			add(triple.getSubject());
+			add(triple.getPredicate());
+			add(triple.getObject());
+		}
+
+		private void add(Element el) {
+			if (el == null)
+				add('0');
+			else
+				el.visit(this);
+		}
+
+		/**
+		 * Add an expression in postfix order: the arguments of a function
+		 * before the function and its number of arguments.
+		 */
+		private void add(Expr expr) {
+			if (expr == null) {
+				add('0');
+			} else if (expr instanceof ExprAggregator) {
+				add('a');
+				add(((ExprAggregator) expr).getAggregator().toString());
+			} else if (expr.isVariable()) {
+				add('v');
+				add(expr.getVarName());
+			} else if (expr.isConstant()) {
+				add('c');
+				add(expr.getConstant().asNode());
+			} else if (expr.isFunction()) {
+				ExprFunction f = expr.getFunction();
+				for (Expr arg : f.getArgs())
+					add(arg);
+				if (f instanceof ExprFunctionOp)
+					add(((ExprFunctionOp) f).getElement());
+				add('f');
+				add(f.getFunctionSymbol().getSymbol());
+				add(f.getFunctionIRI());
+				add(f.getArgs().size());
+			} else {
+				add('e');
+				add(expr.toString());
+			}
+		}
+
+		private void add(VarExprList list) {
+			add(list.size());
+			for (Var var : list.getVars()) {
+				add(var);
+				add(list.getExpr(var));
+			}
+		}
+
+		private void add(List<Var> vars, List<Binding> rows) {
+			add(vars.size());
+			for (Var var : vars)
+				add(var);
+			add(rows.size());
+			for (Binding row : rows) {
+				for (Var var : vars)
+					add(row.get(var));
+			}
+		}
+
+		private void hash(Query query) {
+			if (root == null)
+				root = query;
+			if (!(query instanceof RSPQLQuery)) {
+				// Plain SPARQL sub-queries are hashed by their text
+				add('S');
+				add(query.toString());
+				return;
+			}
+			RSPQLQuery q = (RSPQLQuery) query;
+			add('Q');
+			add(q.getQueryType());
+			// Only the top-level output stream is left out
+			if (outputStream || q != root)
+				add(q.getOutputStream());
+			add(q.getOutputStreamType());
+			add(q.isDistinct());
+			add(q.isReduced());
+			add(q.isQueryResultStar());
+
+			// Result form
+			if (q.isSelectType()) {
+				add(q.getProject());
+			} else if (q.isConstructType()) {
+				List<Quad> quads = q.getConstructTemplate().getQuads();
+				add(quads.size());
+				for (Quad quad : quads) {
+					add(quad.getGraph());
+					add(quad.getSubject());
+					add(quad.getPredicate());
+					add(quad.getObject());
+				}
+			} else if (q.isDescribeType()) {
+				add(q.getResultVars().size());
+				for (String varName : q.getResultVars())
+					add(varName);
+				add(q.getResultURIs().size());
+				for (Node node : q.getResultURIs())
+					add(node);
+			}
+
+			// Dataset
+			add(q.getGraphURIs().size());
+			for (String uri : q.getGraphURIs())
+				add(uri);
+			add(q.getNamedGraphURIs().size());
+			for (String uri : q.getNamedGraphURIs())
+				add(uri);
+
+			// Windows, independent of the order of declaration
+			long windows1 = 0;
+			long windows2 = 0;
+			for (ElementLogicalWindow w : q.getLogicalWindows()) {
+				Hasher window = new Hasher(true);
+				window.add('W');
+				window.add(w.getWindowNameNode());
+				window.add(w.getStreamNameNode());
+				window.add(w.getRangeNode());
+				window.add(w.getStepNode());
+				RSPQLQueryFingerprint f = window.finish();
+				windows1 += f.high;
+				windows2 += f.low;
+			}
+			for (ElementLogicalPastWindow w : q.getLogicalPastWindows()) {
+				Hasher window = new Hasher(true);
+				window.add('P');
+				window.add(w.getWindowNameNode());
+				window.add(w.getStreamNameNode());
+				window.add(w.getFromNode());
+				window.add(w.getToNode());
+				window.add(w.getStepNode());
+				RSPQLQueryFingerprint f = window.finish();
+				windows1 += f.high;
+				windows2 += f.low;
+			}
+			for (ElementPhysicalWindow w : q.getPhysicalWindows()) {
+				Hasher window = new Hasher(true);
+				window.add('T');
+				window.add(w.getWindowNameNode());
+				window.add(w.getStreamNameNode());
+				window.add(w.getRangeNode());
+				window.add(w.getStepNode());
+				RSPQLQueryFingerprint f = window.finish();
+				windows1 += f.high;
+				windows2 += f.low;
+			}
+			add(q.getLogicalWindows().size() + q.getLogicalPastWindows().size() + q.getPhysicalWindows().size());
+			add(windows1);
+			add(windows2);
+
+			// Pattern
+			add(q.getQueryPattern());
+
+			// Solution modifiers
+			add(q.hasGroupBy());
+			if (q.hasGroupBy())
+				add(q.getGroupBy());
+			add(q.hasHaving());
+			if (q.hasHaving()) {
+				add(q.getHavingExprs().size());
+				for (Expr expr : q.getHavingExprs())
+					add(expr);
+			}
+			add(q.hasOrderBy());
+			if (q.hasOrderBy()) {
+				add(q.getOrderBy().size());
+				for (SortCondition sc : q.getOrderBy()) {
+					add(sc.getExpression());
+					add(sc.getDirection());
+				}
+			}
+			add(q.getLimit());
+			add(q.getOffset());
+			add(q.getLimitNode());
+			add(q.getOffsetNode());
+			add(q.hasValues());
+			if (q.hasValues())
+				add(q.getValuesVariables(), q.getValuesData());
+		}
+
+		private RSPQLQueryFingerprint finish() {
+			long a = h1 ^ length;
+			long b = h2 ^ length;
+			a += b;
+			b += a;
+			a = mix(a);
+			b = mix(b);
+			a += b;
+			b += a;
+			return new RSPQLQueryFingerprint(a, b);
+		}
+
+		private static long mix(long k) {
+			k ^= k >>> 33;
+			k *= 0xff51afd7ed558ccdL;
+			k ^= k >>> 33;
+			k *= 0xc4ceb9fe1a85ec53L;
+			k ^= k >>> 33;
+			return k;
+		}
+
+		@Override
+		public void visit(ElementTriplesBlock el) {
+			add('t');
+			add(el.getPattern().size());
+			for (Triple triple : el.getPattern())
+				add(triple);
+		}
+
+		@Override
+		public void visit(ElementPathBlock el) {
+			add('p');
+			add(el.getPattern().size());
+			for (TriplePath path : el.getPattern()) {
+				if (path.isTriple()) {
+					add(path.asTriple());
+				} else {
+					add(path.getSubject());
+					add(path.getPath().toString());
+					add(path.getObject());
+				}
+			}
+		}
+
+		@Override
+		public void visit(ElementFilter el) {
+			add('F');
+			add(el.getExpr());
+		}
+
+		@Override
+		public void visit(ElementAssign el) {
+			add('A');
+			add(el.getVar());
+			add(el.getExpr());
+		}
+
+		@Override
+		public void visit(ElementBind el) {
+			add('b');
+			add(el.getVar());
+			add(el.getExpr());
+		}
+
+		@Override
+		public void visit(ElementData el) {
+			add('D');
+			add(el.getVars(), el.getRows());
+		}
+
+		@Override
+		public void visit(ElementUnion el) {
+			add('u');
+			add(el.getElements().size());
+			for (Element e : el.getElements())
+				add(e);
+		}
+
+		@Override
+		public void visit(ElementDataset el) {
+			add('d');
+			add(el.toString());
+		}
+
+		@Override
+		public void visit(ElementOptional el) {
+			add('o');
+			add(el.getOptionalElement());
+		}
+
+		@Override
+		public void visit(ElementGroup el) {
+			add('g');
+			add(el.getElements().size());
+			for (Element e : el.getElements())
+				add(e);
+		}
+
+		@Override
+		public void visit(ElementNamedGraph el) {
+			add('G');
+			add(el.getGraphNameNode());
+			add(el.getElement());
+		}
+
+		@Override
+		public void visit(ElementExists el) {
+			add('x');
+			add(el.getElement());
+		}
+
+		@Override
+		public void visit(ElementNotExists el) {
+			add('n');
+			add(el.getElement());
+		}
+
+		@Override
+		public void visit(ElementMinus el) {
+			add('m');
+			add(el.getMinusElement());
+		}
+
+		@Override
+		public void visit(ElementService el) {
+			add('s');
+			add(el.getServiceNode());
+			add(el.getSilent());
+			add(el.getElement());
+		}
+
+		@Override
+		public void visit(ElementSubQuery el) {
+			add('q');
+			hash(el.getQuery());
+		}
+
+		@Override
+		public void visit(ElementWindowGraph el) {
+			add('w');
+			add(el.getWindowNameNode());
+			add(el.getElement());
+		}
+	}
+}
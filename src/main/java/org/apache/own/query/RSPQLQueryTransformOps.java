@@ -0,0 +1,168 @@
+package org.apache.own.query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Map;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.query.SortCondition;
+import org.apache.jena.shared.impl.PrefixMappingImpl;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.core.VarExprList;
+import org.apache.jena.sparql.engine.binding.Binding;
+import org.apache.jena.sparql.expr.Expr;
+import org.apache.jena.sparql.expr.ExprAggregator;
+import org.apache.jena.sparql.modify.request.QuadAcc;
+import org.apache.jena.sparql.syntax.Template;
+import org.apache.own.sparql.syntax.ElementSubst;
+import org.rspspin.syntax.ElementLogicalPastWindow;
+import org.rspspin.syntax.ElementLogicalWindow;
+import org.rspspin.syntax.ElementPhysicalWindow;
+
+/**
+ * Support for transforming RSP-QL queries at the syntax level. This is the
+ * RSP-QL counterpart to the Jena QueryTransformOps and additionally covers the
+ * output stream, the window declarations and window graphs.
+ */
+public class RSPQLQueryTransformOps {
+
+	/**
+	 * Create a copy of a query where all variables bound in the substitution
+	 * map are replaced by the corresponding nodes. The original query is left
+	 * unchanged.
+	 *
+	 * @param query
+	 * @param substitutions
+	 * @return
+	 */
+	public static RSPQLQuery transform(RSPQLQuery query, Map<Var, Node> substitutions) {
+		RSPQLQuery q2 = new RSPQLQuery();
+		q2.setSyntax(query.getSyntax());
+		q2.setStrict(query.isStrict());
+
+		// Prologue
+		q2.setPrefixMapping(new PrefixMappingImpl().setNsPrefixes(query.getPrefixMapping()));
+		if (query.explicitlySetBaseURI())
+			q2.setBaseURI(query.getBaseURI());
+
+		// Output stream
+		q2.setOutputstream(ElementSubst.transform(query.getOutputStream(), substitutions));
+		q2.setOutputStreamOp(query.getOutputStreamType());
+
+		// Result form
+		if (query.isSelectType()) {
+			q2.setQuerySelectType();
+			q2.setQueryResultStar(query.isQueryResultStar());
+			transformVarExprList(query.getProject(), q2.getProject(), substitutions);
+		} else if (query.isConstructType()) {
+			q2.setQueryConstructType();
+			q2.setConstructTemplate(transform(query.getConstructTemplate(), substitutions));
+		} else if (query.isDescribeType()) {
+			q2.setQueryDescribeType();
+			q2.setQueryResultStar(query.isQueryResultStar());
+			for (String varName : query.getResultVars())
+				q2.addDescribeNode(ElementSubst.transform(Var.alloc(varName), substitutions));
+			for (Node node : query.getResultURIs())
+				q2.addDescribeNode(node);
+		} else if (query.isAskType()) {
+			q2.setQueryAskType();
+		}
+		q2.setDistinct(query.isDistinct());
+		q2.setReduced(query.isReduced());
+		for (ExprAggregator agg : query.getAggregators())
+			q2.getAggregators().add((ExprAggregator) ElementSubst.transform(agg, substitutions));
+
+		// Dataset
+		for (String uri : query.getGraphURIs())
+			q2.addGraphURI(uri);
+		for (String uri : query.getNamedGraphURIs())
+			q2.addNamedGraphURI(uri);
+
+		// Windows
+		for (ElementLogicalWindow w : query.getLogicalWindows()) {
+			q2.addLogicalWindow(ElementSubst.transform(w.getWindowNameNode(), substitutions),
+					ElementSubst.transform(w.getStreamNameNode(), substitutions),
+					ElementSubst.transform(w.getRangeNode(), substitutions),
+					ElementSubst.transform(w.getStepNode(), substitutions));
+		}
+		for (ElementLogicalPastWindow w : query.getLogicalPastWindows()) {
+			q2.addLogicalPastWindow(ElementSubst.transform(w.getWindowNameNode(), substitutions),
+					ElementSubst.transform(w.getStreamNameNode(), substitutions),
+					ElementSubst.transform(w.getFromNode(), substitutions),
+					ElementSubst.transform(w.getToNode(), substitutions),
+					ElementSubst.transform(w.getStepNode(), substitutions));
+		}
+		for (ElementPhysicalWindow w : query.getPhysicalWindows()) {
+			q2.addPhysicalWindow(ElementSubst.transform(w.getWindowNameNode(), substitutions),
+					ElementSubst.transform(w.getStreamNameNode(), substitutions),
+					ElementSubst.transform(w.getRangeNode(), substitutions),
+					ElementSubst.transform(w.getStepNode(), substitutions));
+		}
+
+		// Pattern
+		q2.setQueryPattern(ElementSubst.transform(query.getQueryPattern(), substitutions));
+
+		// Solution modifiers
+		if (query.hasGroupBy())
+			transformVarExprList(query.getGroupBy(), q2.getGroupBy(), substitutions);
+		if (query.hasHaving()) {
+			for (Expr expr : query.getHavingExprs())
+				q2.addHavingCondition(ElementSubst.transform(expr, substitutions));
+		}
+		if (query.hasOrderBy()) {
+			for (SortCondition sc : query.getOrderBy())
+				q2.addOrderBy(ElementSubst.transform(sc.getExpression(), substitutions), sc.getDirection());
+		}
+		q2.setLimit(query.getLimit());
+		q2.setOffset(query.getOffset());
+		q2.setLimitNode(ElementSubst.transform(query.getLimitNode(), substitutions));
+		q2.setOffsetNode(ElementSubst.transform(query.getOffsetNode(), substitutions));
+		if (query.hasValues())
+			q2.setValuesDataBlock(new ArrayList<Var>(query.getValuesVariables()),
+					new ArrayList<Binding>(query.getValuesData()));
+		return q2;
+	}
+
+	/**
+	 * Create a structural copy of a query without substituting any variables.
+	 *
+	 * @param query
+	 * @return
+	 */
+	public static RSPQLQuery copy(RSPQLQuery query) {
+		return transform(query, Collections.emptyMap());
+	}
+
+	/**
+	 * Copy a construct template, substituting bound variables.
+	 *
+	 * @param template
+	 * @param substitutions
+	 * @return
+	 */
+	public static Template transform(Template template, Map<Var, Node> substitutions) {
+		QuadAcc acc = new QuadAcc();
+		for (Quad quad : template.getQuads()) {
+			acc.addQuad(new Quad(ElementSubst.transform(quad.getGraph(), substitutions),
+					ElementSubst.transform(quad.getSubject(), substitutions),
+					ElementSubst.transform(quad.getPredicate(), substitutions),
+					ElementSubst.transform(quad.getObject(), substitutions)));
+		}
+		return new Template(acc);
+	}
+
+	/**
+	 * Copy projected/grouped expressions, substituting bound variables in the
+	 * expressions but never in the named variables themselves.
+	 */
+	private static void transformVarExprList(VarExprList from, VarExprList to, Map<Var, Node> substitutions) {
+		for (Var var : from.getVars()) {
+			Expr expr = from.getExpr(var);
+			if (expr == null)
+				to.add(var);
+			else
+				to.add(var, ElementSubst.transform(expr, substitutions));
+		}
+	}
+}
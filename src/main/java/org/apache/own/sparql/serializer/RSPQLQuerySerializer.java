@@ -21,6 +21,7 @@ package org.apache.own.sparql.serializer;
 import java.io.OutputStream;
 import java.util.List;
 
+import org.apache.jena.atlas.io.IndentedLineBuffer;
 import org.apache.jena.atlas.io.IndentedWriter;
 import org.apache.jena.graph.Node;
 import org.apache.jena.query.Query;
@@ -35,6 +36,8 @@ import org.apache.jena.sparql.syntax.Element;
 import org.apache.jena.sparql.syntax.Template;
 import org.apache.jena.sparql.util.FmtUtils;
 import org.apache.own.query.RSPQLQueryVisitor;
+import org.topbraid.spin.arq.Instrumentation;
+import org.topbraid.spin.arq.Metrics;
 
 /**
  * Serialize a query into SPARQL or ARQ formats
@@ -45,6 +48,17 @@ public class RSPQLQuerySerializer implements RSPQLQueryVisitor {
 	protected org.apache.own.sparql.serializer.FormatterElement fmtElement;
 	protected FmtExprSPARQL fmtExpr;
 	protected IndentedWriter out = null;
+	// Serializations are measured per serializer class, e.g. serialize.CSPARQLSerializer
+	private static final ClassValue<String> operations = new ClassValue<String>() {
+		@Override
+		protected String computeValue(Class<?> type) {
+			return Instrumentation.SERIALIZE + type.getSimpleName();
+		}
+	};
+	private long visitStart = Metrics.DISABLED;
+	private int visitRow = 0;
+	// Prologue serialized beforehand, shared by serializations of one query
+	private String prologueText = null;
 
 	public RSPQLQuerySerializer(OutputStream _out, org.apache.own.sparql.serializer.FormatterElement formatterElement, FmtExprSPARQL formatterExpr,
 								FormatterTemplate formatterTemplate) {
@@ -61,6 +75,8 @@ public class RSPQLQuerySerializer implements RSPQLQueryVisitor {
 
 	@Override
 	public void startVisit(Query query) {
+		visitStart = Metrics.start();
+		visitRow = out.getRow();
 	}
 
 	@Override
@@ -69,6 +85,37 @@ public class RSPQLQuerySerializer implements RSPQLQueryVisitor {
 
 	@Override
 	public void visitPrologue(Prologue prologue) {
+		if (prologueText != null)
+			out.print(prologueText);
+		else
+			writePrologue(out, prologue);
+	}
+
+	/**
+	 * Use a prologue serialized by {@link #serializePrologue(Prologue)}
+	 * instead of serializing the prologue of the visited query. The prologue
+	 * does not depend on the syntax, so it can be shared when a query is
+	 * serialized in several syntaxes.
+	 * 
+	 * @param prologueText
+	 */
+	public void setPrologueText(String prologueText) {
+		this.prologueText = prologueText;
+	}
+
+	/**
+	 * Serialize the prologue (base and prefix declarations) of a query
+	 * 
+	 * @param prologue
+	 * @return
+	 */
+	public static String serializePrologue(Prologue prologue) {
+		IndentedLineBuffer buffer = new IndentedLineBuffer();
+		writePrologue(buffer, prologue);
+		return buffer.asString();
+	}
+
+	private static void writePrologue(IndentedWriter out, Prologue prologue) {
 		int row1 = out.getRow();
 		PrologueSerializer.output(out, prologue);
 		int row2 = out.getRow();
@@ -277,6 +324,8 @@ public class RSPQLQuerySerializer implements RSPQLQueryVisitor {
 	@Override
 	public void finishVisit(Query query) {
 		out.flush();
+		if (visitStart != Metrics.DISABLED)
+			Metrics.stop(operations.get(getClass()), visitStart, out.getRow() - visitRow);
 	}
 
 	// ----
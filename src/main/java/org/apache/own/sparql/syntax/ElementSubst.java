@@ -0,0 +1,265 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.own.sparql.syntax;
+
+import java.util.Map;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.query.Query;
+import org.apache.jena.sparql.algebra.Op;
+import org.apache.jena.sparql.core.BasicPattern;
+import org.apache.jena.sparql.core.TriplePath;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.expr.E_Exists;
+import org.apache.jena.sparql.expr.E_NotExists;
+import org.apache.jena.sparql.expr.Expr;
+import org.apache.jena.sparql.expr.ExprAggregator;
+import org.apache.jena.sparql.expr.ExprFunctionOp;
+import org.apache.jena.sparql.expr.ExprList;
+import org.apache.jena.sparql.expr.ExprTransformCopy;
+import org.apache.jena.sparql.expr.ExprTransformer;
+import org.apache.jena.sparql.expr.ExprVar;
+import org.apache.jena.sparql.expr.NodeValue;
+import org.apache.jena.sparql.expr.aggregate.Aggregator;
+import org.apache.jena.sparql.syntax.*;
+import org.apache.jena.sparql.syntax.syntaxtransform.QueryTransformOps;
+import org.apache.own.query.RSPQLQuery;
+import org.apache.own.query.RSPQLQueryTransformOps;
+import org.rspspin.syntax.ElementWindowGraph;
+
+/**
+ * An element visitor that builds a copy of the graph pattern tree where
+ * variables are replaced by the nodes they are bound to. Unlike the Jena
+ * element transformers this also descends into window graphs. Assigned
+ * variables (BIND/LET) and inline data are left untouched.
+ */
+
+public class ElementSubst implements WindowedElementVisitor {
+	private final Map<Var, Node> substitutions;
+	private Element result = null;
+
+	private ElementSubst(Map<Var, Node> substitutions) {
+		this.substitutions = substitutions;
+	}
+
+	/**
+	 * Copy an element, substituting bound variables.
+	 *
+	 * @param el
+	 * @param substitutions
+	 * @return
+	 */
+	public static Element transform(Element el, Map<Var, Node> substitutions) {
+		if (el == null)
+			return null;
+		ElementSubst subst = new ElementSubst(substitutions);
+		return subst.copy(el);
+	}
+
+	/**
+	 * Copy an expression, substituting bound variables.
+	 *
+	 * @param expr
+	 * @param substitutions
+	 * @return
+	 */
+	public static Expr transform(Expr expr, Map<Var, Node> substitutions) {
+		if (expr == null)
+			return null;
+		return new ElementSubst(substitutions).copy(expr);
+	}
+
+	/**
+	 * Substitute a single node. Nodes that are not bound variables are
+	 * returned as is.
+	 *
+	 * @param node
+	 * @param substitutions
+	 * @return
+	 */
+	public static Node transform(Node node, Map<Var, Node> substitutions) {
+		if (node == null || !node.isVariable())
+			return node;
+		Node value = substitutions.get(Var.alloc(node));
+		return value == null ? node : value;
+	}
+
+	private Element copy(Element el) {
+		result = null;
+		el.visit(this);
+		Element copy = result;
+		result = null;
+		return copy;
+	}
+
+	private Node copy(Node node) {
+		return transform(node, substitutions);
+	}
+
+	private Expr copy(Expr expr) {
+		return ExprTransformer.transform(new ExprTransformSubst(), expr);
+	}
+
+	private Triple copy(Triple triple) {
+		return new Triple(copy(triple.getSubject()), copy(triple.getPredicate()), copy(triple.getObject()));
+	}
+
+	@Override
+	public void visit(ElementTriplesBlock el) {
+		BasicPattern bgp = new BasicPattern();
+		for (Triple triple : el.getPattern())
+			bgp.add(copy(triple));
+		result = new ElementTriplesBlock(bgp);
+	}
+
+	@Override
+	public void visit(ElementPathBlock el) {
+		ElementPathBlock block = new ElementPathBlock();
+		for (TriplePath path : el.getPattern()) {
+			if (path.isTriple())
+				block.addTriple(new TriplePath(copy(path.asTriple())));
+			else
+				block.addTriple(new TriplePath(copy(path.getSubject()), path.getPath(), copy(path.getObject())));
+		}
+		result = block;
+	}
+
+	@Override
+	public void visit(ElementFilter el) {
+		result = new ElementFilter(copy(el.getExpr()));
+	}
+
+	@Override
+	public void visit(ElementAssign el) {
+		result = new ElementAssign(el.getVar(), copy(el.getExpr()));
+	}
+
+	@Override
+	public void visit(ElementBind el) {
+		result = new ElementBind(el.getVar(), copy(el.getExpr()));
+	}
+
+	@Override
+	public void visit(ElementData el) {
+		result = el;
+	}
+
+	@Override
+	public void visit(ElementUnion el) {
+		ElementUnion union = new ElementUnion();
+		for (Element e : el.getElements())
+			union.addElement(copy(e));
+		result = union;
+	}
+
+	@Override
+	public void visit(ElementDataset el) {
+		result = el;
+	}
+
+	@Override
+	public void visit(ElementOptional el) {
+		result = new ElementOptional(copy(el.getOptionalElement()));
+	}
+
+	@Override
+	public void visit(ElementGroup el) {
+		ElementGroup group = new ElementGroup();
+		for (Element e : el.getElements())
+			group.addElement(copy(e));
+		result = group;
+	}
+
+	@Override
+	public void visit(ElementNamedGraph el) {
+		result = new ElementNamedGraph(copy(el.getGraphNameNode()), copy(el.getElement()));
+	}
+
+	@Override
+	public void visit(ElementExists el) {
+		result = new ElementExists(copy(el.getElement()));
+	}
+
+	@Override
+	public void visit(ElementNotExists el) {
+		result = new ElementNotExists(copy(el.getElement()));
+	}
+
+	@Override
+	public void visit(ElementMinus el) {
+		result = new ElementMinus(copy(el.getMinusElement()));
+	}
+
+	@Override
+	public void visit(ElementService el) {
+		result = new ElementService(copy(el.getServiceNode()), copy(el.getElement()), el.getSilent());
+	}
+
+	@Override
+	public void visit(ElementSubQuery el) {
+		Query query = el.getQuery();
+		if (query instanceof RSPQLQuery)
+			result = new ElementSubQuery(RSPQLQueryTransformOps.transform((RSPQLQuery) query, substitutions));
+		else
+			result = new ElementSubQuery(QueryTransformOps.transform(query, substitutions));
+	}
+
+	@Override
+	public void visit(ElementWindowGraph el) {
+		result = new ElementWindowGraph(copy(el.getWindowNameNode()), copy(el.getElement()));
+	}
+
+	/**
+	 * Expression transform that replaces bound variables by constants and
+	 * descends into (NOT) EXISTS patterns.
+	 */
+	private class ExprTransformSubst extends ExprTransformCopy {
+		@Override
+		public Expr transform(ExprVar exprVar) {
+			Node node = copy(exprVar.asVar());
+			if (node.isVariable())
+				return exprVar;
+			return NodeValue.makeNode(node);
+		}
+
+		@Override
+		public Expr transform(ExprFunctionOp funcOp, ExprList args, Op opArg) {
+			if (funcOp instanceof E_Exists)
+				return new E_Exists(ElementSubst.transform(funcOp.getElement(), substitutions));
+			if (funcOp instanceof E_NotExists)
+				return new E_NotExists(ElementSubst.transform(funcOp.getElement(), substitutions));
+			return super.transform(funcOp, args, opArg);
+		}
+
+		@Override
+		public Expr transform(ExprAggregator eAgg) {
+			// Aggregators are copied so that a copy of a query shares no
+			// expressions with the original
+			Aggregator agg = eAgg.getAggregator();
+			ExprList exprs = null;
+			if (agg.getExprList() != null) {
+				exprs = new ExprList();
+				for (Expr expr : agg.getExprList())
+					exprs.add(copy(expr));
+			}
+			return new ExprAggregator(eAgg.getVar(), agg.copy(exprs));
+		}
+	}
+}
@@ -0,0 +1,181 @@
+package org.rspspin.core;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.jena.query.QuerySolutionMap;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.vocabulary.RDFS;
+import org.apache.jena.vocabulary.XSD;
+import org.topbraid.spin.arq.Instrumentation;
+import org.topbraid.spin.arq.Metrics;
+import org.topbraid.spin.model.Module;
+import org.topbraid.spin.util.JenaUtil;
+
+/**
+ * Validates template bindings against the argument declarations of a
+ * template. The configuration of a validator is fixed at construction, so a
+ * validator can be shared by many threads and template managers as long as
+ * the ontology model is not modified while validating. A validator with a
+ * different configuration is created with {@link #withStrict(boolean)} and
+ * {@link #withOntModel(Model)}.
+ */
+public final class ArgumentValidator {
+	private final boolean strict;
+	// The model used to check indirect typing for value types, and if set
+	// should contain the relevant ontology/ontologies
+	private final Model ontModel;
+
+	/**
+	 * Create a validator.
+	 * 
+	 * @param strict
+	 *            whether bindings of variables that are not parameters are
+	 *            errors
+	 * @param ontModel
+	 *            the model used to check indirect typing for value types
+	 */
+	public ArgumentValidator(boolean strict, Model ontModel) {
+		if (ontModel == null)
+			throw new IllegalArgumentException("The ontology model must not be null");
+		this.strict = strict;
+		this.ontModel = ontModel;
+	}
+
+	public boolean isStrict() {
+		return strict;
+	}
+
+	public Model getOntModel() {
+		return ontModel;
+	}
+
+	/**
+	 * Get a validator with this ontology model and the given strictness
+	 * 
+	 * @param strict
+	 * @return
+	 */
+	public ArgumentValidator withStrict(boolean strict) {
+		return strict == this.strict ? this : new ArgumentValidator(strict, ontModel);
+	}
+
+	/**
+	 * Get a validator with this strictness and the given ontology model
+	 * 
+	 * @param ontModel
+	 * @return
+	 */
+	public ArgumentValidator withOntModel(Model ontModel) {
+		return ontModel == this.ontModel ? this : new ArgumentValidator(strict, ontModel);
+	}
+
+	public void validate(Module module, QuerySolutionMap bindings) throws ArgumentConstraintException {
+		validate(new ValidationPlan(module), bindings);
+	}
+
+	/**
+	 * Validate bindings against a precompiled validation plan. The template
+	 * graph is not accessed.
+	 * 
+	 * @param plan
+	 * @param bindings
+	 * @throws ArgumentConstraintException
+	 */
+	public void validate(ValidationPlan plan, QuerySolutionMap bindings) throws ArgumentConstraintException {
+		long start = Metrics.start();
+		List<String> errors = new LinkedList<String>();
+
+		// Raise error on undefined parameters
+		if (strict) {
+			Set<String> parameterNames = plan.getParameterNames();
+			bindings.varNames().forEachRemaining((v) -> {
+				if (!parameterNames.contains(v)) {
+					errors.add(String.format("Variable '%s' is not a parameter in the template", v));
+				}
+			});
+		}
+
+		// Check that each binding meets the argument constraint
+		for (int i = 0; i < plan.size(); i++) {
+			String varName = plan.getVarName(i);
+			RDFNode value = bindings.get(varName);
+			Resource valueType = plan.getValueType(i);
+
+			// If null and not optional
+			if (value == null) {
+				if (!plan.isOptional(i)) {
+					errors.add(String.format("Missing required parameter ", varName));
+					continue;
+				}
+				value = plan.getDefaultValue(i);
+			}
+
+			// If value is null here continue
+			if (value == null)
+				continue;
+
+			// If the parameter represents a list validate each member
+			String e = validateBinding(varName, value, valueType);
+			if (e != null)
+				errors.add(e);
+
+		}
+
+		// Throw exception if errors were present
+		if (!errors.isEmpty()) {
+			ArgumentConstraintException e = new ArgumentConstraintException(errors);
+			Metrics.fail(Instrumentation.VALIDATE, start, e);
+			throw e;
+		}
+		Metrics.stop(Instrumentation.VALIDATE, start, plan.size());
+	}
+
+	/**
+	 * Validate a binding. This validation supports typed and indirect types for
+	 * resources provided that the information is present in the ontModel.
+	 * 
+	 * @param varName
+	 * @param value
+	 * @param valueType
+	 * @return
+	 */
+	private String validateBinding(String varName, RDFNode value, Resource valueType) {
+		if (value.isResource()) {
+			// Validate URI
+			if (!RSPSPINUtils.isValidUri(value.toString()))
+				return String.format("Value '%s' for parameter '%s' is not a valid URI", value, varName);
+
+			// Return if value type is null or rdfs:Resource
+			if (valueType == null || RDFS.Resource.equals(valueType))
+				return null;
+
+			// Value is instance of valueType (in ontModel)
+			// Associate value and value type with ontModel
+			value = value.inModel(ontModel);
+			valueType = valueType.inModel(ontModel);
+			if (JenaUtil.hasIndirectType((Resource) value, valueType)) {
+				return String.format("Resource '%s' for parameter '%s' must have direct/indirect type '%s'", value,
+						varName, valueType);
+			}
+		} else {
+			// Return if value type is rdfs:Literal
+			if (RDFS.Literal.equals(valueType))
+				return null;
+
+			// Validate typed literal
+			String datatypeURI = value.asLiteral().getDatatypeURI();
+			if (value.asLiteral().getLanguage().length() > 0) {
+				datatypeURI = XSD.xstring.getURI();
+			}
+			if (!valueType.getURI().equals(datatypeURI)) {
+				return String.format("Literal '%s' for parameter '%s' must have datatype '%s'", value, varName,
+						valueType);
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,22 @@
+package org.rspspin.core;
+
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+
+import org.topbraid.spin.model.Template;
+
+/**
+ * The AsyncLibraryEndpointService interface provides non-blocking methods for
+ * managing templates persisted in a triple store. Failures are reported by
+ * completing the returned futures exceptionally.
+ */
+
+public interface AsyncLibraryEndpointService {
+	public CompletableFuture<Void> storeTemplate(Template template);
+
+	public CompletableFuture<Void> deleteTemplate(String templateUri);
+
+	public CompletableFuture<Template> getTemplate(String templateUri);
+
+	public CompletableFuture<ArrayList<Template>> loadTemplates();
+}
@@ -0,0 +1,146 @@
+package org.rspspin.core;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import org.apache.jena.query.ResultSet;
+import org.apache.jena.query.ResultSetFactory;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.topbraid.spin.model.Template;
+
+/**
+ * Non-blocking counterpart of {@link LibraryEndpointServiceImpl}. All
+ * requests go through one shared {@link LibraryHttpClient}, which bounds the
+ * number of concurrent requests, reuses connections and retries failed
+ * requests.
+ *
+ * In addition to the library endpoint properties, the following optional
+ * properties are read: library.endpoint.concurrency,
+ * library.endpoint.timeout.connect and library.endpoint.timeout.read (in
+ * milliseconds), library.endpoint.retries and library.endpoint.retry.delay (in
+ * milliseconds).
+ */
+
+public class AsyncLibraryEndpointServiceImpl implements AsyncLibraryEndpointService {
+	private static final String SPARQL_QUERY = "application/sparql-query";
+	private static final String SPARQL_UPDATE = "application/sparql-update";
+	private static final String SPARQL_RESULTS_JSON = "application/sparql-results+json";
+	private static final String N_TRIPLES = "application/n-triples";
+
+	private final LibraryHttpClient client;
+	private final String graph;
+	private final String queryEndpoint;
+	private final String updateEndpoint;
+
+	public AsyncLibraryEndpointServiceImpl(String propsPath) throws IOException {
+		Properties props = new Properties();
+		props.load(Thread.currentThread().getContextClassLoader().getResourceAsStream(propsPath));
+		graph = props.getProperty("library.endpoint.graph");
+		queryEndpoint = props.getProperty("library.endpoint.query");
+		updateEndpoint = props.getProperty("library.endpoint.update");
+		client = new LibraryHttpClient(
+				Integer.parseInt(props.getProperty("library.endpoint.concurrency", "4")),
+				Integer.parseInt(props.getProperty("library.endpoint.timeout.connect", "10000")),
+				Integer.parseInt(props.getProperty("library.endpoint.timeout.read", "60000")),
+				Integer.parseInt(props.getProperty("library.endpoint.retries", "2")),
+				Long.parseLong(props.getProperty("library.endpoint.retry.delay", "500")));
+		client.setAuthentication(props.getProperty("library.endpoint.username"),
+				props.getProperty("library.endpoint.password"));
+	}
+
+	/**
+	 * Create a service using the given client.
+	 *
+	 * @param client
+	 * @param graph
+	 * @param queryEndpoint
+	 * @param updateEndpoint
+	 */
+	public AsyncLibraryEndpointServiceImpl(LibraryHttpClient client, String graph, String queryEndpoint,
+			String updateEndpoint) {
+		this.client = client;
+		this.graph = graph;
+		this.queryEndpoint = queryEndpoint;
+		this.updateEndpoint = updateEndpoint;
+	}
+
+	/**
+	 * Store a template in the library. The future fails with an
+	 * RSPSPINException if the template URI is already in use.
+	 *
+	 * @param template
+	 * @return
+	 */
+	@Override
+	public CompletableFuture<Void> storeTemplate(Template template) {
+		List<Template> templates = Collections.singletonList(template);
+		String existsQuery = LibraryEndpointServiceImpl.existsQuery(graph, templates);
+		return client.post(queryEndpoint, SPARQL_QUERY, existsQuery, SPARQL_RESULTS_JSON, true, (in) -> {
+			ResultSet rs = ResultSetFactory.fromJSON(in);
+			return rs.hasNext();
+		}).thenCompose((exists) -> {
+			if (exists)
+				throw new CompletionException(new RSPSPINException(
+						String.format("Template URI '%s' already in use", template.getURI())));
+			String update = LibraryEndpointServiceImpl.insertTemplatesUpdate(graph, templates).toString();
+			return update(update);
+		});
+	}
+
+	@Override
+	public CompletableFuture<Void> deleteTemplate(String uri) {
+		return update(LibraryEndpointServiceImpl.deleteTemplateUpdate(graph, uri));
+	}
+
+	/**
+	 * Get a template from the library, the future completes with null if the
+	 * template does not exist.
+	 *
+	 * @param uri
+	 * @return
+	 */
+	@Override
+	public CompletableFuture<Template> getTemplate(String uri) {
+		return construct(LibraryEndpointServiceImpl.getTemplateQuery(graph, uri))
+				.thenApply((model) -> LibraryEndpointServiceImpl.toTemplate(model, uri));
+	}
+
+	@Override
+	public CompletableFuture<ArrayList<Template>> loadTemplates() {
+		return construct(LibraryEndpointServiceImpl.loadTemplatesQuery(graph))
+				.thenApply((model) -> LibraryEndpointServiceImpl.partitionTemplates(model));
+	}
+
+	/**
+	 * Stop the HTTP client of the service. Requests already submitted are
+	 * completed.
+	 */
+	public void shutdown() {
+		client.shutdown();
+	}
+
+	private CompletableFuture<Model> construct(String query) {
+		return client.post(queryEndpoint, SPARQL_QUERY, query, N_TRIPLES, true, (in) -> {
+			Model model = ModelFactory.createDefaultModel();
+			RDFDataMgr.read(model, in, Lang.NTRIPLES);
+			return model;
+		});
+	}
+
+	/**
+	 * Send an update. Updates are not idempotent (the template bodies are
+	 * blank node trees, so inserting a body twice stores two copies), so
+	 * they are only retried if no connection could be opened.
+	 */
+	private CompletableFuture<Void> update(String update) {
+		return client.post(updateEndpoint, SPARQL_UPDATE, update, null, false, (in) -> null);
+	}
+}
@@ -0,0 +1,91 @@
+package org.rspspin.core;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.query.Query;
+import org.apache.jena.query.QuerySolutionMap;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.sparql.core.Var;
+import org.apache.own.query.RSPQLQuery;
+import org.apache.own.query.RSPQLQueryTransformOps;
+import org.topbraid.spin.arq.ARQFactory;
+import org.topbraid.spin.model.Template;
+
+/**
+ * A compiled template holds the RSP-QL syntax tree of a query template body.
+ * The SPIN body is converted once, after which each instantiation substitutes
+ * the bound nodes directly into a copy of the syntax tree without producing or
+ * parsing any query text.
+ */
+public class CompiledTemplate {
+	private final Template template;
+	private final RSPQLQuery query;
+
+	/**
+	 * Compile a query template.
+	 *
+	 * @param template
+	 * @throws RSPSPINException
+	 */
+	public CompiledTemplate(Template template) throws RSPSPINException {
+		if (!(template.getBody() instanceof org.topbraid.spin.model.Query))
+			throw new RSPSPINException(String.format("Template '%s' is not a query template", template.getURI()));
+		Query arq = ARQFactory.get().createQuery((org.topbraid.spin.model.Query) template.getBody());
+		if (!(arq instanceof RSPQLQuery))
+			throw new RSPSPINException(String.format("Template '%s' is not an RSP-QL query", template.getURI()));
+
+		// The ARQFactory query may be cached and shared, work on a copy
+		this.query = RSPQLQueryTransformOps.copy((RSPQLQuery) arq);
+		this.query.setPrefixMapping(RSPSPINUtils.getDefaultPrefixMapping());
+		this.template = template;
+	}
+
+	/**
+	 * Get an instantiated query for a set of parameter bindings. The bindings
+	 * are not validated here.
+	 *
+	 * @param bindings
+	 * @return
+	 */
+	public RSPQLQuery instantiate(QuerySolutionMap bindings) {
+		Map<Var, Node> substitutions = new HashMap<>();
+		Iterator<String> it = bindings.varNames();
+		while (it.hasNext()) {
+			String varName = it.next();
+			RDFNode value = bindings.get(varName);
+			if (value != null)
+				substitutions.put(Var.alloc(varName), value.asNode());
+		}
+		return RSPQLQueryTransformOps.transform(query, substitutions);
+	}
+
+	/**
+	 * Get the template this was compiled from
+	 *
+	 * @return
+	 */
+	public Template getTemplate() {
+		return template;
+	}
+
+	/**
+	 * Get the template URI
+	 *
+	 * @return
+	 */
+	public String getURI() {
+		return template.getURI();
+	}
+
+	/**
+	 * Get a copy of the uninstantiated query
+	 *
+	 * @return
+	 */
+	public RSPQLQuery getQuery() {
+		return RSPQLQueryTransformOps.copy(query);
+	}
+}
@@ -0,0 +1,57 @@
+package org.rspspin.core;
+
+import org.apache.jena.query.Query;
+import org.apache.jena.query.QuerySolutionMap;
+
+/**
+ * The outcome of instantiating one set of bindings in a batch. Either the
+ * query or the error is set.
+ */
+public class InstantiationResult {
+	private final QuerySolutionMap bindings;
+	private final Query query;
+	private final Exception error;
+
+	public InstantiationResult(QuerySolutionMap bindings, Query query) {
+		this.bindings = bindings;
+		this.query = query;
+		this.error = null;
+	}
+
+	public InstantiationResult(QuerySolutionMap bindings, Exception error) {
+		this.bindings = bindings;
+		this.query = null;
+		this.error = error;
+	}
+
+	/**
+	 * Get the bindings, null if they could not be created
+	 * 
+	 * @return
+	 */
+	public QuerySolutionMap getBindings() {
+		return bindings;
+	}
+
+	/**
+	 * Get the instantiated query, null if instantiation failed
+	 * 
+	 * @return
+	 */
+	public Query getQuery() {
+		return query;
+	}
+
+	/**
+	 * Get the error that caused instantiation to fail
+	 * 
+	 * @return
+	 */
+	public Exception getError() {
+		return error;
+	}
+
+	public boolean isSuccess() {
+		return error == null;
+	}
+}
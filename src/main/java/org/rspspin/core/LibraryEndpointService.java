@@ -1,6 +1,9 @@
 package org.rspspin.core;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.function.Consumer;
 
 import org.topbraid.spin.model.Template;
 
@@ -12,6 +15,19 @@ import org.topbraid.spin.model.Template;
 public interface LibraryEndpointService {
 	public void storeTemplate(Template template) throws RSPSPINException;
 
+	/**
+	 * Store many templates. Implementations that can combine the writes into
+	 * one request should override this, by default each template is stored
+	 * separately.
+	 * 
+	 * @param templates
+	 * @throws RSPSPINException
+	 */
+	public default void storeTemplates(Collection<Template> templates) throws RSPSPINException {
+		for (Template template : templates)
+			storeTemplate(template);
+	}
+
 	public void setQueryEndpoint(String queryEndpoint);
 
 	public void setUpdateEndpoint(String updateEndpoint);
@@ -22,7 +38,34 @@ public interface LibraryEndpointService {
 
 	public void deleteTemplate(String templateUri);
 
+	/**
+	 * Remove all templates from the library
+	 */
+	public void clearTemplateGraph();
+
 	public Template getTemplate(String templateUri);
+
+	/**
+	 * Get the current version of each template in the library, used to
+	 * detect whether a copy of the library is stale. Returns null if the
+	 * library does not keep versions, which is the default.
+	 * 
+	 * @return
+	 */
+	public default Map<String, String> getTemplateVersions() {
+		return null;
+	}
 	
 	public ArrayList<Template> loadTemplates();
+
+	/**
+	 * Load templates, passing each template to the consumer as soon as it is
+	 * complete. Implementations that can stream the library should override
+	 * this, by default all templates are loaded first.
+	 * 
+	 * @param consumer
+	 */
+	public default void loadTemplates(Consumer<Template> consumer) {
+		loadTemplates().forEach(consumer);
+	}
 }
@@ -1,21 +1,46 @@
 package org.rspspin.core;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.PrintStream;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 import org.apache.jena.atlas.web.auth.HttpAuthenticator;
 import org.apache.jena.atlas.web.auth.SimpleAuthenticator;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
 import org.apache.jena.query.*;
 import org.apache.jena.rdf.model.Model;
 import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.engine.binding.Binding;
+import org.apache.jena.sparql.modify.request.QuadDataAcc;
+import org.apache.jena.sparql.modify.request.UpdateDataInsert;
 import org.apache.jena.update.UpdateExecutionFactory;
 import org.apache.jena.update.UpdateFactory;
 import org.apache.jena.update.UpdateProcessor;
 import org.apache.jena.update.UpdateRequest;
+import org.apache.jena.util.iterator.ExtendedIterator;
 import org.apache.jena.vocabulary.RDF;
+import org.rspspin.vocabulary.RSPSPIN;
+import org.topbraid.spin.arq.Instrumentation;
+import org.topbraid.spin.arq.Metrics;
 import org.topbraid.spin.model.Template;
 import org.topbraid.spin.vocabulary.SPIN;
 
@@ -51,63 +76,184 @@ public class LibraryEndpointServiceImpl implements LibraryEndpointService {
 	 * @throws Exception
 	 */
 	public void storeTemplate(Template template) throws RSPSPINException {
-		// Copy the template model
-		Model model = ModelFactory.createDefaultModel();
-		model.add(template.getModel().listStatements());
-
-		// Write the BGPs to baos
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		PrintStream ps = new PrintStream(baos);
-		model.write(ps, "TTL");
-		ps.flush();
-		
+		storeTemplates(Collections.singletonList(template));
+	}
+
+	/**
+	 * Store many templates in the library using one existence check and one
+	 * update request. The triples of the templates are added to the update as
+	 * INSERT DATA quads. Nothing is stored if any of the templates already
+	 * exists in the library.
+	 * 
+	 * @param templates
+	 * @throws RSPSPINException
+	 */
+	@Override
+	public void storeTemplates(Collection<Template> templates) throws RSPSPINException {
+		if (templates.isEmpty())
+			return;
+
 		// Check if exists
-		if(existsInLibrary(template))
-			throw new RSPSPINException(String.format("Template URI '%s' already in use", template.getURI()));
+		List<String> existing = existsInLibrary(templates);
+		if (!existing.isEmpty())
+			throw new RSPSPINException(String.format("Template URI '%s' already in use", String.join("', '", existing)));
 
 		// Create update
-		UpdateRequest update = UpdateFactory
-				.create(String.format(""
-						+ "PREFIX spin: <http://spinrdf.org/spin#> "
-						+ "INSERT {"
-						+ "   GRAPH <%s> { %s }"
-						+ "}"
-						+ "WHERE {}", graph, baos.toString(), graph, template.getURI()));
-		if (username != null && password != null) {
-			HttpAuthenticator authenticator = new SimpleAuthenticator(username, password.toCharArray());
-			UpdateProcessor proc = UpdateExecutionFactory.createRemote(update, updateEndpoint, authenticator);
-			proc.execute();
-		} else {
-			UpdateProcessor proc = UpdateExecutionFactory.createRemote(update, updateEndpoint);
-			proc.execute();
+		long start = Metrics.start();
+		try {
+			createUpdateProcessor(insertTemplatesUpdate(graph, templates)).execute();
+		} catch (RuntimeException e) {
+			Metrics.fail(Instrumentation.LIBRARY + "store", start, e);
+			throw e;
 		}
+		Metrics.stop(Instrumentation.LIBRARY + "store", start, templates.size());
 	}
 
 	/**
-	 * Check if template exists in library.
+	 * Create an update inserting the triples of templates into the library
+	 * graph. Each stored template is given a new version (rspspin:version),
+	 * replacing any version the template was loaded with, so that readers can
+	 * cheaply check whether a copy of the template is still current.
 	 * 
-	 * @param template
+	 * @param graph
+	 * @param templates
 	 * @return
 	 */
-	private boolean existsInLibrary(Template template) {
-		// Check if exists
-		String queryString = String.format(""
+	static UpdateRequest insertTemplatesUpdate(String graph, Collection<Template> templates) {
+		Node graphNode = NodeFactory.createURI(graph);
+		Node versionNode = RSPSPIN.version.asNode();
+		QuadDataAcc quads = new QuadDataAcc();
+		for (Template template : templates) {
+			Node templateNode = template.asNode();
+			ExtendedIterator<Triple> it = template.getModel().getGraph().find(Node.ANY, Node.ANY, Node.ANY);
+			while (it.hasNext()) {
+				Triple t = it.next();
+				if (!(t.getSubject().equals(templateNode) && t.getPredicate().equals(versionNode)))
+					quads.addQuad(new Quad(graphNode, t));
+			}
+			Node version = NodeFactory.createLiteral(UUID.randomUUID().toString());
+			quads.addQuad(new Quad(graphNode, templateNode, versionNode, version));
+		}
+		UpdateRequest update = new UpdateRequest();
+		update.add(new UpdateDataInsert(quads));
+		return update;
+	}
+
+	/**
+	 * Get the URIs of the templates that exist in the library.
+	 * 
+	 * @param templates
+	 * @return
+	 */
+	private List<String> existsInLibrary(Collection<Template> templates) {
+		Query query = QueryFactory.create(existsQuery(graph, templates));
+		List<String> existing = new ArrayList<>();
+		long start = Metrics.start();
+		QueryExecution qe = createQueryExecution(query);
+		try {
+			qe.execSelect().forEachRemaining((qs) -> existing.add(qs.getResource("t").getURI()));
+		} catch (RuntimeException e) {
+			Metrics.fail(Instrumentation.LIBRARY + "exists", start, e);
+			throw e;
+		} finally {
+			qe.close();
+		}
+		Metrics.stop(Instrumentation.LIBRARY + "exists", start, templates.size());
+		return existing;
+	}
+
+	/**
+	 * Create a query selecting the templates (?t) that exist in the library
+	 * graph.
+	 * 
+	 * @param graph
+	 * @param templates
+	 * @return
+	 */
+	static String existsQuery(String graph, Collection<Template> templates) {
+		StringBuilder values = new StringBuilder();
+		for (Template template : templates)
+			values.append('<').append(template.getURI()).append("> ");
+		return String.format(""
 						+ "PREFIX spin: <http://spinrdf.org/spin#> "
-						+ "ASK "
+						+ "SELECT DISTINCT ?t "
 						+ "WHERE {"
-						+ "   GRAPH <%s> { <%s> a spin:Template }"
-						+ "}", graph, template.getURI());
-		System.out.println(queryString);
-		Query query = QueryFactory.create(queryString);
-		// Use authentication if user/password provided
-		QueryExecution qe;
-		if (username != null && password != null) {
-			HttpAuthenticator authenticator = new SimpleAuthenticator(username, password.toCharArray());
-			qe = QueryExecutionFactory.sparqlService(queryEndpoint, query, authenticator);
-		} else {
-			qe = QueryExecutionFactory.sparqlService(queryEndpoint, query);
+						+ "   VALUES ?t { %s }"
+						+ "   GRAPH <%s> { ?t a spin:Template }"
+						+ "}", values, graph);
+	}
+
+	/**
+	 * Get the current versions of templates in the library, using a single
+	 * query. Templates missing from the library are missing from the result,
+	 * templates stored without a version are mapped to null.
+	 * 
+	 * @param uris
+	 *            template URIs, or null for all templates
+	 * @return
+	 */
+	public Map<String, String> getTemplateVersions(Collection<String> uris) {
+		Map<String, String> versions = new HashMap<>();
+		if (uris != null && uris.isEmpty())
+			return versions;
+		Query query = QueryFactory.create(versionsQuery(graph, uris));
+		long start = Metrics.start();
+		QueryExecution qe = createQueryExecution(query);
+		try {
+			qe.execSelect().forEachRemaining((qs) -> {
+				RDFNode v = qs.get("v");
+				versions.put(qs.getResource("t").getURI(), v == null ? null : v.asLiteral().getLexicalForm());
+			});
+		} catch (RuntimeException e) {
+			Metrics.fail(Instrumentation.LIBRARY + "versions", start, e);
+			throw e;
+		} finally {
+			qe.close();
 		}
-		return qe.execAsk();
+		Metrics.stop(Instrumentation.LIBRARY + "versions", start, versions.size());
+		return versions;
+	}
+
+	/**
+	 * Get the current versions of all templates in the library, using a
+	 * single query. Templates stored without a version are mapped to null.
+	 * 
+	 * @return
+	 */
+	@Override
+	public Map<String, String> getTemplateVersions() {
+		return getTemplateVersions(null);
+	}
+
+	/**
+	 * Create a query selecting the templates (?t) that exist in the library
+	 * graph with their versions (?v), either all templates or the templates
+	 * with the given URIs.
+	 * 
+	 * @param graph
+	 * @param uris
+	 *            template URIs, or null for all templates
+	 * @return
+	 */
+	static String versionsQuery(String graph, Collection<String> uris) {
+		StringBuilder values = new StringBuilder();
+		if (uris != null) {
+			values.append("VALUES ?t { ");
+			for (String uri : uris)
+				values.append('<').append(uri).append("> ");
+			values.append('}');
+		}
+		return String.format(""
+						+ "PREFIX spin: <http://spinrdf.org/spin#> "
+						+ "PREFIX rspspin: <%s> "
+						+ "SELECT ?t ?v "
+						+ "WHERE {"
+						+ "   %s"
+						+ "   GRAPH <%s> {"
+						+ "      ?t a spin:Template ."
+						+ "      OPTIONAL { ?t rspspin:version ?v }"
+						+ "   }"
+						+ "}", RSPSPIN.NS, values, graph);
 	}
 
 	/**
@@ -173,18 +319,39 @@ public class LibraryEndpointServiceImpl implements LibraryEndpointService {
 			return;
 		// Create update
 		UpdateRequest update = UpdateFactory.create(String.format("DROP GRAPH <%s>", graph));
-		UpdateProcessor proc;
-		if (username != null && password != null) {
-			HttpAuthenticator authenticator = new SimpleAuthenticator(username, password.toCharArray());
-			proc = UpdateExecutionFactory.createRemote(update, updateEndpoint, authenticator);
-		} else {
-			proc = UpdateExecutionFactory.createRemote(update, updateEndpoint);
+		long start = Metrics.start();
+		try {
+			createUpdateProcessor(update).execute();
+		} catch (RuntimeException e) {
+			Metrics.fail(Instrumentation.LIBRARY + "clear", start, e);
+			throw e;
 		}
-		proc.execute();
+		Metrics.stop(Instrumentation.LIBRARY + "clear", start, -1);
 	}
 
 	public Template getTemplate(String uri) {
-		String queryString = String.format(""
+		Query query = QueryFactory.create(getTemplateQuery(graph, uri));
+		long start = Metrics.start();
+		Model model;
+		try {
+			model = createQueryExecution(query).execConstruct();
+		} catch (RuntimeException e) {
+			Metrics.fail(Instrumentation.LIBRARY + "get", start, e);
+			throw e;
+		}
+		Metrics.stop(Instrumentation.LIBRARY + "get", start, model.size());
+		return toTemplate(model, uri);
+	}
+
+	/**
+	 * Create a query constructing the triples of a template.
+	 * 
+	 * @param graph
+	 * @param uri
+	 * @return
+	 */
+	static String getTemplateQuery(String graph, String uri) {
+		return String.format(""
 				+ "PREFIX : <http://spinrdf.org/spin#> "
 				+ "CONSTRUCT { ?s ?p ?o } "
 				+ "FROM <%s> "
@@ -193,16 +360,17 @@ public class LibraryEndpointServiceImpl implements LibraryEndpointService {
 				+ "        (!:)* ?s . "
 				+ "   ?s ?p ?o ."
 				+ "}", graph, uri);
-		Query query = QueryFactory.create(queryString);
-		// Use authentication if user/password provided
-		QueryExecution qe;
-		if (username != null && password != null) {
-			HttpAuthenticator authenticator = new SimpleAuthenticator(username, password.toCharArray());
-			qe = QueryExecutionFactory.sparqlService(queryEndpoint, query, authenticator);
-		} else {
-			qe = QueryExecutionFactory.sparqlService(queryEndpoint, query);
-		}
-		Model model = qe.execConstruct();
+	}
+
+	/**
+	 * Get the template from the result of the template query, null if the
+	 * template was not found.
+	 * 
+	 * @param model
+	 * @param uri
+	 * @return
+	 */
+	static Template toTemplate(Model model, String uri) {
 		if(model.isEmpty())
 			return null;
 		Template template = model.getProperty(uri).as(Template.class);
@@ -211,7 +379,26 @@ public class LibraryEndpointServiceImpl implements LibraryEndpointService {
 	}
 
 	public void deleteTemplate(String uri) {
-		String queryString = String.format(""
+		UpdateRequest update = UpdateFactory.create(deleteTemplateUpdate(graph, uri));
+		long start = Metrics.start();
+		try {
+			createUpdateProcessor(update).execute();
+		} catch (RuntimeException e) {
+			Metrics.fail(Instrumentation.LIBRARY + "delete", start, e);
+			throw e;
+		}
+		Metrics.stop(Instrumentation.LIBRARY + "delete", start, -1);
+	}
+
+	/**
+	 * Create an update deleting the triples of a template.
+	 * 
+	 * @param graph
+	 * @param uri
+	 * @return
+	 */
+	static String deleteTemplateUpdate(String graph, String uri) {
+		return String.format(""
 				+ "PREFIX : <http://spinrdf.org/spin#> "
 				+ "DELETE { GRAPH <%s> { ?s ?p ?o } } "
 				+ "WHERE { "
@@ -221,20 +408,30 @@ public class LibraryEndpointServiceImpl implements LibraryEndpointService {
 				+ "      ?s ?p ?o ."
 				+ "   }"
 				+ "}", graph, graph, uri);
-		UpdateRequest update = UpdateFactory.create(queryString);
-		// Use authentication if user/password provided
-		UpdateProcessor up;
-		if (username != null && password != null) {
-			HttpAuthenticator authenticator = new SimpleAuthenticator(username, password.toCharArray());
-			up = UpdateExecutionFactory.createRemote(update, updateEndpoint, authenticator);
-		} else {
-			up = UpdateExecutionFactory.createRemote(update, updateEndpoint);
-		}
-		up.execute();
 	}
 
 	public ArrayList<Template> loadTemplates() {
-		String queryString = String.format(""
+		Query query = QueryFactory.create(loadTemplatesQuery(graph));
+		long start = Metrics.start();
+		Model model;
+		try {
+			model = createQueryExecution(query).execConstruct();
+		} catch (RuntimeException e) {
+			Metrics.fail(Instrumentation.LIBRARY + "load", start, e);
+			throw e;
+		}
+		Metrics.stop(Instrumentation.LIBRARY + "load", start, model.size());
+		return partitionTemplates(model);
+	}
+
+	/**
+	 * Create a query constructing the triples of all templates.
+	 * 
+	 * @param graph
+	 * @return
+	 */
+	static String loadTemplatesQuery(String graph) {
+		return String.format(""
 				+ "PREFIX : <http://spinrdf.org/spin#> "
 				+ "CONSTRUCT { ?s ?p ?o } "
 				+ "FROM <%s> "
@@ -243,33 +440,126 @@ public class LibraryEndpointServiceImpl implements LibraryEndpointService {
 				+ "        (!:)* ?s . "
 				+ "   ?s ?p ?o ."
 				+ "}", graph);
+	}
+
+	/**
+	 * Load templates from the library, streaming the result. The triples of
+	 * the templates are requested ordered by template, so each template is
+	 * passed to the consumer as soon as its last triple has been received and
+	 * only one template is held in memory at a time.
+	 * 
+	 * @param consumer
+	 */
+	@Override
+	public void loadTemplates(Consumer<Template> consumer) {
+		String queryString = String.format(""
+				+ "PREFIX : <http://spinrdf.org/spin#> "
+				+ "SELECT ?t ?s ?p ?o "
+				+ "FROM <%s> "
+				+ "WHERE { "
+				+ "   ?t a :Template ; "
+				+ "        (!:)* ?s . "
+				+ "   ?s ?p ?o ."
+				+ "} "
+				+ "ORDER BY ?t", graph);
 		Query query = QueryFactory.create(queryString);
-		
-		// Use authentication if user/password provided
-		QueryExecution qe;
+		Var t = Var.alloc("t");
+		Var s = Var.alloc("s");
+		Var p = Var.alloc("p");
+		Var o = Var.alloc("o");
+
+		long start = Metrics.start();
+		long triples = 0;
+		QueryExecution qe = createQueryExecution(query);
+		try {
+			ResultSet rs = qe.execSelect();
+			Node current = null;
+			Model model = null;
+			while (rs.hasNext()) {
+				Binding binding = rs.nextBinding();
+				Node uri = binding.get(t);
+				if (!uri.equals(current)) {
+					// The previous template is complete
+					if (current != null)
+						consumer.accept(model.getResource(current.getURI()).as(Template.class));
+					current = uri;
+					model = ModelFactory.createDefaultModel();
+				}
+				model.getGraph().add(Triple.create(binding.get(s), binding.get(p), binding.get(o)));
+				triples++;
+			}
+			if (current != null)
+				consumer.accept(model.getResource(current.getURI()).as(Template.class));
+		} catch (RuntimeException e) {
+			Metrics.fail(Instrumentation.LIBRARY + "load", start, e);
+			throw e;
+		} finally {
+			qe.close();
+		}
+		Metrics.stop(Instrumentation.LIBRARY + "load", start, triples);
+	}
+
+	/**
+	 * Create a query execution against the query endpoint. Use authentication
+	 * if user/password provided.
+	 * 
+	 * @param query
+	 * @return
+	 */
+	private QueryExecution createQueryExecution(Query query) {
 		if (username != null && password != null) {
 			HttpAuthenticator authenticator = new SimpleAuthenticator(username, password.toCharArray());
-			qe = QueryExecutionFactory.sparqlService(queryEndpoint, query, authenticator);
-		} else {
-			qe = QueryExecutionFactory.sparqlService(queryEndpoint, query);
+			return QueryExecutionFactory.sparqlService(queryEndpoint, query, authenticator);
 		}
-		Model model = qe.execConstruct();
-		
-		// Pull out models for each template
-		ArrayList<Template> templates = new ArrayList<>();
-		model.listSubjectsWithProperty(RDF.type, SPIN.Template).forEachRemaining((uri) -> {
-			String q = String.format(""
-					+ "PREFIX : <http://spinrdf.org/spin#> "
-					+ "CONSTRUCT { ?s ?p ?o } "
-					+ "FROM <%s> "
-					+ "WHERE { "
-					+ "   <%s> a :Template ; "
-					+ "        (!:)* ?s . "
-					+ "   ?s ?p ?o ."
-					+ "}", graph, uri);
-			Model m = QueryExecutionFactory.create(q, model).execConstruct();
-			templates.add(uri.inModel(m).as(Template.class));
-		});
-		return templates;
+		return QueryExecutionFactory.sparqlService(queryEndpoint, query);
+	}
+
+	/**
+	 * Create an update processor against the update endpoint. Use
+	 * authentication if user/password provided.
+	 * 
+	 * @param update
+	 * @return
+	 */
+	private UpdateProcessor createUpdateProcessor(UpdateRequest update) {
+		if (username != null && password != null) {
+			HttpAuthenticator authenticator = new SimpleAuthenticator(username, password.toCharArray());
+			return UpdateExecutionFactory.createRemote(update, updateEndpoint, authenticator);
+		}
+		return UpdateExecutionFactory.createRemote(update, updateEndpoint);
+	}
+
+	/**
+	 * Pull out a model for each template in a model holding many templates.
+	 * The model of a template holds all triples reachable from the template
+	 * resource, found by a traversal of the indexed graph. The template
+	 * models are built in parallel.
+	 * 
+	 * @param model
+	 * @return
+	 */
+	static ArrayList<Template> partitionTemplates(Model model) {
+		List<Resource> uris = model.listSubjectsWithProperty(RDF.type, SPIN.Template).toList();
+		Graph graph = model.getGraph();
+		return uris.parallelStream().map((uri) -> {
+			Model m = ModelFactory.createDefaultModel();
+			Graph g = m.getGraph();
+			Set<Node> visited = new HashSet<>();
+			Deque<Node> queue = new ArrayDeque<>();
+			visited.add(uri.asNode());
+			queue.add(uri.asNode());
+			while (!queue.isEmpty()) {
+				Node s = queue.poll();
+				ExtendedIterator<Triple> it = graph.find(s, Node.ANY, Node.ANY);
+				while (it.hasNext()) {
+					Triple t = it.next();
+					g.add(t);
+					Node o = t.getObject();
+					if (!o.isLiteral() && visited.add(o))
+						queue.add(o);
+				}
+			}
+			return uri.inModel(m).as(Template.class);
+		}).collect(Collectors.toCollection(ArrayList::new));
 	}
 }
@@ -0,0 +1,246 @@
+package org.rspspin.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A small HTTP client shared by all requests of an asynchronous library
+ * service. Requests run on a bounded pool of worker threads, which limits the
+ * number of concurrent requests to the endpoint, and connections are kept
+ * alive and reused between requests.
+ *
+ * Failed requests are retried with exponential backoff. Idempotent requests
+ * (queries) are retried after any I/O error or server error. Other requests
+ * (updates) are only retried when the connection could not be opened, since
+ * the endpoint may already have applied an update whose response was lost.
+ * Retries are scheduled, so a worker thread is not held during the backoff.
+ */
+public class LibraryHttpClient {
+	private final ExecutorService executor;
+	private final ScheduledExecutorService scheduler;
+	private final int connectTimeout;
+	private final int readTimeout;
+	private final int maxRetries;
+	private final long retryDelay;
+	private volatile String authorization = null;
+
+	/**
+	 * Handles the body of a successful response.
+	 *
+	 * @param <T>
+	 */
+	public interface ResponseHandler<T> {
+		public T handle(InputStream in) throws IOException;
+	}
+
+	/**
+	 * Create a client.
+	 *
+	 * @param maxConcurrency
+	 *            maximum number of concurrent requests
+	 * @param connectTimeout
+	 *            connect timeout in milliseconds, 0 for no timeout
+	 * @param readTimeout
+	 *            read timeout in milliseconds, 0 for no timeout
+	 * @param maxRetries
+	 *            number of times a failed request is retried
+	 * @param retryDelay
+	 *            delay before the first retry in milliseconds, doubled for
+	 *            each further retry
+	 */
+	public LibraryHttpClient(int maxConcurrency, int connectTimeout, int readTimeout, int maxRetries,
+			long retryDelay) {
+		AtomicInteger count = new AtomicInteger();
+		ThreadFactory threadFactory = (r) -> {
+			Thread thread = new Thread(r, "rspspin-library-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+		this.executor = Executors.newFixedThreadPool(maxConcurrency, threadFactory);
+		this.scheduler = Executors.newSingleThreadScheduledExecutor((r) -> {
+			Thread thread = new Thread(r, "rspspin-library-retry");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.connectTimeout = connectTimeout;
+		this.readTimeout = readTimeout;
+		this.maxRetries = maxRetries;
+		this.retryDelay = retryDelay;
+	}
+
+	/**
+	 * Set basic authentication credentials, null to disable authentication.
+	 *
+	 * @param username
+	 * @param password
+	 */
+	public void setAuthentication(String username, String password) {
+		if (username == null || password == null) {
+			authorization = null;
+		} else {
+			String credentials = username + ":" + password;
+			authorization = "Basic "
+					+ Base64.getEncoder().encodeToString(credentials.getBytes(StandardCharsets.UTF_8));
+		}
+	}
+
+	/**
+	 * Post a request body asynchronously.
+	 *
+	 * @param url
+	 * @param contentType
+	 * @param body
+	 * @param accept
+	 *            accepted response media type, may be null
+	 * @param idempotent
+	 *            true if the request can safely be sent more than once, e.g.
+	 *            a query. Requests that are not idempotent are only retried
+	 *            when no connection could be opened.
+	 * @param handler
+	 *            handles the response body
+	 * @return future completed with the handled response, or exceptionally
+	 *         with the IOException of the last attempt
+	 */
+	public <T> CompletableFuture<T> post(String url, String contentType, String body, String accept,
+			boolean idempotent, ResponseHandler<T> handler) {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		CompletableFuture<T> result = new CompletableFuture<T>();
+		submit(new Request<T>(url, contentType, bytes, accept, idempotent, handler), 0, retryDelay, result);
+		return result;
+	}
+
+	/**
+	 * Stop accepting requests. Requests already running are completed,
+	 * retries that have not started yet fail.
+	 */
+	public void shutdown() {
+		executor.shutdown();
+		scheduler.shutdown();
+	}
+
+	private <T> void submit(Request<T> request, int attempt, long delay, CompletableFuture<T> result) {
+		try {
+			executor.execute(() -> {
+				try {
+					result.complete(attempt(request));
+				} catch (RetryableException e) {
+					if (attempt >= maxRetries) {
+						result.completeExceptionally(e.getCause());
+					} else {
+						try {
+							scheduler.schedule(() -> submit(request, attempt + 1, delay * 2, result), delay,
+									TimeUnit.MILLISECONDS);
+						} catch (RejectedExecutionException rejected) {
+							result.completeExceptionally(e.getCause());
+						}
+					}
+				} catch (IOException | RuntimeException e) {
+					result.completeExceptionally(e);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			result.completeExceptionally(new IOException("The library client is shut down", e));
+		}
+	}
+
+	private <T> T attempt(Request<T> request) throws IOException {
+		HttpURLConnection conn;
+		try {
+			conn = (HttpURLConnection) new URL(request.url).openConnection();
+			conn.setConnectTimeout(connectTimeout);
+			conn.setReadTimeout(readTimeout);
+			conn.setRequestMethod("POST");
+			conn.setDoOutput(true);
+			// Streaming also keeps HttpURLConnection from silently resending
+			// the body on a stale connection
+			conn.setFixedLengthStreamingMode(request.body.length);
+			conn.setRequestProperty("Content-Type", request.contentType);
+			if (request.accept != null)
+				conn.setRequestProperty("Accept", request.accept);
+			String auth = authorization;
+			if (auth != null)
+				conn.setRequestProperty("Authorization", auth);
+			conn.connect();
+		} catch (IOException e) {
+			// Nothing has been sent yet
+			throw new RetryableException(e);
+		}
+
+		int status;
+		try {
+			try (OutputStream out = conn.getOutputStream()) {
+				out.write(request.body);
+			}
+			status = conn.getResponseCode();
+		} catch (IOException e) {
+			throw request.idempotent ? new RetryableException(e) : e;
+		}
+		if (status < 200 || status >= 300) {
+			// Drain the error body so the connection can be reused
+			InputStream err = conn.getErrorStream();
+			if (err != null) {
+				try (InputStream in = err) {
+					byte[] buffer = new byte[4096];
+					while (in.read(buffer) >= 0)
+						;
+				} catch (IOException e) {
+					// Ignore, the status is reported
+				}
+			}
+			IOException e = new IOException(
+					String.format("HTTP %d %s from %s", status, conn.getResponseMessage(), request.url));
+			if (status >= 500 && request.idempotent)
+				throw new RetryableException(e);
+			throw e;
+		}
+		try (InputStream in = conn.getInputStream()) {
+			return request.handler.handle(in);
+		}
+	}
+
+	/**
+	 * A request and how to handle its response
+	 */
+	private static class Request<T> {
+		private final String url;
+		private final String contentType;
+		private final byte[] body;
+		private final String accept;
+		private final boolean idempotent;
+		private final ResponseHandler<T> handler;
+
+		public Request(String url, String contentType, byte[] body, String accept, boolean idempotent,
+				ResponseHandler<T> handler) {
+			this.url = url;
+			this.contentType = contentType;
+			this.body = body;
+			this.accept = accept;
+			this.idempotent = idempotent;
+			this.handler = handler;
+		}
+	}
+
+	/**
+	 * Failure of an attempt that may succeed when retried
+	 */
+	private static class RetryableException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		public RetryableException(IOException cause) {
+			super(cause.getMessage(), cause);
+		}
+	}
+}
@@ -0,0 +1,232 @@
+package org.rspspin.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.topbraid.spin.model.Template;
+
+/**
+ * This class persists templates in a local file instead of a triple store, for
+ * single node deployments without a SPARQL endpoint. Each template is stored as
+ * an N-Triples record in a {@link TemplateLog}, which is memory mapped and
+ * indexed when the library is opened.
+ *
+ * The log grows with every store and delete. Call {@link #compact()} to
+ * rewrite it with only the current templates.
+ */
+
+public class LocalLibraryEndpointServiceImpl implements LibraryEndpointService, Closeable {
+	private final TemplateLog log;
+
+	/**
+	 * Open the library file configured by the library.local.path property.
+	 * Writes are forced to disk unless library.local.sync is false.
+	 *
+	 * @param propsPath
+	 * @throws IOException
+	 */
+	public LocalLibraryEndpointServiceImpl(String propsPath) throws IOException {
+		Properties props = new Properties();
+		props.load(Thread.currentThread().getContextClassLoader().getResourceAsStream(propsPath));
+		String path = props.getProperty("library.local.path");
+		if (path == null)
+			throw new IOException("Property library.local.path is not set");
+		log = new TemplateLog(Paths.get(path), Boolean.parseBoolean(props.getProperty("library.local.sync", "true")));
+	}
+
+	/**
+	 * Open a library file, creating it if it does not exist.
+	 *
+	 * @param path
+	 * @param sync
+	 *            force each write to disk before returning
+	 * @throws IOException
+	 */
+	public LocalLibraryEndpointServiceImpl(Path path, boolean sync) throws IOException {
+		log = new TemplateLog(path, sync);
+	}
+
+	@Override
+	public void storeTemplate(Template template) throws RSPSPINException {
+		storeTemplates(Collections.singletonList(template));
+	}
+
+	/**
+	 * Store many templates with a single write. Nothing is stored if any of
+	 * the templates already exists in the library.
+	 *
+	 * @param templates
+	 * @throws RSPSPINException
+	 */
+	@Override
+	public void storeTemplates(Collection<Template> templates) throws RSPSPINException {
+		Map<String, byte[]> records = new LinkedHashMap<String, byte[]>();
+		for (Template template : templates) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			RDFDataMgr.write(out, template.getModel(), Lang.NTRIPLES);
+			records.put(template.getURI(), out.toByteArray());
+		}
+		synchronized (log) {
+			List<String> existing = records.keySet().stream().filter(log::contains).collect(Collectors.toList());
+			if (!existing.isEmpty())
+				throw new RSPSPINException(
+						String.format("Template URI '%s' already in use", String.join("', '", existing)));
+			try {
+				log.putAll(records);
+			} catch (IOException e) {
+				throw new RSPSPINException(String.format("Failed to store templates: %s", e.getMessage()));
+			}
+		}
+	}
+
+	@Override
+	public void deleteTemplate(String templateUri) {
+		try {
+			log.delete(templateUri);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public Template getTemplate(String templateUri) {
+		try {
+			byte[] body = log.get(templateUri);
+			return body == null ? null : parse(templateUri, body);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Get the version of each template, which is the checksum of its record.
+	 *
+	 * @return
+	 */
+	@Override
+	public Map<String, String> getTemplateVersions() {
+		Map<String, String> versions = new HashMap<String, String>();
+		log.checksums().forEach((uri, checksum) -> versions.put(uri, Integer.toHexString(checksum)));
+		return versions;
+	}
+
+	/**
+	 * Load all templates. The records are read from the log first and then
+	 * parsed in parallel.
+	 *
+	 * @return
+	 */
+	@Override
+	public ArrayList<Template> loadTemplates() {
+		Map<String, byte[]> records = new LinkedHashMap<String, byte[]>();
+		try {
+			synchronized (log) {
+				for (String uri : log.uris())
+					records.put(uri, log.get(uri));
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return records.entrySet().parallelStream().map((e) -> parse(e.getKey(), e.getValue()))
+				.collect(Collectors.toCollection(ArrayList::new));
+	}
+
+	/**
+	 * Load templates, parsing one record at a time.
+	 *
+	 * @param consumer
+	 */
+	@Override
+	public void loadTemplates(Consumer<Template> consumer) {
+		for (String uri : log.uris()) {
+			Template template = getTemplate(uri);
+			if (template != null)
+				consumer.accept(template);
+		}
+	}
+
+	/**
+	 * Remove all templates from the library
+	 */
+	@Override
+	public void clearTemplateGraph() {
+		try {
+			log.clear();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Rewrite the library file with only the current templates.
+	 *
+	 * @throws IOException
+	 */
+	public void compact() throws IOException {
+		log.compact();
+	}
+
+	/**
+	 * Get the number of bytes taken by replaced and deleted templates, which
+	 * are reclaimed by {@link #compact()}.
+	 *
+	 * @return
+	 */
+	public long getGarbageSize() {
+		return log.getGarbageSize();
+	}
+
+	@Override
+	public void close() throws IOException {
+		log.close();
+	}
+
+	/**
+	 * A local library has no query endpoint, the endpoint is ignored.
+	 */
+	@Override
+	public void setQueryEndpoint(String queryEndpoint) {
+	}
+
+	/**
+	 * A local library has no update endpoint, the endpoint is ignored.
+	 */
+	@Override
+	public void setUpdateEndpoint(String updateEndpoint) {
+	}
+
+	@Override
+	public String getUpdateEndpoint() {
+		return null;
+	}
+
+	@Override
+	public String getQueryEndpoint() {
+		return null;
+	}
+
+	private static Template parse(String uri, byte[] body) {
+		Model model = ModelFactory.createDefaultModel();
+		RDFDataMgr.read(model, new ByteArrayInputStream(body), Lang.NTRIPLES);
+		return LibraryEndpointServiceImpl.toTemplate(model, uri);
+	}
+}
@@ -0,0 +1,91 @@
+package org.rspspin.core;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.topbraid.spin.arq.BoundedCache;
+import org.topbraid.spin.arq.Instrumentation;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+/**
+ * Publishes measurements to a Dropwizard Metrics registry. Each operation gets
+ * a timer (count and durations) named prefix.operation, a histogram of payload
+ * sizes named prefix.operation.size and a meter of failures named
+ * prefix.operation.errors. Each registered cache gets gauges for its hit rate,
+ * size and eviction count, named prefix.cache.name.hitRate and so on.
+ *
+ * The metrics-core dependency is optional and must be added by applications
+ * using this class.
+ */
+public class MetricRegistryInstrumentation implements Instrumentation {
+	private final MetricRegistry registry;
+	private final String prefix;
+	private final ConcurrentHashMap<String, OperationMetrics> metrics = new ConcurrentHashMap<String, OperationMetrics>();
+
+	/**
+	 * Create an instrumentation publishing to a registry
+	 *
+	 * @param registry
+	 * @param prefix
+	 *            prefix of the metric names, e.g. rspspin
+	 */
+	public MetricRegistryInstrumentation(MetricRegistry registry, String prefix) {
+		this.registry = registry;
+		this.prefix = prefix;
+	}
+
+	public MetricRegistry getRegistry() {
+		return registry;
+	}
+
+	@Override
+	public void record(String operation, long durationNanos, long payloadSize, Throwable error) {
+		OperationMetrics m = metrics.get(operation);
+		if (m == null)
+			m = metrics.computeIfAbsent(operation, OperationMetrics::new);
+		m.timer.update(durationNanos, TimeUnit.NANOSECONDS);
+		if (payloadSize >= 0)
+			m.sizes.update(payloadSize);
+		if (error != null)
+			m.errors.mark();
+	}
+
+	@Override
+	public void registerCache(String name, Supplier<BoundedCache.Stats> stats) {
+		String base = MetricRegistry.name(prefix, "cache", name);
+		register(MetricRegistry.name(base, "hitRate"), () -> stats.get().getHitRate());
+		register(MetricRegistry.name(base, "size"), () -> stats.get().getSize());
+		register(MetricRegistry.name(base, "evictions"), () -> stats.get().getEvictionCount());
+	}
+
+	/**
+	 * Register a gauge, replacing a gauge of a cache registered earlier with
+	 * the same name
+	 */
+	private void register(String name, Gauge<?> gauge) {
+		registry.remove(name);
+		registry.register(name, gauge);
+	}
+
+	/**
+	 * The metrics of an operation
+	 */
+	private class OperationMetrics {
+		private final Timer timer;
+		private final Histogram sizes;
+		private final Meter errors;
+
+		public OperationMetrics(String operation) {
+			String name = MetricRegistry.name(prefix, operation);
+			timer = registry.timer(name);
+			sizes = registry.histogram(MetricRegistry.name(name, "size"));
+			errors = registry.meter(MetricRegistry.name(name, "errors"));
+		}
+	}
+}
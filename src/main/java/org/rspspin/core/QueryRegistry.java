@@ -0,0 +1,311 @@
+package org.rspspin.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.jena.graph.Node;
+import org.apache.own.query.RSPQLQuery;
+import org.apache.own.query.RSPQLQueryFingerprint;
+
+/**
+ * A registry of continuous queries that collapses identical queries into one
+ * registration. Queries are identical when their structural fingerprints match
+ * without the name of the output stream (see {@link RSPQLQueryFingerprint}),
+ * e.g. instantiations of the same template with the same stream and only a
+ * different output stream. Queries with matching fingerprints are compared
+ * structurally before they share a registration, so a fingerprint collision
+ * never merges different queries. Each registration holds one query, which is the
+ * query to run on the engine, and the output streams its results should be
+ * sent to.
+ *
+ * An engine is attached through a {@link Listener}, which is told when a
+ * query has to be started or stopped and when an output stream is added to or
+ * removed from a running query. Listeners are called while the registry is
+ * locked, so that they see the changes in order.
+ */
+public class QueryRegistry {
+	// Registrations by fingerprint, more than one only on a collision
+	private final Map<RSPQLQueryFingerprint, List<Registration>> registrations = new HashMap<RSPQLQueryFingerprint, List<Registration>>();
+	private final Set<Registration> order = new LinkedHashSet<Registration>();
+	private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+	/**
+	 * Register a query. If an identical query is already registered its
+	 * registration is returned with the output stream of this query added,
+	 * otherwise a new registration is created for a copy of the query.
+	 * Registering the same output stream twice requires it to be unregistered
+	 * twice.
+	 *
+	 * @param query
+	 * @return
+	 */
+	public synchronized Registration register(RSPQLQuery query) {
+		RSPQLQueryFingerprint fingerprint = fingerprint(query);
+		Node outputStream = query.getOutputStream();
+		Registration registration = find(fingerprint, query);
+		if (registration == null) {
+			registration = new Registration(fingerprint, query.cloneQuery());
+			registration.addOutputStream(outputStream);
+			registrations.computeIfAbsent(fingerprint, k -> new ArrayList<Registration>(1)).add(registration);
+			order.add(registration);
+			for (Listener listener : listeners)
+				listener.queryRegistered(registration);
+		} else if (registration.addOutputStream(outputStream)) {
+			for (Listener listener : listeners)
+				listener.outputStreamAdded(registration, outputStream);
+		}
+		return registration;
+	}
+
+	/**
+	 * Unregister a query. The output stream of the query is removed from the
+	 * registration of identical queries, and the registration is removed when
+	 * it has no output streams left.
+	 *
+	 * @param query
+	 * @return false if no identical query with the same output stream was
+	 *         registered
+	 */
+	public synchronized boolean unregister(RSPQLQuery query) {
+		RSPQLQueryFingerprint fingerprint = fingerprint(query);
+		Node outputStream = query.getOutputStream();
+		Registration registration = find(fingerprint, query);
+		if (registration == null || !registration.hasOutputStream(outputStream))
+			return false;
+		if (registration.removeOutputStream(outputStream)) {
+			if (registration.getOutputStreams().isEmpty()) {
+				List<Registration> collisions = registrations.get(fingerprint);
+				collisions.remove(registration);
+				if (collisions.isEmpty())
+					registrations.remove(fingerprint);
+				order.remove(registration);
+				for (Listener listener : listeners)
+					listener.queryUnregistered(registration);
+			} else {
+				for (Listener listener : listeners)
+					listener.outputStreamRemoved(registration, outputStream);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Get the registration of queries identical to a query, or null if none
+	 * is registered.
+	 *
+	 * @param query
+	 * @return
+	 */
+	public synchronized Registration getRegistration(RSPQLQuery query) {
+		return find(fingerprint(query), query);
+	}
+
+	/**
+	 * Compute the fingerprint a query is registered under, which leaves out
+	 * the output stream
+	 *
+	 * @param query
+	 * @return
+	 */
+	protected RSPQLQueryFingerprint fingerprint(RSPQLQuery query) {
+		return RSPQLQueryFingerprint.of(query, false);
+	}
+
+	private Registration find(RSPQLQueryFingerprint fingerprint, RSPQLQuery query) {
+		List<Registration> collisions = registrations.get(fingerprint);
+		if (collisions != null) {
+			for (Registration registration : collisions) {
+				if (isIdentical(query, registration.getQuery()))
+					return registration;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Compare two queries structurally, except for the name of the output
+	 * stream
+	 */
+	private static boolean isIdentical(RSPQLQuery query, RSPQLQuery registered) {
+		if (query.getOutputStreamType() != registered.getOutputStreamType()
+				|| !query.getLogicalWindows().equals(registered.getLogicalWindows())
+				|| !query.getLogicalPastWindows().equals(registered.getLogicalPastWindows())
+				|| !query.getPhysicalWindows().equals(registered.getPhysicalWindows()))
+			return false;
+		// Query.equals does not compare the output stream declaration
+		return query.equals(registered);
+	}
+
+	/**
+	 * Get all registrations, in the order they were created
+	 *
+	 * @return
+	 */
+	public synchronized List<Registration> getRegistrations() {
+		return Collections.unmodifiableList(new ArrayList<Registration>(order));
+	}
+
+	/**
+	 * Get the number of registrations, which is the number of queries the
+	 * engine has to run.
+	 *
+	 * @return
+	 */
+	public synchronized int size() {
+		return order.size();
+	}
+
+	/**
+	 * Remove all registrations. Listeners are told that each query is
+	 * unregistered.
+	 */
+	public synchronized void clear() {
+		List<Registration> removed = new ArrayList<Registration>(order);
+		registrations.clear();
+		order.clear();
+		for (Registration registration : removed) {
+			for (Listener listener : listeners)
+				listener.queryUnregistered(registration);
+		}
+	}
+
+	public void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(Listener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * A query registered once on behalf of one or more output streams
+	 */
+	public static class Registration {
+		private final RSPQLQueryFingerprint fingerprint;
+		private final RSPQLQuery query;
+		// Number of registrations of each output stream
+		private final Map<Node, Integer> outputStreams = new LinkedHashMap<Node, Integer>();
+
+		private Registration(RSPQLQueryFingerprint fingerprint, RSPQLQuery query) {
+			this.fingerprint = fingerprint;
+			this.query = query;
+		}
+
+		/**
+		 * Get the fingerprint shared by the queries of this registration,
+		 * which does not include the output stream.
+		 *
+		 * @return
+		 */
+		public RSPQLQueryFingerprint getFingerprint() {
+			return fingerprint;
+		}
+
+		/**
+		 * Get the query to run. Its output stream is the one of the query
+		 * that created the registration, the results should be sent to all
+		 * output streams of the registration.
+		 *
+		 * @return
+		 */
+		public RSPQLQuery getQuery() {
+			return query;
+		}
+
+		/**
+		 * Get the output streams, in the order they were added
+		 *
+		 * @return
+		 */
+		public List<Node> getOutputStreams() {
+			synchronized (outputStreams) {
+				return Collections.unmodifiableList(new ArrayList<Node>(outputStreams.keySet()));
+			}
+		}
+
+		private boolean hasOutputStream(Node outputStream) {
+			synchronized (outputStreams) {
+				return outputStreams.containsKey(outputStream);
+			}
+		}
+
+		/**
+		 * @return true if the output stream was not already registered
+		 */
+		private boolean addOutputStream(Node outputStream) {
+			synchronized (outputStreams) {
+				Integer count = outputStreams.get(outputStream);
+				outputStreams.put(outputStream, count == null ? 1 : count + 1);
+				return count == null;
+			}
+		}
+
+		/**
+		 * @return true if the last registration of the output stream was
+		 *         removed
+		 */
+		private boolean removeOutputStream(Node outputStream) {
+			synchronized (outputStreams) {
+				int count = outputStreams.get(outputStream);
+				if (count > 1) {
+					outputStreams.put(outputStream, count - 1);
+					return false;
+				}
+				outputStreams.remove(outputStream);
+				return true;
+			}
+		}
+
+		@Override
+		public String toString() {
+			return fingerprint + " " + getOutputStreams();
+		}
+	}
+
+	/**
+	 * Receives changes to the registered queries, e.g. to start and stop
+	 * queries on an engine.
+	 */
+	public interface Listener {
+		/**
+		 * A query with no identical registered query was registered
+		 *
+		 * @param registration
+		 */
+		void queryRegistered(Registration registration);
+
+		/**
+		 * The last output stream of a registration was removed
+		 *
+		 * @param registration
+		 */
+		void queryUnregistered(Registration registration);
+
+		/**
+		 * A query identical to a registered query was registered with a new
+		 * output stream
+		 *
+		 * @param registration
+		 * @param outputStream
+		 */
+		default void outputStreamAdded(Registration registration, Node outputStream) {
+		}
+
+		/**
+		 * An output stream was removed from a registration that still has
+		 * other output streams
+		 *
+		 * @param registration
+		 * @param outputStream
+		 */
+		default void outputStreamRemoved(Registration registration, Node outputStream) {
+		}
+	}
+}
@@ -1,22 +1,14 @@
 package org.rspspin.core;
 
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 import java.util.StringJoiner;
 
 import org.apache.jena.query.QuerySolutionMap;
 import org.apache.jena.rdf.model.Model;
 import org.apache.jena.rdf.model.ModelFactory;
-import org.apache.jena.rdf.model.RDFNode;
-import org.apache.jena.rdf.model.Resource;
-import org.apache.jena.vocabulary.RDFS;
-import org.apache.jena.vocabulary.XSD;
 import org.apache.log4j.Logger;
-import org.topbraid.spin.model.Argument;
 import org.topbraid.spin.model.Module;
 import org.topbraid.spin.system.SPINArgumentChecker;
-import org.topbraid.spin.util.JenaUtil;
 
 /**
  * A singleton that is used by SPINARQFunction to check whether all supplied
@@ -24,14 +16,19 @@ import org.topbraid.spin.util.JenaUtil;
  * 
  * When triggered to validate bindings against a template explicitly (i.e. not
  * as part of SPIN rule execution etc.) the method does extended validation.
+ * 
+ * The configuration of the singleton can be changed at any time. Each change
+ * replaces its {@link ArgumentValidator}, so a validation sees either the old
+ * or the new configuration. For a configuration that cannot change, e.g. one
+ * per template manager, use an {@link ArgumentValidator} directly.
  */
 public class RSPSPINArgumentChecker extends SPINArgumentChecker {
 	private final Logger logger = Logger.getLogger(SPINArgumentChecker.class);
-	private boolean strict = true;
-	private static RSPSPINArgumentChecker singleton = null;
-	// The model used to check indirect typing for value types, and if set
-	// should contain the relevant ontology/ontologies
-	private Model ontModel = ModelFactory.createDefaultModel();
+	private static final RSPSPINArgumentChecker singleton = new RSPSPINArgumentChecker();
+	private volatile ArgumentValidator validator = new ArgumentValidator(true, ModelFactory.createDefaultModel());
+
+	private RSPSPINArgumentChecker() {
+	}
 
 	@Override
 	protected void handleErrors(Module module, QuerySolutionMap bindings, List<String> errors) {
@@ -41,109 +38,56 @@ public class RSPSPINArgumentChecker extends SPINArgumentChecker {
 	}
 
 	public static RSPSPINArgumentChecker get() {
-		if (singleton == null)
-			singleton = new RSPSPINArgumentChecker();
 		return singleton;
 	}
 
-	public void setStrict(boolean strict) {
-		this.strict = strict;
+	/**
+	 * Install the singleton as the SPIN argument checker, which checks the
+	 * arguments of SPIN functions and templates called internally by SPIN.
+	 * Template managers without their own argument validator install it.
+	 */
+	public static void install() {
+		SPINArgumentChecker.set(singleton);
 	}
 
-	public void setOntModel(Model ontModel) {
-		this.ontModel = ontModel;
+	public synchronized void setStrict(boolean strict) {
+		validator = validator.withStrict(strict);
 	}
 
-	public Model getOntModel() {
-		return ontModel;
+	public synchronized void setOntModel(Model ontModel) {
+		validator = validator.withOntModel(ontModel);
 	}
 
-	public void validate(Module module, QuerySolutionMap bindings) throws ArgumentConstraintException {
-		List<String> errors = new LinkedList<String>();
-
-		// Raise error on undefined parameters
-		if (strict) {
-			Map<String, Argument> argMap = module.getArgumentsMap();
-			bindings.varNames().forEachRemaining((v) -> {
-				if (!argMap.containsKey(v)) {
-					errors.add(String.format("Variable '%s' is not a parameter in the template", v));
-				}
-			});
-		}
-
-		// Check that each binding meets the argument constraint
-		for (Argument arg : module.getArguments(false)) {
-			String varName = arg.getVarName();
-			RDFNode value = bindings.get(varName);
-			Resource valueType = arg.getValueType();
-
-			// If null and not optional
-			if (value == null) {
-				if (!arg.isOptional()) {
-					errors.add(String.format("Missing required parameter ", varName));
-					continue;
-				}
-				value = arg.getDefaultValue();
-			}
-
-			// If value is null here continue
-			if (value == null)
-				continue;
-
-			// If the parameter represents a list validate each member
-			String e = validateBinding(varName, value, valueType);
-			if (e != null)
-				errors.add(e);
-
-		}
+	public boolean isStrict() {
+		return validator.isStrict();
+	}
 
-		// Throw exception if errors were present
-		if (!errors.isEmpty())
-			throw new ArgumentConstraintException(errors);
+	public Model getOntModel() {
+		return validator.getOntModel();
 	}
 
 	/**
-	 * Validate a binding. This validation supports typed and indirect types for
-	 * resources provided that the information is present in the ontModel.
+	 * Get the current configuration as an immutable validator
 	 * 
-	 * @param varName
-	 * @param value
-	 * @param valueType
 	 * @return
 	 */
-	private String validateBinding(String varName, RDFNode value, Resource valueType) {
-		if (value.isResource()) {
-			// Validate URI
-			if (!RSPSPINUtils.isValidUri(value.toString()))
-				return String.format("Value '%s' for parameter '%s' is not a valid URI", value, varName);
-
-			// Return if value type is null or rdfs:Resource
-			if (valueType == null || RDFS.Resource.equals(valueType))
-				return null;
+	public ArgumentValidator getValidator() {
+		return validator;
+	}
 
-			// Value is instance of valueType (in ontModel)
-			// Associate value and value type with ontModel
-			value = value.inModel(ontModel);
-			valueType = valueType.inModel(ontModel);
-			if (JenaUtil.hasIndirectType((Resource) value, valueType)) {
-				return String.format("Resource '%s' for parameter '%s' must have direct/indirect type '%s'", value,
-						varName, valueType);
-			}
-		} else {
-			// Return if value type is rdfs:Literal
-			if (RDFS.Literal.equals(valueType))
-				return null;
+	public void validate(Module module, QuerySolutionMap bindings) throws ArgumentConstraintException {
+		validator.validate(module, bindings);
+	}
 
-			// Validate typed literal
-			String datatypeURI = value.asLiteral().getDatatypeURI();
-			if (value.asLiteral().getLanguage().length() > 0) {
-				datatypeURI = XSD.xstring.getURI();
-			}
-			if (!valueType.getURI().equals(datatypeURI)) {
-				return String.format("Literal '%s' for parameter '%s' must have datatype '%s'", value, varName,
-						valueType);
-			}
-		}
-		return null;
+	/**
+	 * Validate bindings against a precompiled validation plan. The template
+	 * graph is not accessed.
+	 * 
+	 * @param plan
+	 * @param bindings
+	 * @throws ArgumentConstraintException
+	 */
+	public void validate(ValidationPlan plan, QuerySolutionMap bindings) throws ArgumentConstraintException {
+		validator.validate(plan, bindings);
 	}
-}
\ No newline at end of file
+}
@@ -1,24 +1,45 @@
 package org.rspspin.core;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.StringReader;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
 
+import org.apache.jena.graph.Node;
 import org.apache.jena.query.*;
 import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
 import org.apache.jena.rdf.model.RDFNode;
 import org.apache.jena.rdf.model.ResourceFactory;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
 import org.apache.jena.riot.SysRIOT;
 import org.apache.jena.shared.PrefixMapping;
 import org.apache.jena.update.UpdateRequest;
 import org.apache.jena.vocabulary.RDF;
 import org.apache.jena.vocabulary.RDFS;
 import org.apache.log4j.Logger;
+import org.apache.own.query.ParameterizedSparqlString;
 import org.apache.own.query.RSPQLQuery;
+import org.apache.own.query.RSPQLQueryFactory;
+import org.apache.own.query.RSPQLQueryTransformOps;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -29,10 +50,11 @@ import org.rspspin.lang.sparqlstream.ParserSPARQLStream;
 import org.rspspin.vocabulary.RSPSPIN;
 import org.topbraid.spin.arq.ARQ2SPIN;
 import org.topbraid.spin.arq.ARQFactory;
+import org.topbraid.spin.arq.BoundedCache;
+import org.topbraid.spin.arq.Metrics;
 import org.topbraid.spin.model.Argument;
 import org.topbraid.spin.model.Command;
 import org.topbraid.spin.model.Template;
-import org.topbraid.spin.system.SPINArgumentChecker;
 import org.topbraid.spin.system.SPINModuleRegistry;
 import org.topbraid.spin.vocabulary.ARG;
 import org.topbraid.spin.vocabulary.SPIN;
@@ -42,11 +64,22 @@ import org.topbraid.spin.vocabulary.SPL;
  * The template manager is designed to simplify working with SPIN templates. It
  * can either be run in local mode (requiring no writable endpoint) or remote
  * mode (loading templates from an endpoint).
+ * 
+ * The local template registry is safe for concurrent use: lookups do not lock,
+ * registering a template is atomic and {@link #getRegisteredTemplates()}
+ * returns an immutable snapshot.
  */
 public class RSPSPINTemplateManager {
 	private String templateNs;
-	private LibraryEndpointServiceImpl library = null;
-	private HashMap<String, Template> templates = new HashMap<String, Template>();
+	private volatile LibraryEndpointService library = null;
+	private final ConcurrentHashMap<String, Template> templates = new ConcurrentHashMap<String, Template>();
+	private final ConcurrentHashMap<String, CompiledTemplate> compiledTemplates = new ConcurrentHashMap<String, CompiledTemplate>();
+	private final ConcurrentHashMap<String, ValidationPlan> validationPlans = new ConcurrentHashMap<String, ValidationPlan>();
+	private volatile BoundedCache<QueryCacheKey, Query> queryCache = null;
+	private volatile RemoteTemplateCache remoteCache = null;
+	private final QueryRegistry queryRegistry = new QueryRegistry();
+	// Null to use the configuration of the global argument checker
+	private final ArgumentValidator argumentValidator;
 	private Properties props = null;
 	private final Logger logger = Logger.getLogger(RSPSPINTemplateManager.class);
 
@@ -59,9 +92,28 @@ public class RSPSPINTemplateManager {
 	}
 
 	/**
-	 * Initialize the template manager
+	 * Initialize the template manager using the configuration of the global
+	 * argument checker, {@link RSPSPINArgumentChecker#get()}, which is
+	 * installed as the SPIN argument checker
 	 */
 	public RSPSPINTemplateManager(String propsPath) {
+		this(propsPath, null);
+	}
+
+	/**
+	 * Initialize the template manager with its own argument validator, which
+	 * is used to validate all template bindings of this manager. The global
+	 * argument checker is only installed if no validator is given.
+	 * 
+	 * @param propsPath
+	 * @param argumentValidator
+	 *            the validator, or null to use the configuration of the global
+	 *            argument checker
+	 */
+	public RSPSPINTemplateManager(String propsPath, ArgumentValidator argumentValidator) {
+		this.argumentValidator = argumentValidator;
+		if (argumentValidator == null)
+			RSPSPINArgumentChecker.install();
 		ParserRSPQL.register();
 		ParserCQELS.register();
 		ParserCSPARQL.register();
@@ -71,18 +123,44 @@ public class RSPSPINTemplateManager {
 		Syntax.defaultQuerySyntax = ParserRSPQL.syntax;
 		ARQFactory.setSyntax(ParserRSPQL.syntax);
 		SysRIOT.setStrictMode(true);
-		// Install the argument checker for the internal SPIN checks. Extend
-		// this as per your requirements (e.g. add extra injection controls).
-		// Validation of template bindings should also be made by calling the
-		// validation methods explicitly.
-		SPINArgumentChecker.set(RSPSPINArgumentChecker.get());
 		loadProperties(propsPath);
 		templateNs = props.getProperty("library.template.namespace");
 		try {
-			library = new LibraryEndpointServiceImpl(propsPath);
+			// Keep templates in a local file instead of an endpoint if a path is set
+			if (props.getProperty("library.local.path") != null)
+				library = new LocalLibraryEndpointServiceImpl(propsPath);
+			else
+				library = new LibraryEndpointServiceImpl(propsPath);
 		} catch (IOException e) {
 			logger.error(e.getMessage());
 		}
+		String ttl = props.getProperty("library.cache.ttl");
+		String size = props.getProperty("library.cache.size");
+		if (ttl != null)
+			setRemoteCache(Long.parseLong(ttl),
+					size == null ? RemoteTemplateCache.DEFAULT_MAXIMUM_SIZE : Integer.parseInt(size));
+	}
+
+	/**
+	 * Set the library used for remote operations, e.g. a
+	 * {@link LocalLibraryEndpointServiceImpl}. Disables the remote template
+	 * cache.
+	 * 
+	 * @param library
+	 */
+	public void setLibrary(LibraryEndpointService library) {
+		this.library = library;
+		remoteCache = null;
+	}
+
+	/**
+	 * Get the library used for remote operations, or null if none has been
+	 * initialized.
+	 * 
+	 * @return
+	 */
+	public LibraryEndpointService getLibrary() {
+		return library;
 	}
 
 	/**
@@ -108,19 +186,150 @@ public class RSPSPINTemplateManager {
 		if (library == null)
 			throw new RSPSPINException("Remote library has not been initialized");
 		ArrayList<Template> list = library.loadTemplates();
-		list.forEach((t) -> {
-			t.getModel().setNsPrefixes(RSPSPINUtils.getDefaultPrefixMapping());
-			templates.put(t.getURI(), t);
+		list.forEach((t) -> registerLoadedTemplate(t));
+	}
+
+	/**
+	 * Load templates from the library, registering each template as soon as
+	 * it has been received rather than after the whole library has been
+	 * loaded. Templates can be looked up and instantiated while loading
+	 * continues, e.g. when this is called from a background thread.
+	 * 
+	 * @param listener
+	 *            notified of each registered template, may be null
+	 * @throws RSPSPINException
+	 */
+	public void loadTemplates(Consumer<Template> listener) throws RSPSPINException {
+		if (library == null)
+			throw new RSPSPINException("Remote library has not been initialized");
+		library.loadTemplates((t) -> {
+			registerLoadedTemplate(t);
+			if (listener != null)
+				listener.accept(t);
 		});
 	}
 
+	/**
+	 * Load templates from a snapshot if it is up to date, or else from the
+	 * library, after which a new snapshot is written.
+	 * 
+	 * @param snapshot
+	 *            path of the snapshot file
+	 * @throws RSPSPINException
+	 */
+	public void loadTemplates(Path snapshot) throws RSPSPINException {
+		if (loadSnapshot(snapshot))
+			return;
+		loadTemplates();
+		try {
+			saveSnapshot(snapshot);
+		} catch (IOException e) {
+			logger.error(e.getMessage());
+		}
+	}
+
+	/**
+	 * Write all registered templates to a binary snapshot, together with the
+	 * versions of the templates in the library.
+	 * 
+	 * @param path
+	 * @throws IOException
+	 */
+	public void saveSnapshot(Path path) throws IOException {
+		LibraryEndpointService lib = library;
+		Map<String, String> versions = lib == null ? null : lib.getTemplateVersions();
+		List<TemplateSnapshot.Record> records = new ArrayList<>();
+		for (Template template : templates.values()) {
+			ByteArrayOutputStream rdf = new ByteArrayOutputStream();
+			RDFDataMgr.write(rdf, template.getModel(), Lang.NTRIPLES);
+			String commandText = null;
+			try {
+				Command body = template.getBody();
+				if (body != null)
+					commandText = ARQFactory.get().createCommandString(body);
+			} catch (RuntimeException e) {
+				// The body is converted again when the snapshot is loaded
+			}
+			records.add(new TemplateSnapshot.Record(template.getURI(), rdf.toString("UTF-8"), commandText,
+					getValidationPlan(template).toArgumentRecords()));
+		}
+		new TemplateSnapshot(versions, records).write(path);
+	}
+
+	/**
+	 * Register the templates of a snapshot, unless the snapshot is stale. A
+	 * snapshot is stale if the versions of the library templates differ from
+	 * those recorded in the snapshot, or if either is unknown. Without a
+	 * library the snapshot is always used. The templates are restored in
+	 * parallel, together with their validation plans and the text of their
+	 * bodies.
+	 * 
+	 * @param path
+	 * @return false if the snapshot could not be read or is stale
+	 */
+	public boolean loadSnapshot(Path path) {
+		TemplateSnapshot snapshot;
+		try {
+			snapshot = TemplateSnapshot.read(path);
+		} catch (IOException e) {
+			logger.info(String.format("Template snapshot not used: %s", e.getMessage()));
+			return false;
+		}
+		LibraryEndpointService lib = library;
+		if (lib != null) {
+			Map<String, String> recorded = snapshot.getLibraryVersions();
+			Map<String, String> versions;
+			try {
+				versions = lib.getTemplateVersions();
+			} catch (RuntimeException e) {
+				logger.error(e.getMessage());
+				return false;
+			}
+			if (recorded == null || versions == null || versions.containsValue(null) || !versions.equals(recorded)) {
+				logger.info("Template snapshot not used: the library has changed");
+				return false;
+			}
+		}
+		List<ValidationPlan> plans = snapshot.getRecords().parallelStream().map((record) -> {
+			Model model = ModelFactory.createDefaultModel();
+			RDFDataMgr.read(model, new StringReader(record.getRDF()), null, Lang.NTRIPLES);
+			Template template = model.getResource(record.getURI()).as(Template.class);
+			if (record.getCommandText() != null && template.getBody() != null)
+				ARQFactory.get().putCommandString(template.getBody(), record.getCommandText());
+			return new ValidationPlan(template, record.getArguments());
+		}).collect(Collectors.toList());
+		for (ValidationPlan plan : plans) {
+			Template template = (Template) plan.getModule();
+			registerLoadedTemplate(template);
+			validationPlans.put(template.getURI(), plan);
+		}
+		return true;
+	}
+
+	private void registerLoadedTemplate(Template t) {
+		t.getModel().setNsPrefixes(RSPSPINUtils.getDefaultPrefixMapping());
+		templates.put(t.getURI(), t);
+		compiledTemplates.remove(t.getURI());
+		validationPlans.remove(t.getURI());
+		invalidateQueryCache(t.getURI());
+	}
+
 	/**
 	 * Reset the set of locally stored templates
 	 */
 	public void clearTemplates(boolean remote) {
 		templates.clear();
-		if (remote && library != null)
+		compiledTemplates.clear();
+		validationPlans.clear();
+		BoundedCache<QueryCacheKey, Query> cache = queryCache;
+		if (cache != null)
+			cache.clear();
+		if (remote && library != null) {
 			library.clearTemplateGraph();
+			RemoteTemplateCache remoteTemplates = remoteCache;
+			if (remoteTemplates != null)
+				remoteTemplates.clear();
+		}
 	}
 
 	/**
@@ -138,7 +347,7 @@ public class RSPSPINTemplateManager {
 		Template template = model.createResource(templateId, SPIN.Template).as(Template.class);
 
 		// SELECT, CONSTRUCT, ASK
-		Query query = QueryFactory.create(queryString);
+		RSPQLQuery query = RSPQLQueryFactory.create(queryString, Syntax.defaultQuerySyntax);
 		switch (query.getQueryType()) {
 		case Query.QueryTypeSelect:
 			template.addProperty(RDF.type, RSPSPIN.SelectTemplate);
@@ -152,7 +361,7 @@ public class RSPSPINTemplateManager {
 		default:
 			throw new RSPSPINException("Unsupported template type");
 		}
-		template.addProperty(SPIN.body, arq2spin.createRSPQLQuery((RSPQLQuery) query, null));
+		template.addProperty(SPIN.body, arq2spin.createRSPQLQuery(query, null));
 
 		return template;
 	}
@@ -268,10 +477,15 @@ public class RSPSPINTemplateManager {
 		// Add argument constraint to template
 		template.addProperty(SPIN.constraint, argument);
 		template.getModel().add(argument.getModel());
+		compiledTemplates.remove(template.getURI());
+		validationPlans.remove(template.getURI());
+		invalidateQueryCache(template.getURI());
 	}
 
 	/**
-	 * Add a template to the manager
+	 * Add a template to the manager. When replacing, an existing template with
+	 * the same URI is swapped out atomically so that concurrent lookups see
+	 * either the old or the new template, never neither.
 	 * 
 	 * @param template
 	 * @param remote
@@ -280,19 +494,67 @@ public class RSPSPINTemplateManager {
 	 */
 	public void addTemplate(Template template, boolean remote, boolean replace)
 			throws RSPSPINException, URISyntaxException {
-		if (replace)
-			deleteTemplate(template.getURI(), remote);
+		if (remote && library == null)
+			throw new RSPSPINException("Remote library has not been initialized");
 
-		if (templates.containsKey(template.getURI()))
-			throw new RSPSPINException(String.format("Template URI '%s' already in use", template.getURI()));
-		templates.put(template.getURI(), template);
+		String uri = template.getURI();
+		if (replace) {
+			templates.put(uri, template);
+		} else if (templates.putIfAbsent(uri, template) != null) {
+			throw new RSPSPINException(String.format("Template URI '%s' already in use", uri));
+		}
+		compiledTemplates.remove(uri);
+		validationPlans.remove(uri);
+		invalidateQueryCache(uri);
 		if (remote) {
-			if (library == null)
-				throw new RSPSPINException("Remote library has not been initialized");
+			invalidateRemoteCache(uri);
+			if (replace)
+				library.deleteTemplate(uri);
 			library.storeTemplate(template);
 		}
 	}
 
+	/**
+	 * Add many templates to the manager, optionally storing them in the
+	 * library with a single update. No template is added if any of the URIs
+	 * is already in use.
+	 * 
+	 * @param templateList
+	 * @param remote
+	 * @throws RSPSPINException
+	 */
+	public void addTemplates(List<Template> templateList, boolean remote) throws RSPSPINException {
+		if (remote && library == null)
+			throw new RSPSPINException("Remote library has not been initialized");
+
+		List<Template> added = new ArrayList<>();
+		for (Template template : templateList) {
+			if (templates.putIfAbsent(template.getURI(), template) != null) {
+				added.forEach((t) -> templates.remove(t.getURI(), t));
+				throw new RSPSPINException(String.format("Template URI '%s' already in use", template.getURI()));
+			}
+			added.add(template);
+			compiledTemplates.remove(template.getURI());
+			validationPlans.remove(template.getURI());
+			invalidateQueryCache(template.getURI());
+		}
+		if (remote) {
+			templateList.forEach((t) -> invalidateRemoteCache(t.getURI()));
+			try {
+				library.storeTemplates(templateList);
+			} catch (RSPSPINException | RuntimeException e) {
+				// Keep the manager in line with the library
+				for (Template template : added) {
+					templates.remove(template.getURI(), template);
+					compiledTemplates.remove(template.getURI());
+					validationPlans.remove(template.getURI());
+					invalidateQueryCache(template.getURI());
+				}
+				throw e;
+			}
+		}
+	}
+
 	/**
 	 * Get template from the manager or library. Abbreviated template id:are
 	 * expanded
@@ -310,10 +572,15 @@ public class RSPSPINTemplateManager {
 		if (new URI(templateUri).getScheme() == null)
 			templateUri = templateNs + templateUri;
 
-		// Retrieve from remote service, slower but always up to date
+		// Retrieve from remote service, slower but always up to date. With the
+		// remote cache enabled the library is only contacted once the cached
+		// template has expired, and then only to check its version.
 		if (remote) {
 			if (library == null)
 				throw new RSPSPINException("Remote library has not been initialized");
+			RemoteTemplateCache cache = remoteCache;
+			if (cache != null)
+				return cache.get(templateUri);
 			return library.getTemplate(templateUri);
 		}
 		return templates.get(templateUri);
@@ -337,9 +604,13 @@ public class RSPSPINTemplateManager {
 
 		// Remove
 		templates.remove(templateUri);
+		compiledTemplates.remove(templateUri);
+		validationPlans.remove(templateUri);
+		invalidateQueryCache(templateUri);
 		if (remote) {
 			if (library == null)
 				throw new RSPSPINException("Remote library has not been initialized");
+			invalidateRemoteCache(templateUri);
 			library.deleteTemplate(templateUri);
 		}
 	}
@@ -353,17 +624,21 @@ public class RSPSPINTemplateManager {
 	 * @throws RSPSPINException
 	 */
 	public QuerySolutionMap getBindings(Template template, JSONObject parameters) throws RSPSPINException {
+		return getBindings(parameters, getValidationPlan(template));
+	}
+
+	private static QuerySolutionMap getBindings(JSONObject parameters, ValidationPlan plan) throws RSPSPINException {
 		// Query solution map
 		QuerySolutionMap bindings = new QuerySolutionMap();
-		for (Argument arg : template.getArguments(false)) {
-			String varName = arg.getVarName();
+		for (int i = 0; i < plan.size(); i++) {
+			String varName = plan.getVarName(i);
 			if (parameters.has(varName)) {
 				RDFNode value = RSPSPINUtils.createRDFNode(parameters.get(varName).toString(),
-						arg.getValueType().toString());
+						plan.getValueType(i).toString());
 				bindings.add(varName, value);
-			} else if (arg.getDefaultValue() != null) {
-				bindings.add(varName, arg.getDefaultValue());
-			} else if (!arg.isOptional()) {
+			} else if (plan.getDefaultValue(i) != null) {
+				bindings.add(varName, plan.getDefaultValue(i));
+			} else if (!plan.isOptional(i)) {
 				throw new RSPSPINException(String.format("Missing value for required parameter %s", varName));
 			}
 		}
@@ -379,7 +654,12 @@ public class RSPSPINTemplateManager {
 
 	/**
 	 * Get an instantiated query from a template and a set of parameter
-	 * bindings.
+	 * bindings. If the query cache is enabled, instantiations of registered
+	 * templates are cached and a copy of the cached query is returned for
+	 * repeated bindings. Only bindings that passed validation are cached, and
+	 * a cache hit is returned without validating the bindings again, so a
+	 * change to the configuration of the global argument checker does not
+	 * apply to bindings already in the cache.
 	 * 
 	 * @param template
 	 * @param bindings
@@ -390,14 +670,345 @@ public class RSPSPINTemplateManager {
 	 */
 	public Query instantiateQuery(Template template, QuerySolutionMap bindings)
 			throws RSPSPINException, ArgumentConstraintException {
-		RSPSPINArgumentChecker.get().validate(template, bindings);
+		return instantiateQuery(template, bindings, null, null);
+	}
+
+	/**
+	 * Get instantiated queries from a template and many sets of parameter
+	 * bindings. The template body is serialized and tokenized, and its
+	 * validation plan built, once for the whole batch. Errors are reported per item in the returned results, which
+	 * are in the order of the bindings.
+	 * 
+	 * @param template
+	 * @param bindingsList
+	 * @param pool
+	 *            pool to instantiate the queries in parallel, or null to
+	 *            instantiate them in the calling thread
+	 * @return
+	 */
+	public List<InstantiationResult> instantiateQueries(Template template, List<QuerySolutionMap> bindingsList,
+			ForkJoinPool pool) {
+		ParameterizedSparqlString prototype = createPrototype(template);
+		ValidationPlan plan = getValidationPlan(template);
+		List<Callable<InstantiationResult>> tasks = new ArrayList<>();
+		for (QuerySolutionMap bindings : bindingsList) {
+			tasks.add(() -> {
+				try {
+					return new InstantiationResult(bindings, instantiateQuery(template, bindings, prototype, plan));
+				} catch (Exception e) {
+					return new InstantiationResult(bindings, e);
+				}
+			});
+		}
+		return invokeAll(tasks, pool);
+	}
+
+	/**
+	 * Get instantiated queries from a template and many JSON parameter objects
+	 * (see {@link #getBindings(Template, JSONObject)}). Errors are reported per
+	 * item in the returned results, which are in the order of the parameters.
+	 * 
+	 * @param template
+	 * @param parametersList
+	 * @param pool
+	 *            pool to instantiate the queries in parallel, or null to
+	 *            instantiate them in the calling thread
+	 * @return
+	 */
+	public List<InstantiationResult> instantiateQueriesFromJson(Template template, List<JSONObject> parametersList,
+			ForkJoinPool pool) {
+		ParameterizedSparqlString prototype = createPrototype(template);
+		ValidationPlan plan = getValidationPlan(template);
+		List<Callable<InstantiationResult>> tasks = new ArrayList<>();
+		for (JSONObject parameters : parametersList) {
+			tasks.add(() -> {
+				QuerySolutionMap bindings = null;
+				try {
+					bindings = getBindings(parameters, plan);
+					return new InstantiationResult(bindings, instantiateQuery(template, bindings, prototype, plan));
+				} catch (Exception e) {
+					return new InstantiationResult(bindings, e);
+				}
+			});
+		}
+		return invokeAll(tasks, pool);
+	}
+
+	/**
+	 * Create a parameterized string of the template body that is copied for
+	 * each instantiation. Returns null if the body can not be serialized, the
+	 * error is then reported for each instantiation.
+	 */
+	private ParameterizedSparqlString createPrototype(Template template) {
+		ParameterizedSparqlString prototype;
+		try {
+			prototype = new ParameterizedSparqlString(getQueryString(template));
+		} catch (RuntimeException e) {
+			return null;
+		}
+		// Tokenize the command once, copies share the tokenized form
+		prototype.copy(false);
+		return prototype;
+	}
+
+	private static List<InstantiationResult> invokeAll(List<Callable<InstantiationResult>> tasks, ForkJoinPool pool) {
+		List<InstantiationResult> results = new ArrayList<>(tasks.size());
+		if (pool == null) {
+			for (Callable<InstantiationResult> task : tasks) {
+				try {
+					results.add(task.call());
+				} catch (Exception e) {
+					results.add(new InstantiationResult(null, e));
+				}
+			}
+			return results;
+		}
+		for (Future<InstantiationResult> future : pool.invokeAll(tasks)) {
+			try {
+				results.add(future.get());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				results.add(new InstantiationResult(null, e));
+			} catch (ExecutionException e) {
+				results.add(new InstantiationResult(null, e));
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Instantiate a template, using the prototype and validation plan of a
+	 * batch when given
+	 */
+	private Query instantiateQuery(Template template, QuerySolutionMap bindings, ParameterizedSparqlString prototype,
+			ValidationPlan plan) throws RSPSPINException, ArgumentConstraintException {
+		BoundedCache<QueryCacheKey, Query> cache = queryCache;
+		QueryCacheKey key = null;
+		if (cache != null && templates.get(template.getURI()) == template) {
+			key = new QueryCacheKey(template, bindings);
+			Query cached = cache.get(key);
+			if (cached != null)
+				return copyQuery(cached);
+		}
+
+		getArgumentValidator().validate(plan != null ? plan : getValidationPlan(template), bindings);
+
+		// Parameterized
+		ParameterizedSparqlString pss;
+		if (prototype != null) {
+			pss = prototype.copy(false);
+			pss.setParams(bindings);
+		} else {
+			pss = new ParameterizedSparqlString(getQueryString(template), bindings);
+		}
+		Query query = pss.asQuery();
+		if (key != null) {
+			// The cache keeps its own copy, callers may modify the result
+			cache.put(key, copyQuery(query));
+		}
+		return query;
+	}
+
+	/**
+	 * Get the query text of a template body
+	 */
+	private String getQueryString(Template template) {
 		Command spinQuery = template.getBody();
 		Query arq = ARQFactory.get().createQuery((org.topbraid.spin.model.Query) spinQuery);
 		arq.setPrefixMapping(RSPSPINUtils.getDefaultPrefixMapping());
+		return arq.toString();
+	}
 
-		// Parameterized
-		org.apache.own.query.ParameterizedSparqlString pss = new org.apache.own.query.ParameterizedSparqlString(arq.toString(), bindings);
-		return pss.asQuery();
+	/**
+	 * Enable caching of instantiated queries, keyed on the template and the
+	 * parameter bindings. Cached instantiations of a template are invalidated
+	 * when the template is added, replaced or deleted. Bindings are validated
+	 * when they are first instantiated, not on cache hits (see
+	 * {@link #instantiateQuery(Template, QuerySolutionMap)}); setting the size
+	 * again empties the cache.
+	 * 
+	 * The statistics of the cache are published through {@link Metrics} as
+	 * manager.queryCache.
+	 * 
+	 * @param maximumSize
+	 *            maximum number of cached queries, 0 disables the cache
+	 */
+	public void setQueryCacheSize(long maximumSize) {
+		BoundedCache<QueryCacheKey, Query> old = queryCache;
+		if (old != null)
+			Metrics.unregisterCache("manager.queryCache", old);
+		BoundedCache<QueryCacheKey, Query> cache = maximumSize > 0
+				? new BoundedCache<QueryCacheKey, Query>(maximumSize) : null;
+		queryCache = cache;
+		if (cache != null)
+			Metrics.registerCache("manager.queryCache", cache);
+	}
+
+	/**
+	 * Get the statistics of the instantiated query cache, or null if the cache
+	 * is disabled.
+	 * 
+	 * @return
+	 */
+	public BoundedCache.Stats getQueryCacheStats() {
+		BoundedCache<QueryCacheKey, Query> cache = queryCache;
+		return cache == null ? null : cache.getStats();
+	}
+
+	/**
+	 * Enable caching of templates retrieved from the library. A cached
+	 * template is used without contacting the library for ttl milliseconds,
+	 * after which its version is checked against the library. The cache can
+	 * also be enabled with the library.cache.ttl property. It is only used
+	 * with an endpoint library, as a local library is read without network
+	 * access.
+	 * 
+	 * @param ttl
+	 *            time to live in milliseconds, 0 disables the cache
+	 */
+	public void setRemoteCacheTtl(long ttl) {
+		setRemoteCache(ttl, RemoteTemplateCache.DEFAULT_MAXIMUM_SIZE);
+	}
+
+	/**
+	 * Enable caching of templates retrieved from the library, holding at most
+	 * maximumSize templates. The size can also be set with the
+	 * library.cache.size property.
+	 * 
+	 * @param ttl
+	 *            time to live in milliseconds, 0 disables the cache
+	 * @param maximumSize
+	 * @see #setRemoteCacheTtl(long)
+	 */
+	public void setRemoteCache(long ttl, int maximumSize) {
+		LibraryEndpointService lib = library;
+		remoteCache = ttl > 0 && lib instanceof LibraryEndpointServiceImpl
+				? new RemoteTemplateCache((LibraryEndpointServiceImpl) lib, ttl, maximumSize) : null;
+	}
+
+	/**
+	 * Get the remote template cache, or null if the cache is disabled.
+	 * 
+	 * @return
+	 */
+	public RemoteTemplateCache getRemoteCache() {
+		return remoteCache;
+	}
+
+	private void invalidateRemoteCache(String templateUri) {
+		RemoteTemplateCache cache = remoteCache;
+		if (cache != null)
+			cache.invalidate(templateUri);
+	}
+
+	private void invalidateQueryCache(String templateUri) {
+		BoundedCache<QueryCacheKey, Query> cache = queryCache;
+		if (cache != null)
+			cache.invalidateIf((key) -> key.templateUri.equals(templateUri));
+	}
+
+	private static Query copyQuery(Query query) {
+		if (query instanceof RSPQLQuery)
+			return RSPQLQueryTransformOps.copy((RSPQLQuery) query);
+		return query.cloneQuery();
+	}
+
+	/**
+	 * Get an instantiated query from a compiled template and a set of
+	 * parameter bindings. The bindings are substituted directly into the
+	 * syntax tree of the query, no query text is generated or parsed.
+	 * 
+	 * @param compiledTemplate
+	 * @param bindings
+	 * @return
+	 * @throws ArgumentConstraintException
+	 */
+	public RSPQLQuery instantiateQuery(CompiledTemplate compiledTemplate, QuerySolutionMap bindings)
+			throws ArgumentConstraintException {
+		getArgumentValidator().validate(getValidationPlan(compiledTemplate.getTemplate()), bindings);
+		return compiledTemplate.instantiate(bindings);
+	}
+
+	/**
+	 * Instantiate a template and register the query in the query registry of
+	 * this manager. Instantiations that only differ in the output stream share
+	 * one registration, which lists the output streams of all of them.
+	 * 
+	 * @param template
+	 * @param bindings
+	 * @return
+	 * @throws RSPSPINException
+	 * @throws ArgumentConstraintException
+	 */
+	public QueryRegistry.Registration registerQuery(Template template, QuerySolutionMap bindings)
+			throws RSPSPINException, ArgumentConstraintException {
+		return queryRegistry.register(instantiateQuery(getCompiledTemplate(template), bindings));
+	}
+
+	/**
+	 * Instantiate a template and remove the query from the query registry of
+	 * this manager.
+	 * 
+	 * @param template
+	 * @param bindings
+	 * @return false if the query was not registered
+	 * @throws RSPSPINException
+	 * @throws ArgumentConstraintException
+	 */
+	public boolean unregisterQuery(Template template, QuerySolutionMap bindings)
+			throws RSPSPINException, ArgumentConstraintException {
+		return queryRegistry.unregister(instantiateQuery(getCompiledTemplate(template), bindings));
+	}
+
+	/**
+	 * Get the registry of the queries registered through this manager
+	 * 
+	 * @return
+	 */
+	public QueryRegistry getQueryRegistry() {
+		return queryRegistry;
+	}
+
+	/**
+	 * Get the compiled form of a template. Compiled forms of templates
+	 * registered in the manager are cached until the template is replaced or
+	 * deleted.
+	 * 
+	 * @param template
+	 * @return
+	 * @throws RSPSPINException
+	 */
+	public CompiledTemplate getCompiledTemplate(Template template) throws RSPSPINException {
+		String uri = template.getURI();
+		CompiledTemplate compiled = compiledTemplates.get(uri);
+		if (compiled != null && compiled.getTemplate() == template)
+			return compiled;
+		compiled = new CompiledTemplate(template);
+		// Only cache templates that are (still) registered, entries are
+		// checked against the template on lookup so a stale entry left by a
+		// concurrent replace is never returned
+		if (templates.get(uri) == template)
+			compiledTemplates.put(uri, compiled);
+		return compiled;
+	}
+
+	/**
+	 * Get the validation plan of a template. Plans of templates registered in
+	 * the manager are cached until the template is replaced, deleted or gets
+	 * a new argument constraint.
+	 * 
+	 * @param template
+	 * @return
+	 */
+	public ValidationPlan getValidationPlan(Template template) {
+		String uri = template.getURI();
+		ValidationPlan plan = validationPlans.get(uri);
+		if (plan != null && plan.getModule() == template)
+			return plan;
+		plan = new ValidationPlan(template);
+		if (templates.get(uri) == template)
+			validationPlans.put(uri, plan);
+		return plan;
 	}
 
 	/**
@@ -413,13 +1024,13 @@ public class RSPSPINTemplateManager {
 	 */
 	public UpdateRequest instantiateUpdate(Template template, QuerySolutionMap bindings)
 			throws RSPSPINException, ArgumentConstraintException {
-		RSPSPINArgumentChecker.get().validate(template, bindings);
+		getArgumentValidator().validate(getValidationPlan(template), bindings);
 		org.topbraid.spin.model.update.Update spinQuery = (org.topbraid.spin.model.update.Update) template.getBody();
 		UpdateRequest arq = ARQFactory.get().createUpdateRequest(spinQuery);
 		arq.setPrefixMapping(RSPSPINUtils.getDefaultPrefixMapping());
 
 		// Parameterized
-		org.apache.own.query.ParameterizedSparqlString pss = new org.apache.own.query.ParameterizedSparqlString(arq.toString(), bindings);
+		ParameterizedSparqlString pss = new ParameterizedSparqlString(arq.toString(), bindings);
 		return pss.asUpdate();
 	}
 
@@ -452,12 +1063,33 @@ public class RSPSPINTemplateManager {
 	}
 
 	/**
-	 * Get all templates
+	 * Get the argument validator used to validate bindings. Without a
+	 * validator of its own this is the current configuration of the global
+	 * argument checker.
+	 * 
+	 * @return
+	 */
+	public ArgumentValidator getArgumentValidator() {
+		return argumentValidator != null ? argumentValidator : RSPSPINArgumentChecker.get().getValidator();
+	}
+
+	/**
+	 * Get a copy of all templates. Changes to the copy do not register or
+	 * remove templates.
 	 * 
 	 * @return
 	 */
 	public HashMap<String, Template> getTemplates() {
-		return templates;
+		return new HashMap<String, Template>(templates);
+	}
+
+	/**
+	 * Get an immutable snapshot of all templates
+	 * 
+	 * @return
+	 */
+	public Map<String, Template> getRegisteredTemplates() {
+		return Collections.unmodifiableMap(new HashMap<String, Template>(templates));
 	}
 
 	/**
@@ -512,29 +1144,68 @@ public class RSPSPINTemplateManager {
 		}
 
 		// Parameters
-		List<Argument> args = template.getArguments(false);
+		ValidationPlan plan = getValidationPlan(template);
 		JSONArray params = new JSONArray();
-		for (Argument arg : args) {
+		for (int i = 0; i < plan.size(); i++) {
 			JSONObject param = new JSONObject();
-			param.put("varName", arg.getVarName());
-			if (arg.getValueType() != null)
-				param.put("valueType", prefixes.shortForm(arg.getValueType().toString()));
-			if (arg.getDefaultValue() != null) {
-				RDFNode defaultValue = arg.getDefaultValue();
+			param.put("varName", plan.getVarName(i));
+			if (plan.getValueType(i) != null)
+				param.put("valueType", prefixes.shortForm(plan.getValueType(i).toString()));
+			if (plan.getDefaultValue(i) != null) {
+				RDFNode defaultValue = plan.getDefaultValue(i);
 				if (defaultValue.isLiteral()) {
 					param.put("defaultValue", defaultValue.asLiteral().getValue().toString());
 				} else {
 					param.put("defaultValue", prefixes.shortForm(defaultValue.toString()));
 				}
 			}
-			if (arg.hasProperty(RDFS.label))
-				param.put("label", arg.getProperty(RDFS.label).getObject().toString());
-			if (arg.hasProperty(RDFS.comment))
-				param.put("comment", arg.getProperty(RDFS.comment).getObject().toString());
-			param.put("optional", arg.isOptional());
+			if (plan.getLabel(i) != null)
+				param.put("label", plan.getLabel(i));
+			if (plan.getComment(i) != null)
+				param.put("comment", plan.getComment(i));
+			param.put("optional", plan.isOptional(i));
 			params.put(param);
 		}
 		jsonTemplate.put("parameters", params);
 		return jsonTemplate;
 	}
+
+	/**
+	 * Cache key of an instantiated query. Templates are compared by identity,
+	 * bindings by their canonical (variable name ordered) form.
+	 */
+	private static class QueryCacheKey {
+		private final Template template;
+		private final String templateUri;
+		private final TreeMap<String, Node> bindings = new TreeMap<String, Node>();
+		private final int hash;
+
+		public QueryCacheKey(Template template, QuerySolutionMap bindings) {
+			this.template = template;
+			this.templateUri = template.getURI();
+			Iterator<String> it = bindings.varNames();
+			while (it.hasNext()) {
+				String varName = it.next();
+				RDFNode value = bindings.get(varName);
+				if (value != null)
+					this.bindings.put(varName, value.asNode());
+			}
+			this.hash = 31 * templateUri.hashCode() + this.bindings.hashCode();
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o)
+				return true;
+			if (!(o instanceof QueryCacheKey))
+				return false;
+			QueryCacheKey other = (QueryCacheKey) o;
+			return template == other.template && hash == other.hash && bindings.equals(other.bindings);
+		}
+	}
 }
@@ -0,0 +1,223 @@
+package org.rspspin.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Statement;
+import org.rspspin.vocabulary.RSPSPIN;
+import org.topbraid.spin.model.Template;
+
+/**
+ * A read-through cache of templates in the library. A cached template is
+ * returned without contacting the library until its time to live has expired.
+ * An expired template is then checked against the version the library holds
+ * (rspspin:version, written when the template is stored), and is only fetched
+ * again if it has changed or has no version.
+ *
+ * Each lookup returns a copy of the cached template in a model of its own, so
+ * callers are free to change it. The cache holds at most a maximum number of
+ * templates, the templates checked least recently are dropped first.
+ */
+public class RemoteTemplateCache {
+	public static final int DEFAULT_MAXIMUM_SIZE = 1000;
+	private final LibraryEndpointServiceImpl library;
+	private final long ttlNanos;
+	private final int maximumSize;
+	private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong checkCount = new AtomicLong();
+	private final AtomicLong loadCount = new AtomicLong();
+
+	/**
+	 * Create a cache in front of a library.
+	 *
+	 * @param library
+	 * @param ttlMillis
+	 *            time in milliseconds a template is used without checking its
+	 *            version
+	 */
+	public RemoteTemplateCache(LibraryEndpointServiceImpl library, long ttlMillis) {
+		this(library, ttlMillis, DEFAULT_MAXIMUM_SIZE);
+	}
+
+	/**
+	 * Create a cache in front of a library holding at most maximumSize
+	 * templates.
+	 *
+	 * @param library
+	 * @param ttlMillis
+	 *            time in milliseconds a template is used without checking its
+	 *            version
+	 * @param maximumSize
+	 */
+	public RemoteTemplateCache(LibraryEndpointServiceImpl library, long ttlMillis, int maximumSize) {
+		if (maximumSize < 1)
+			throw new IllegalArgumentException("The maximum size must be positive: " + maximumSize);
+		this.library = library;
+		this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+		this.maximumSize = maximumSize;
+	}
+
+	/**
+	 * Get a copy of a template, or null if it does not exist in the library.
+	 *
+	 * @param uri
+	 * @return
+	 */
+	public Template get(String uri) {
+		Entry entry = entries.get(uri);
+		long now = System.nanoTime();
+		if (entry != null) {
+			if (now - entry.checkedAt < ttlNanos) {
+				hitCount.incrementAndGet();
+				return copy(entry.template);
+			}
+			if (entry.version != null) {
+				checkCount.incrementAndGet();
+				Map<String, String> versions = library.getTemplateVersions(Collections.singleton(uri));
+				if (entry.version.equals(versions.get(uri))) {
+					entries.replace(uri, entry, new Entry(entry.template, entry.version, now));
+					return copy(entry.template);
+				}
+			}
+		}
+		return load(uri, now);
+	}
+
+	/**
+	 * Check the versions of all expired templates with a single query.
+	 * Templates that are unchanged are valid for another time to live, other
+	 * templates are dropped and fetched on their next lookup.
+	 */
+	public void refresh() {
+		long now = System.nanoTime();
+		List<String> expired = new ArrayList<>();
+		entries.forEach((uri, entry) -> {
+			if (now - entry.checkedAt >= ttlNanos)
+				expired.add(uri);
+		});
+		if (expired.isEmpty())
+			return;
+		checkCount.incrementAndGet();
+		Map<String, String> versions = library.getTemplateVersions(expired);
+		for (String uri : expired) {
+			Entry entry = entries.get(uri);
+			if (entry == null)
+				continue;
+			if (entry.version != null && entry.version.equals(versions.get(uri)))
+				entries.replace(uri, entry, new Entry(entry.template, entry.version, now));
+			else
+				entries.remove(uri, entry);
+		}
+	}
+
+	/**
+	 * Drop a template from the cache
+	 *
+	 * @param uri
+	 */
+	public void invalidate(String uri) {
+		entries.remove(uri);
+	}
+
+	/**
+	 * Drop all templates from the cache
+	 */
+	public void clear() {
+		entries.clear();
+	}
+
+	/**
+	 * Get the number of cached templates
+	 *
+	 * @return
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Get the number of lookups answered without contacting the library
+	 *
+	 * @return
+	 */
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	/**
+	 * Get the number of version checks sent to the library
+	 *
+	 * @return
+	 */
+	public long getCheckCount() {
+		return checkCount.get();
+	}
+
+	/**
+	 * Get the number of templates fetched from the library
+	 *
+	 * @return
+	 */
+	public long getLoadCount() {
+		return loadCount.get();
+	}
+
+	private Template load(String uri, long now) {
+		loadCount.incrementAndGet();
+		Template template = library.getTemplate(uri);
+		if (template == null) {
+			entries.remove(uri);
+			return null;
+		}
+		Statement s = template.getProperty(RSPSPIN.version);
+		String version = s == null ? null : s.getString();
+		entries.put(uri, new Entry(template, version, now));
+		evict();
+		return copy(template);
+	}
+
+	/**
+	 * Drop the templates checked least recently until the cache is within its
+	 * maximum size. This only runs after a template has been fetched, so the
+	 * scan is small next to the request to the library.
+	 */
+	private void evict() {
+		while (entries.size() > maximumSize) {
+			Map.Entry<String, Entry> eldest = null;
+			for (Map.Entry<String, Entry> e : entries.entrySet()) {
+				if (eldest == null || e.getValue().checkedAt - eldest.getValue().checkedAt < 0)
+					eldest = e;
+			}
+			if (eldest == null)
+				return;
+			entries.remove(eldest.getKey(), eldest.getValue());
+		}
+	}
+
+	private static Template copy(Template template) {
+		Model model = ModelFactory.createDefaultModel();
+		model.setNsPrefixes(template.getModel());
+		model.add(template.getModel());
+		return model.getResource(template.getURI()).as(Template.class);
+	}
+
+	private static class Entry {
+		private final Template template;
+		private final String version;
+		private final long checkedAt;
+
+		public Entry(Template template, String version, long checkedAt) {
+			this.template = template;
+			this.version = version;
+			this.checkedAt = checkedAt;
+		}
+	}
+}
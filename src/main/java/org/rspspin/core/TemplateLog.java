@@ -0,0 +1,347 @@
+package org.rspspin.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log of records keyed by template URI, with an in-memory index
+ * of the latest record of each URI. The log is scanned through a memory mapping
+ * when opened, and records written before opening are read from the mapping.
+ * An incomplete or corrupt record at the end of the log (e.g. after a crash
+ * during a write) is discarded when the log is opened.
+ *
+ * The file starts with a header (magic number and format version), followed by
+ * records of the form: operation (byte), URI length (int), body length (int),
+ * URI (UTF-8), body, CRC32 of URI and body (int).
+ */
+public class TemplateLog implements Closeable {
+	private static final int MAGIC = 0x5253504c; // RSPL
+	private static final int FORMAT_VERSION = 1;
+	private static final int HEADER_SIZE = 8;
+	private static final int RECORD_HEADER_SIZE = 9;
+	private static final byte PUT = 1;
+	private static final byte DELETE = 2;
+
+	private final Path path;
+	private final boolean sync;
+	private FileChannel channel;
+	private MappedByteBuffer mapped;
+	private final Map<String, Location> index = new HashMap<String, Location>();
+	private long garbage = 0;
+
+	/**
+	 * Open a log, creating the file if it does not exist.
+	 *
+	 * @param path
+	 * @param sync
+	 *            force each write to the storage device before returning
+	 * @throws IOException
+	 */
+	public TemplateLog(Path path, boolean sync) throws IOException {
+		this.path = path;
+		this.sync = sync;
+		open();
+	}
+
+	private void open() throws IOException {
+		channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		index.clear();
+		garbage = 0;
+		if (channel.size() == 0) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(MAGIC).putInt(FORMAT_VERSION).flip();
+			write(header, 0);
+			force();
+		}
+		mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		if (mapped.limit() < HEADER_SIZE || mapped.getInt(0) != MAGIC)
+			throw new IOException(String.format("'%s' is not a template log", path));
+		if (mapped.getInt(4) != FORMAT_VERSION)
+			throw new IOException(String.format("Unsupported template log version %d in '%s'", mapped.getInt(4), path));
+
+		long end = scan();
+		if (end < channel.size()) {
+			channel.truncate(end);
+			force();
+			mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, end);
+		}
+	}
+
+	/**
+	 * Build the index from the mapped file
+	 *
+	 * @return the end of the last valid record
+	 */
+	private long scan() {
+		ByteBuffer buf = mapped.duplicate();
+		int pos = HEADER_SIZE;
+		CRC32 crc = new CRC32();
+		while (buf.limit() - pos >= RECORD_HEADER_SIZE) {
+			byte op = buf.get(pos);
+			int uriLength = buf.getInt(pos + 1);
+			int bodyLength = buf.getInt(pos + 5);
+			if ((op != PUT && op != DELETE) || uriLength < 0 || bodyLength < 0)
+				break;
+			long recordLength = (long) RECORD_HEADER_SIZE + uriLength + bodyLength + 4;
+			if (buf.limit() - pos < recordLength)
+				break;
+			ByteBuffer data = buf.duplicate();
+			data.position(pos + RECORD_HEADER_SIZE).limit(pos + RECORD_HEADER_SIZE + uriLength + bodyLength);
+			crc.reset();
+			crc.update(data);
+			int checksum = buf.getInt(pos + RECORD_HEADER_SIZE + uriLength + bodyLength);
+			if ((int) crc.getValue() != checksum)
+				break;
+
+			byte[] uriBytes = new byte[uriLength];
+			ByteBuffer uriBuf = buf.duplicate();
+			uriBuf.position(pos + RECORD_HEADER_SIZE);
+			uriBuf.get(uriBytes);
+			String uri = new String(uriBytes, StandardCharsets.UTF_8);
+			Location old = op == PUT ? index.put(uri,
+					new Location(recordLength, pos + RECORD_HEADER_SIZE + uriLength, bodyLength, checksum))
+					: index.remove(uri);
+			if (old != null)
+				garbage += old.recordLength;
+			if (op == DELETE)
+				garbage += recordLength;
+			pos += recordLength;
+		}
+		return pos;
+	}
+
+	/**
+	 * Check if the log holds a record for a URI
+	 *
+	 * @param uri
+	 * @return
+	 */
+	public synchronized boolean contains(String uri) {
+		return index.containsKey(uri);
+	}
+
+	/**
+	 * Get the URIs of all records, in no particular order
+	 *
+	 * @return
+	 */
+	public synchronized Set<String> uris() {
+		return Collections.unmodifiableSet(new LinkedHashSet<String>(index.keySet()));
+	}
+
+	/**
+	 * Get the CRC32 of the latest record of each URI, which changes whenever
+	 * the record is replaced by a different body.
+	 *
+	 * @return
+	 */
+	public synchronized Map<String, Integer> checksums() {
+		Map<String, Integer> checksums = new HashMap<String, Integer>();
+		index.forEach((uri, location) -> checksums.put(uri, location.checksum));
+		return checksums;
+	}
+
+	/**
+	 * Get the number of records
+	 *
+	 * @return
+	 */
+	public synchronized int size() {
+		return index.size();
+	}
+
+	/**
+	 * Get the body of the latest record of a URI, or null if there is none.
+	 *
+	 * @param uri
+	 * @return
+	 * @throws IOException
+	 */
+	public synchronized byte[] get(String uri) throws IOException {
+		Location location = index.get(uri);
+		if (location == null)
+			return null;
+		byte[] body = new byte[location.bodyLength];
+		if (location.bodyOffset + location.bodyLength <= mapped.limit()) {
+			ByteBuffer buf = mapped.duplicate();
+			buf.position((int) location.bodyOffset);
+			buf.get(body);
+		} else {
+			ByteBuffer buf = ByteBuffer.wrap(body);
+			long pos = location.bodyOffset;
+			while (buf.hasRemaining()) {
+				int n = channel.read(buf, pos + buf.position());
+				if (n < 0)
+					throw new IOException(String.format("Unexpected end of template log '%s'", path));
+			}
+		}
+		return body;
+	}
+
+	/**
+	 * Append a record
+	 *
+	 * @param uri
+	 * @param body
+	 * @throws IOException
+	 */
+	public synchronized void put(String uri, byte[] body) throws IOException {
+		putAll(Collections.singletonMap(uri, body));
+	}
+
+	/**
+	 * Append records with a single write.
+	 *
+	 * @param records
+	 * @throws IOException
+	 */
+	public synchronized void putAll(Map<String, byte[]> records) throws IOException {
+		Map<String, byte[]> uris = new LinkedHashMap<String, byte[]>();
+		int size = 0;
+		for (Map.Entry<String, byte[]> e : records.entrySet()) {
+			byte[] uriBytes = e.getKey().getBytes(StandardCharsets.UTF_8);
+			uris.put(e.getKey(), uriBytes);
+			size += RECORD_HEADER_SIZE + uriBytes.length + e.getValue().length + 4;
+		}
+		ByteBuffer buf = ByteBuffer.allocate(size);
+		long start = channel.size();
+		Map<String, Location> locations = new LinkedHashMap<String, Location>();
+		for (Map.Entry<String, byte[]> e : records.entrySet()) {
+			byte[] uriBytes = uris.get(e.getKey());
+			byte[] body = e.getValue();
+			long pos = start + buf.position();
+			int checksum = append(buf, PUT, uriBytes, body);
+			locations.put(e.getKey(), new Location(buf.position() + start - pos,
+					pos + RECORD_HEADER_SIZE + uriBytes.length, body.length, checksum));
+		}
+		buf.flip();
+		write(buf, start);
+		force();
+		for (Map.Entry<String, Location> e : locations.entrySet()) {
+			Location old = index.put(e.getKey(), e.getValue());
+			if (old != null)
+				garbage += old.recordLength;
+		}
+	}
+
+	/**
+	 * Append a delete record for a URI
+	 *
+	 * @param uri
+	 * @return false if there was no record for the URI
+	 * @throws IOException
+	 */
+	public synchronized boolean delete(String uri) throws IOException {
+		if (!index.containsKey(uri))
+			return false;
+		byte[] uriBytes = uri.getBytes(StandardCharsets.UTF_8);
+		ByteBuffer buf = ByteBuffer.allocate(RECORD_HEADER_SIZE + uriBytes.length + 4);
+		append(buf, DELETE, uriBytes, new byte[0]);
+		buf.flip();
+		write(buf, channel.size());
+		force();
+		garbage += index.remove(uri).recordLength + buf.limit();
+		return true;
+	}
+
+	/**
+	 * Remove all records
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void clear() throws IOException {
+		channel.truncate(HEADER_SIZE);
+		force();
+		mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+		index.clear();
+		garbage = 0;
+	}
+
+	/**
+	 * Get the number of bytes taken by replaced and deleted records
+	 *
+	 * @return
+	 */
+	public synchronized long getGarbageSize() {
+		return garbage;
+	}
+
+	/**
+	 * Rewrite the log with only the latest record of each URI. The new log
+	 * replaces the old one atomically.
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void compact() throws IOException {
+		Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+		Files.deleteIfExists(tmp);
+		try (TemplateLog compacted = new TemplateLog(tmp, false)) {
+			Map<String, byte[]> records = new LinkedHashMap<String, byte[]>();
+			for (String uri : index.keySet())
+				records.put(uri, get(uri));
+			if (!records.isEmpty())
+				compacted.putAll(records);
+			compacted.channel.force(true);
+		}
+		channel.close();
+		Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		open();
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		channel.close();
+	}
+
+	private static int append(ByteBuffer buf, byte op, byte[] uri, byte[] body) {
+		buf.put(op).putInt(uri.length).putInt(body.length).put(uri).put(body);
+		CRC32 crc = new CRC32();
+		crc.update(uri);
+		crc.update(body);
+		buf.putInt((int) crc.getValue());
+		return (int) crc.getValue();
+	}
+
+	private void write(ByteBuffer buf, long pos) throws IOException {
+		while (buf.hasRemaining())
+			pos += channel.write(buf, pos);
+	}
+
+	private void force() throws IOException {
+		if (sync)
+			channel.force(false);
+	}
+
+	/**
+	 * Position of a record in the file
+	 */
+	private static class Location {
+		private final long recordLength;
+		private final long bodyOffset;
+		private final int bodyLength;
+		private final int checksum;
+
+		public Location(long recordLength, long bodyOffset, int bodyLength, int checksum) {
+			this.recordLength = recordLength;
+			this.bodyOffset = bodyOffset;
+			this.bodyLength = bodyLength;
+			this.checksum = checksum;
+		}
+	}
+}
@@ -0,0 +1,303 @@
+package org.rspspin.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * A binary snapshot of a set of templates, used to restore the templates of a
+ * manager without loading them from the library. Each template is stored with
+ * its RDF (N-Triples), the text of its body and its argument declarations. The
+ * snapshot also records the versions of the templates in the library when it
+ * was taken, so that a stale snapshot can be detected.
+ *
+ * The file is written and read in a single pass and ends with a CRC32 of its
+ * content. Snapshots written in another format version are rejected.
+ */
+public class TemplateSnapshot {
+	private static final int MAGIC = 0x52535053; // RSPS
+	private static final int FORMAT_VERSION = 1;
+
+	private final long createdAt;
+	private final Map<String, String> libraryVersions;
+	private final List<Record> records;
+
+	/**
+	 * Create a snapshot
+	 *
+	 * @param libraryVersions
+	 *            versions of the library templates, or null if unknown
+	 * @param records
+	 */
+	public TemplateSnapshot(Map<String, String> libraryVersions, List<Record> records) {
+		this(System.currentTimeMillis(), libraryVersions, records);
+	}
+
+	private TemplateSnapshot(long createdAt, Map<String, String> libraryVersions, List<Record> records) {
+		this.createdAt = createdAt;
+		this.libraryVersions = libraryVersions == null ? null : Collections.unmodifiableMap(libraryVersions);
+		this.records = Collections.unmodifiableList(records);
+	}
+
+	/**
+	 * Get the time the snapshot was created, in milliseconds since the epoch
+	 *
+	 * @return
+	 */
+	public long getCreatedAt() {
+		return createdAt;
+	}
+
+	/**
+	 * Get the versions of the library templates when the snapshot was taken,
+	 * or null if unknown
+	 *
+	 * @return
+	 */
+	public Map<String, String> getLibraryVersions() {
+		return libraryVersions;
+	}
+
+	public List<Record> getRecords() {
+		return records;
+	}
+
+	/**
+	 * Write the snapshot to a file. The file is replaced atomically.
+	 *
+	 * @param path
+	 * @throws IOException
+	 */
+	public void write(Path path) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(MAGIC);
+		out.writeInt(FORMAT_VERSION);
+		out.writeLong(createdAt);
+		if (libraryVersions == null) {
+			out.writeInt(-1);
+		} else {
+			out.writeInt(libraryVersions.size());
+			for (Map.Entry<String, String> e : libraryVersions.entrySet()) {
+				writeString(out, e.getKey());
+				writeString(out, e.getValue());
+			}
+		}
+		out.writeInt(records.size());
+		for (Record record : records)
+			record.write(out);
+		out.flush();
+		CRC32 crc = new CRC32();
+		crc.update(bytes.toByteArray());
+		out.writeInt((int) crc.getValue());
+		out.flush();
+
+		Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+		Files.write(tmp, bytes.toByteArray());
+		Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Read a snapshot from a file
+	 *
+	 * @param path
+	 * @return
+	 * @throws IOException
+	 *             if the file can not be read, is corrupt or has another
+	 *             format version
+	 */
+	public static TemplateSnapshot read(Path path) throws IOException {
+		byte[] bytes = Files.readAllBytes(path);
+		if (bytes.length < 12)
+			throw new IOException(String.format("'%s' is not a template snapshot", path));
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+		if (in.readInt() != MAGIC)
+			throw new IOException(String.format("'%s' is not a template snapshot", path));
+		int version = in.readInt();
+		if (version != FORMAT_VERSION)
+			throw new IOException(String.format("Unsupported template snapshot version %d in '%s'", version, path));
+		CRC32 crc = new CRC32();
+		crc.update(bytes, 0, bytes.length - 4);
+		int expected = ((bytes[bytes.length - 4] & 0xff) << 24) | ((bytes[bytes.length - 3] & 0xff) << 16)
+				| ((bytes[bytes.length - 2] & 0xff) << 8) | (bytes[bytes.length - 1] & 0xff);
+		if ((int) crc.getValue() != expected)
+			throw new IOException(String.format("Template snapshot '%s' is corrupt", path));
+
+		long createdAt = in.readLong();
+		Map<String, String> libraryVersions = null;
+		int versionCount = in.readInt();
+		if (versionCount >= 0) {
+			libraryVersions = new HashMap<String, String>();
+			for (int i = 0; i < versionCount; i++)
+				libraryVersions.put(readString(in), readString(in));
+		}
+		int recordCount = in.readInt();
+		List<Record> records = new ArrayList<Record>(recordCount);
+		for (int i = 0; i < recordCount; i++)
+			records.add(Record.read(in));
+		return new TemplateSnapshot(createdAt, libraryVersions, records);
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		if (s == null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] b = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(b.length);
+		out.write(b);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0)
+			return null;
+		byte[] b = new byte[length];
+		in.readFully(b);
+		return new String(b, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * A template in a snapshot
+	 */
+	public static class Record {
+		private final String uri;
+		private final String rdf;
+		private final String commandText;
+		private final List<ArgumentRecord> arguments;
+
+		/**
+		 * Create a record
+		 *
+		 * @param uri
+		 * @param rdf
+		 *            the template graph as N-Triples
+		 * @param commandText
+		 *            the text of the template body, or null
+		 * @param arguments
+		 */
+		public Record(String uri, String rdf, String commandText, List<ArgumentRecord> arguments) {
+			this.uri = uri;
+			this.rdf = rdf;
+			this.commandText = commandText;
+			this.arguments = Collections.unmodifiableList(arguments);
+		}
+
+		public String getURI() {
+			return uri;
+		}
+
+		public String getRDF() {
+			return rdf;
+		}
+
+		public String getCommandText() {
+			return commandText;
+		}
+
+		public List<ArgumentRecord> getArguments() {
+			return arguments;
+		}
+
+		private void write(DataOutputStream out) throws IOException {
+			writeString(out, uri);
+			writeString(out, rdf);
+			writeString(out, commandText);
+			out.writeInt(arguments.size());
+			for (ArgumentRecord arg : arguments) {
+				writeString(out, arg.varName);
+				writeString(out, arg.valueType);
+				out.writeBoolean(arg.optional);
+				writeString(out, arg.defaultValue);
+				writeString(out, arg.label);
+				writeString(out, arg.comment);
+			}
+		}
+
+		private static Record read(DataInputStream in) throws IOException {
+			String uri = readString(in);
+			String rdf = readString(in);
+			String commandText = readString(in);
+			int argumentCount = in.readInt();
+			List<ArgumentRecord> arguments = new ArrayList<ArgumentRecord>(argumentCount);
+			for (int i = 0; i < argumentCount; i++) {
+				String varName = readString(in);
+				String valueType = readString(in);
+				boolean optional = in.readBoolean();
+				arguments.add(new ArgumentRecord(varName, valueType, optional, readString(in), readString(in),
+						readString(in)));
+			}
+			return new Record(uri, rdf, commandText, arguments);
+		}
+	}
+
+	/**
+	 * An argument declaration of a template in a snapshot
+	 */
+	public static class ArgumentRecord {
+		private final String varName;
+		private final String valueType;
+		private final boolean optional;
+		private final String defaultValue;
+		private final String label;
+		private final String comment;
+
+		/**
+		 * Create an argument record
+		 *
+		 * @param varName
+		 * @param valueType
+		 *            value type URI, or null
+		 * @param optional
+		 * @param defaultValue
+		 *            default value in N-Triples syntax, or null
+		 * @param label
+		 * @param comment
+		 */
+		public ArgumentRecord(String varName, String valueType, boolean optional, String defaultValue, String label,
+				String comment) {
+			this.varName = varName;
+			this.valueType = valueType;
+			this.optional = optional;
+			this.defaultValue = defaultValue;
+			this.label = label;
+			this.comment = comment;
+		}
+
+		public String getVarName() {
+			return varName;
+		}
+
+		public String getValueType() {
+			return valueType;
+		}
+
+		public boolean isOptional() {
+			return optional;
+		}
+
+		public String getDefaultValue() {
+			return defaultValue;
+		}
+
+		public String getLabel() {
+			return label;
+		}
+
+		public String getComment() {
+			return comment;
+		}
+	}
+}
@@ -0,0 +1,165 @@
+package org.rspspin.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.Property;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.rdf.model.Statement;
+import org.apache.jena.riot.out.NodeFmtLib;
+import org.apache.jena.sparql.util.NodeFactoryExtra;
+import org.apache.jena.vocabulary.RDFS;
+import org.topbraid.spin.model.Argument;
+import org.topbraid.spin.model.Module;
+
+/**
+ * The argument declarations of a template (or other SPIN module) read once
+ * from the RDF graph. Validating bindings against a plan, and creating bindings
+ * or JSON from it, requires no further access to the template graph.
+ */
+public class ValidationPlan {
+	private final Module module;
+	private final Set<String> parameterNames;
+	private final String[] varNames;
+	private final Resource[] valueTypes;
+	private final boolean[] optional;
+	private final RDFNode[] defaultValues;
+	private final String[] labels;
+	private final String[] comments;
+
+	/**
+	 * Compile the validation plan of a module.
+	 *
+	 * @param module
+	 */
+	public ValidationPlan(Module module) {
+		this.module = module;
+		this.parameterNames = Collections.unmodifiableSet(new HashSet<String>(module.getArgumentsMap().keySet()));
+		List<Argument> args = module.getArguments(false);
+		int size = args.size();
+		this.varNames = new String[size];
+		this.valueTypes = new Resource[size];
+		this.optional = new boolean[size];
+		this.defaultValues = new RDFNode[size];
+		this.labels = new String[size];
+		this.comments = new String[size];
+		for (int i = 0; i < size; i++) {
+			Argument arg = args.get(i);
+			varNames[i] = arg.getVarName();
+			valueTypes[i] = arg.getValueType();
+			optional[i] = arg.isOptional();
+			defaultValues[i] = arg.getDefaultValue();
+			labels[i] = getString(arg, RDFS.label);
+			comments[i] = getString(arg, RDFS.comment);
+		}
+	}
+
+	/**
+	 * Restore the validation plan of a module from the argument declarations
+	 * in a template snapshot, without reading the arguments from the graph.
+	 *
+	 * @param module
+	 * @param arguments
+	 */
+	public ValidationPlan(Module module, List<TemplateSnapshot.ArgumentRecord> arguments) {
+		this.module = module;
+		int size = arguments.size();
+		Set<String> names = new HashSet<String>();
+		this.varNames = new String[size];
+		this.valueTypes = new Resource[size];
+		this.optional = new boolean[size];
+		this.defaultValues = new RDFNode[size];
+		this.labels = new String[size];
+		this.comments = new String[size];
+		Model model = module.getModel();
+		for (int i = 0; i < size; i++) {
+			TemplateSnapshot.ArgumentRecord arg = arguments.get(i);
+			names.add(arg.getVarName());
+			varNames[i] = arg.getVarName();
+			valueTypes[i] = arg.getValueType() == null ? null : model.createResource(arg.getValueType());
+			optional[i] = arg.isOptional();
+			defaultValues[i] = arg.getDefaultValue() == null ? null
+					: model.asRDFNode(NodeFactoryExtra.parseNode(arg.getDefaultValue()));
+			labels[i] = arg.getLabel();
+			comments[i] = arg.getComment();
+		}
+		this.parameterNames = Collections.unmodifiableSet(names);
+	}
+
+	/**
+	 * Get the argument declarations of the plan for a template snapshot
+	 *
+	 * @return
+	 */
+	public List<TemplateSnapshot.ArgumentRecord> toArgumentRecords() {
+		List<TemplateSnapshot.ArgumentRecord> records = new ArrayList<TemplateSnapshot.ArgumentRecord>();
+		for (int i = 0; i < varNames.length; i++) {
+			records.add(new TemplateSnapshot.ArgumentRecord(varNames[i],
+					valueTypes[i] == null ? null : valueTypes[i].getURI(), optional[i],
+					defaultValues[i] == null ? null : NodeFmtLib.str(defaultValues[i].asNode()), labels[i],
+					comments[i]));
+		}
+		return records;
+	}
+
+	private static String getString(Argument arg, Property property) {
+		Statement s = arg.getProperty(property);
+		return s == null ? null : s.getObject().toString();
+	}
+
+	/**
+	 * Get the module the plan was compiled from
+	 *
+	 * @return
+	 */
+	public Module getModule() {
+		return module;
+	}
+
+	/**
+	 * Get the names of all parameters of the module
+	 *
+	 * @return
+	 */
+	public Set<String> getParameterNames() {
+		return parameterNames;
+	}
+
+	/**
+	 * Get the number of arguments
+	 *
+	 * @return
+	 */
+	public int size() {
+		return varNames.length;
+	}
+
+	public String getVarName(int i) {
+		return varNames[i];
+	}
+
+	public Resource getValueType(int i) {
+		return valueTypes[i];
+	}
+
+	public boolean isOptional(int i) {
+		return optional[i];
+	}
+
+	public RDFNode getDefaultValue(int i) {
+		return defaultValues[i];
+	}
+
+	public String getLabel(int i) {
+		return labels[i];
+	}
+
+	public String getComment(int i) {
+		return comments[i];
+	}
+}
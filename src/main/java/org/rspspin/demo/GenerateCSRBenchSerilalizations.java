@@ -5,9 +5,13 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Map;
 
-import org.apache.jena.query.Query;
-import org.apache.jena.query.QueryFactory;
+import org.apache.jena.query.Syntax;
+import org.apache.own.query.RSPQLQuery;
+import org.apache.own.query.RSPQLQueryFactory;
+import org.rspspin.lang.MultiSyntaxSerializer;
 import org.rspspin.lang.cqels.ParserCQELS;
 import org.rspspin.lang.csparql.ParserCSPARQL;
 import org.rspspin.lang.rspql.ParserRSPQL;
@@ -37,27 +41,26 @@ public class GenerateCSRBenchSerilalizations {
 			String path = String.format("./queries/csrbench/rspql/query%d.rspql", i);
 			String queryString = new String(Files.readAllBytes(Paths.get(path)));
 
-			Query query = QueryFactory.create(queryString, ParserRSPQL.syntax);
+			RSPQLQuery query = RSPQLQueryFactory.create(queryString, ParserRSPQL.syntax);
+			Map<Syntax, String> serializations = MultiSyntaxSerializer.serialize(query,
+					Arrays.asList(ParserCQELS.syntax, ParserCSPARQL.syntax, ParserSPARQLStream.syntax));
 
 			// CQELS-QL
-			query.setSyntax(ParserCQELS.syntax);
 			path = String.format("./queries/csrbench/cqelsql/query%d.cqels", i);
 			fw = new FileWriter(new File(path));
-			fw.write(query.toString());
+			fw.write(serializations.get(ParserCQELS.syntax));
 			fw.close();
 
 			// CSPARQL
-			query.setSyntax(ParserCSPARQL.syntax);
 			path = String.format("./queries/csrbench/csparql/query%d.csparql", i);
 			fw = new FileWriter(new File(path));
-			fw.write(query.toString());
+			fw.write(serializations.get(ParserCSPARQL.syntax));
 			fw.close();
 
 			// SPARQLStream
-			query.setSyntax(ParserSPARQLStream.syntax);
 			path = String.format("./queries/csrbench/sparqlstream/query%d.sparqlstream", i);
 			fw = new FileWriter(new File(path));
-			fw.write(query.toString());
+			fw.write(serializations.get(ParserSPARQLStream.syntax));
 			fw.close();
 		}
 	}
@@ -0,0 +1,64 @@
+package org.rspspin.lang;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.apache.jena.atlas.io.IndentedLineBuffer;
+import org.apache.jena.query.QueryVisitor;
+import org.apache.jena.query.Syntax;
+import org.apache.jena.sparql.serializer.QuerySerializerFactory;
+import org.apache.jena.sparql.serializer.SerializerRegistry;
+import org.apache.own.query.RSPQLQuery;
+import org.apache.own.sparql.serializer.RSPQLQuerySerializer;
+
+/**
+ * Serializes one query in several syntaxes, e.g. RSP-QL, CQELS-QL, C-SPARQL
+ * and SPARQLStream. The syntax of the query is not changed, so the
+ * serializations run in parallel. The prologue is serialized once and shared
+ * by all syntaxes, the rest of the query is serialized by the serializer of
+ * each syntax.
+ */
+public class MultiSyntaxSerializer {
+
+	/**
+	 * Serialize a query in each of the given syntaxes. The serializer of each
+	 * syntax must be registered.
+	 * 
+	 * @param query
+	 * @param syntaxes
+	 * @return the serializations, in the order of the syntaxes
+	 */
+	public static Map<Syntax, String> serialize(RSPQLQuery query, Collection<? extends Syntax> syntaxes) {
+		List<Syntax> targets = new ArrayList<Syntax>(new LinkedHashSet<Syntax>(syntaxes));
+		for (Syntax syntax : targets) {
+			if (SerializerRegistry.get().getQuerySerializerFactory(syntax) == null)
+				throw new IllegalArgumentException(String.format("No serializer registered for syntax %s", syntax));
+		}
+
+		// Compute the lazily computed state of the query before it is shared
+		query.setResultVars();
+		String prologue = RSPQLQuerySerializer.serializePrologue(query);
+
+		List<String> serializations = targets.parallelStream().map((syntax) -> serialize(query, syntax, prologue))
+				.collect(Collectors.toList());
+		Map<Syntax, String> result = new LinkedHashMap<Syntax, String>();
+		for (int i = 0; i < targets.size(); i++)
+			result.put(targets.get(i), serializations.get(i));
+		return result;
+	}
+
+	private static String serialize(RSPQLQuery query, Syntax syntax, String prologue) {
+		QuerySerializerFactory factory = SerializerRegistry.get().getQuerySerializerFactory(syntax);
+		IndentedLineBuffer buffer = new IndentedLineBuffer();
+		QueryVisitor serializer = factory.create(syntax, query, buffer);
+		if (serializer instanceof RSPQLQuerySerializer)
+			((RSPQLQuerySerializer) serializer).setPrologueText(prologue);
+		query.visit(serializer);
+		return buffer.asString();
+	}
+}
@@ -0,0 +1,255 @@
+package org.rspspin.lang;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.jena.atlas.RuntimeIOException;
+import org.apache.jena.atlas.io.IndentedWriter;
+import org.apache.jena.query.Query;
+import org.apache.jena.query.Syntax;
+import org.apache.jena.sparql.serializer.QuerySerializerFactory;
+import org.apache.jena.sparql.serializer.SerializerRegistry;
+
+/**
+ * Writes queries directly to an Appendable or an OutputStream, instead of
+ * building a String with Query.toString(). Output to a stream is encoded as
+ * UTF-8 through buffers kept by each thread, so writing many queries to the
+ * same stream allocates no buffers per query. The stream is flushed but not
+ * closed.
+ */
+public class QueryWriter {
+
+	/**
+	 * Write a query in its own syntax
+	 * 
+	 * @param query
+	 * @param out
+	 * @throws IOException
+	 */
+	public static void write(Query query, Appendable out) throws IOException {
+		write(query, query.getSyntax(), out);
+	}
+
+	/**
+	 * Write a query in a syntax. The syntax of the query is not changed.
+	 * 
+	 * @param query
+	 * @param syntax
+	 * @param out
+	 * @throws IOException
+	 */
+	public static void write(Query query, Syntax syntax, Appendable out) throws IOException {
+		write(query, syntax, out instanceof Writer ? (Writer) out : new AppendableWriter(out));
+	}
+
+	/**
+	 * Write a query in its own syntax as UTF-8
+	 * 
+	 * @param query
+	 * @param out
+	 * @throws IOException
+	 */
+	public static void write(Query query, OutputStream out) throws IOException {
+		write(query, query.getSyntax(), out);
+	}
+
+	/**
+	 * Write a query in a syntax as UTF-8. The syntax of the query is not
+	 * changed.
+	 * 
+	 * @param query
+	 * @param syntax
+	 * @param out
+	 * @throws IOException
+	 */
+	public static void write(Query query, Syntax syntax, OutputStream out) throws IOException {
+		StreamWriter writer = StreamWriter.acquire(out);
+		try {
+			write(query, syntax, writer);
+			writer.finish();
+		} finally {
+			writer.release();
+		}
+	}
+
+	private static void write(Query query, Syntax syntax, Writer writer) throws IOException {
+		QuerySerializerFactory factory = SerializerRegistry.get().getQuerySerializerFactory(syntax);
+		if (factory == null)
+			throw new IllegalArgumentException(String.format("No serializer registered for syntax %s", syntax));
+		try {
+			Output out = new Output(writer);
+			query.visit(factory.create(syntax, query, out));
+			out.flush();
+		} catch (RuntimeIOException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw e;
+		}
+	}
+
+	/**
+	 * An indented writer on a Writer, without a buffer of its own
+	 */
+	private static class Output extends IndentedWriter {
+		public Output(Writer writer) {
+			super(writer);
+		}
+	}
+
+	/**
+	 * A Writer appending to an Appendable
+	 */
+	private static class AppendableWriter extends Writer {
+		private final Appendable out;
+
+		public AppendableWriter(Appendable out) {
+			this.out = out;
+		}
+
+		@Override
+		public void write(int c) throws IOException {
+			out.append((char) c);
+		}
+
+		@Override
+		public void write(char[] cbuf, int off, int len) throws IOException {
+			if (out instanceof StringBuilder)
+				((StringBuilder) out).append(cbuf, off, len);
+			else
+				out.append(CharBuffer.wrap(cbuf, off, len));
+		}
+
+		@Override
+		public void write(String str, int off, int len) throws IOException {
+			out.append(str, off, off + len);
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	/**
+	 * A Writer encoding UTF-8 to an output stream. Each thread keeps one,
+	 * which is attached to a stream for the duration of a write.
+	 */
+	private static class StreamWriter extends Writer {
+		private static final int BUFFER_SIZE = 4096;
+		private static final ThreadLocal<StreamWriter> pool = ThreadLocal.withInitial(StreamWriter::new);
+
+		private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+				.onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+		private final CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+		private final ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE * 3);
+		private OutputStream out = null;
+
+		/**
+		 * Get the writer of the current thread attached to a stream, or a new
+		 * writer if the writer of the thread is in use
+		 * 
+		 * @param out
+		 * @return
+		 */
+		static StreamWriter acquire(OutputStream out) {
+			StreamWriter writer = pool.get();
+			if (writer.out != null)
+				writer = new StreamWriter();
+			writer.out = out;
+			return writer;
+		}
+
+		void release() {
+			out = null;
+			chars.clear();
+			bytes.clear();
+			encoder.reset();
+		}
+
+		@Override
+		public void write(int c) throws IOException {
+			if (!chars.hasRemaining())
+				encode(false);
+			chars.put((char) c);
+		}
+
+		@Override
+		public void write(char[] cbuf, int off, int len) throws IOException {
+			while (len > 0) {
+				if (!chars.hasRemaining())
+					encode(false);
+				int n = Math.min(len, chars.remaining());
+				chars.put(cbuf, off, n);
+				off += n;
+				len -= n;
+			}
+		}
+
+		@Override
+		public void write(String str, int off, int len) throws IOException {
+			while (len > 0) {
+				if (!chars.hasRemaining())
+					encode(false);
+				int n = Math.min(len, chars.remaining());
+				chars.put(str, off, off + n);
+				off += n;
+				len -= n;
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			encode(false);
+			out.flush();
+		}
+
+		/**
+		 * Encode the remaining characters and flush the stream
+		 * 
+		 * @throws IOException
+		 */
+		void finish() throws IOException {
+			encode(true);
+			encoder.flush(bytes);
+			drain();
+			out.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			finish();
+		}
+
+		/**
+		 * Encode the buffered characters. A high surrogate at the end of the
+		 * buffer is kept until the rest of the pair is written.
+		 */
+		private void encode(boolean endOfInput) throws IOException {
+			chars.flip();
+			while (true) {
+				CoderResult result = encoder.encode(chars, bytes, endOfInput);
+				drain();
+				if (result.isUnderflow())
+					break;
+			}
+			chars.compact();
+		}
+
+		private void drain() throws IOException {
+			if (bytes.position() > 0) {
+				out.write(bytes.array(), 0, bytes.position());
+				bytes.clear();
+			}
+		}
+	}
+}
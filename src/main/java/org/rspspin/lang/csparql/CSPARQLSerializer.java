@@ -1,7 +1,9 @@
 package org.rspspin.lang.csparql;
 
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 
 import org.apache.jena.atlas.io.IndentedWriter;
 import org.apache.jena.graph.Node;
@@ -65,6 +67,18 @@ public class CSPARQLSerializer extends RSPQLQuerySerializer implements RSPQLQuer
 	@Override
 	public void visitWindowDecl(Query inputQuery) {
 		RSPQLQuery query = (RSPQLQuery)inputQuery;
+		for (String line : query.getWindowDeclarations(strict ? "csparql-strict" : "csparql", this::renderWindowDecl))
+			out.println(line);
+	}
+
+	/**
+	 * Render the window declarations of a query, one line per stream. Windows
+	 * over the same stream are combined.
+	 * 
+	 * @param query
+	 * @return
+	 */
+	private List<String> renderWindowDecl(RSPQLQuery query) {
 		if (!query.getLogicalPastWindows().isEmpty()) {
 			throw new QueryException("ERROR: CSPARQL does not support windows in the past.");
 		}
@@ -92,24 +106,27 @@ public class CSPARQLSerializer extends RSPQLQuerySerializer implements RSPQLQuer
 			}
 		}
 
-		// Print windows
+		// Render windows
+		List<String> lines = new ArrayList<>();
 		for (ElementWindow window : windowsMap.values()) {
-			out.print(String.format("FROM STREAM <%s> ", window.getStreamNameNode().toString()));
+			StringBuilder line = new StringBuilder();
+			line.append("FROM STREAM <").append(window.getStreamNameNode().toString()).append("> ");
 			if (window.getClass().equals(ElementLogicalWindow.class)) {
 				ElementLogicalWindow w = (ElementLogicalWindow) window;
 				String range = csparqlTime(w.getRangeNode());
 				String step = w.getStepNode() == null ? "1ms" : csparqlTime(w.getStepNode());
-
-				out.println(String.format("[RANGE %s STEP %s]", range, step));
+				line.append("[RANGE ").append(range).append(" STEP ").append(step).append("]");
 			} else if (window.getClass().equals(ElementPhysicalWindow.class)) {
 				ElementPhysicalWindow w = (ElementPhysicalWindow) window;
 				String range = intOrVar(w.getRangeNode());
 				if (w.getStepNode() != null) {
 					System.err.println("WARNING: CSPARQL does not support STEP for physical windows.");
 				}
-				out.println(String.format("[TRIPLES %s]", range));
+				line.append("[TRIPLES ").append(range).append("]");
 			}
+			lines.add(line.toString());
 		}
+		return lines;
 	}
 
 	/**
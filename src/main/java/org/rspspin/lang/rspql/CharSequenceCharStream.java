@@ -0,0 +1,57 @@
+package org.rspspin.lang.rspql;
+
+/**
+ * A char stream reading directly from a CharSequence, e.g. a String, a
+ * StringBuilder or a CharBuffer decoded from a file. The input is not copied
+ * through a Reader into a read-ahead buffer as with JavaCharStream, only the
+ * characters of the current token are buffered.
+ */
+public class CharSequenceCharStream extends JavaCharStream {
+	// A token buffer grown beyond this size is not kept by ReInit
+	private static final int MAX_KEPT_BUFFER_SIZE = 16384;
+
+	private CharSequence input;
+	private int length;
+	private int position = 0;
+
+	public CharSequenceCharStream(CharSequence input) {
+		super((java.io.Reader) null, 1, 1, 4096);
+		this.input = input;
+		this.length = input.length();
+		// The read-ahead buffer is not used
+		nextCharBuf = null;
+	}
+
+	/**
+	 * Reinitialise the stream to read from another input. The token buffer is
+	 * reused unless it has grown beyond 16384 characters.
+	 * 
+	 * @param input
+	 */
+	public void ReInit(CharSequence input) {
+		int size = buffer != null && buffer.length <= MAX_KEPT_BUFFER_SIZE ? buffer.length : 4096;
+		ReInit((java.io.Reader) null, 1, 1, size);
+		nextCharBuf = null;
+		this.input = input;
+		this.length = input.length();
+		this.position = 0;
+	}
+
+	/**
+	 * Read the next character from the input. The end of the input is
+	 * signalled the same way as by JavaCharStream.
+	 */
+	@Override
+	protected char ReadByte() throws java.io.IOException {
+		if (position < length)
+			return input.charAt(position++);
+		if (bufpos != 0) {
+			--bufpos;
+			backup(0);
+		} else {
+			bufline[bufpos] = line;
+			bufcolumn[bufpos] = column;
+		}
+		throw new java.io.IOException();
+	}
+}
@@ -1,7 +1,14 @@
 package org.rspspin.lang.rspql;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.Reader;
-import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 
 import org.apache.jena.atlas.io.IndentedWriter;
 import org.apache.jena.atlas.logging.Log;
@@ -20,13 +27,31 @@ import org.apache.jena.sparql.serializer.SerializerRegistry;
 import org.apache.jena.sparql.syntax.Element;
 import org.apache.jena.sparql.syntax.Template;
 import org.apache.jena.sparql.util.NodeToLabelMapBNode;
+import org.apache.own.query.RSPQLQuery;
 import org.apache.own.query.RSPQLQueryVisitor;
 import org.rspspin.lang.RSPQLSyntax;
+import org.topbraid.spin.arq.Instrumentation;
+import org.topbraid.spin.arq.Metrics;
 
 public class ParserRSPQL extends SPARQLParser {
 
 	final static public RSPQLSyntax syntax = new RSPQLSyntax("rspql", "https://w3id.org/rsp/rspql");
 
+	private static volatile boolean pooling = true;
+
+	/**
+	 * Enable or disable reuse of the char stream and token manager of each
+	 * thread between parses. Enabled by default.
+	 * 
+	 * @param pooling
+	 */
+	public static void setPooling(boolean pooling) {
+		ParserRSPQL.pooling = pooling;
+	}
+
+	public static boolean isPooling() {
+		return pooling;
+	}
 
 	/** Registers parser factory and serializer */
 	static public void register() {
@@ -74,8 +99,88 @@ public class ParserRSPQL extends SPARQLParser {
 		void exec(RSPQLParser parser) throws Exception;
 	}
 
+	/**
+	 * Parse a query. Only an {@link RSPQLQuery} can hold the RSP-QL clauses, a
+	 * plain query, e.g. from QueryFactory.create(String) while RSP-QL is the
+	 * default syntax, is parsed as ARQ.
+	 */
 	@Override
 	protected Query parse$(final Query query, String queryString) {
+		if (!(query instanceof RSPQLQuery))
+			return SPARQLParser.createParser(Syntax.syntaxARQ).parse(query, queryString);
+		return parse(query, (CharSequence) queryString);
+	}
+
+	/**
+	 * Parse a query from a character sequence, e.g. a StringBuilder or a
+	 * CharBuffer. The characters are read in place, without copying the input
+	 * to a String.
+	 * 
+	 * @param query
+	 * @param queryString
+	 * @return
+	 */
+	public Query parse(Query query, CharSequence queryString) {
+		TokenSource source = TokenSource.acquire();
+		try {
+			return parse(query, source.createParser(queryString), queryString.length());
+		} finally {
+			source.release();
+		}
+	}
+
+	/**
+	 * Parse a query from a reader. The reader is closed when its end is
+	 * reached.
+	 * 
+	 * @param query
+	 * @param reader
+	 * @return
+	 */
+	public Query parse(Query query, Reader reader) {
+		return parse(query, new RSPQLParser(reader), -1);
+	}
+
+	/**
+	 * Parse a query from a UTF-8 encoded input stream. The stream is closed
+	 * when its end is reached.
+	 * 
+	 * @param query
+	 * @param in
+	 * @return
+	 */
+	public Query parse(Query query, InputStream in) {
+		return parse(query, new RSPQLParser(new InputStreamReader(in, StandardCharsets.UTF_8)), -1);
+	}
+
+	/**
+	 * Parse a query from the remaining UTF-8 encoded bytes of a buffer. The
+	 * position of the buffer is not changed.
+	 * 
+	 * @param query
+	 * @param bytes
+	 * @return
+	 */
+	public Query parse(Query query, ByteBuffer bytes) {
+		return parse(query, StandardCharsets.UTF_8.decode(bytes.duplicate()));
+	}
+
+	/**
+	 * Parse a query from a UTF-8 encoded file. The file is memory mapped and
+	 * decoded in one pass.
+	 * 
+	 * @param query
+	 * @param path
+	 * @return
+	 * @throws IOException
+	 */
+	public Query parse(Query query, Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			return parse(query, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+
+	private Query parse(Query query, RSPQLParser parser, long size) {
 		query.setSyntax(syntax);
 
 		Action action = new Action() {
@@ -85,11 +190,63 @@ public class ParserRSPQL extends SPARQLParser {
 			}
 		};
 
-		perform(query, queryString, action);
-		validateParsedQuery(query);
+		long start = Metrics.start();
+		try {
+			perform(query, parser, action);
+			validateParsedQuery(query);
+		} catch (RuntimeException e) {
+			Metrics.fail(Instrumentation.PARSE, start, e);
+			throw e;
+		}
+		Metrics.stop(Instrumentation.PARSE, start, size);
 		return query;
 	}
 
+	/**
+	 * The char stream and token manager of a parse. While pooling is enabled
+	 * each thread keeps one, which is reinitialised for each parse so that
+	 * their buffers and lexer state are allocated once per thread. The parser
+	 * itself is created for each parse, since the state of the Jena parser
+	 * base (e.g. the blank node labels in scope) can not be reset.
+	 */
+	private static class TokenSource {
+		private static final ThreadLocal<TokenSource> pool = ThreadLocal.withInitial(TokenSource::new);
+
+		private final CharSequenceCharStream stream = new CharSequenceCharStream("");
+		private final RSPQLParserTokenManager tokenManager = new RSPQLParserTokenManager(stream);
+		private boolean inUse = false;
+
+		/**
+		 * Get the token source of the current thread, or a new one if pooling
+		 * is disabled or the pooled one is in use by an enclosing parse.
+		 * 
+		 * @return
+		 */
+		static TokenSource acquire() {
+			if (!pooling)
+				return new TokenSource();
+			TokenSource source = pool.get();
+			if (source.inUse)
+				return new TokenSource();
+			source.inUse = true;
+			return source;
+		}
+
+		RSPQLParser createParser(CharSequence input) {
+			stream.ReInit(input);
+			tokenManager.ReInit(stream);
+			return new RSPQLParser(tokenManager);
+		}
+
+		/**
+		 * Return the token source to the pool, dropping the input
+		 */
+		void release() {
+			stream.ReInit("");
+			inUse = false;
+		}
+	}
+
 	public static Element parseElement(String string) {
 		final Query query = new Query();
 		Action action = new Action() {
@@ -116,11 +273,17 @@ public class ParserRSPQL extends SPARQLParser {
 		return query.getConstructTemplate();
 	}
 
-	// All throwable handling.
-	private static void perform(Query query, String string, Action action) {
-		Reader in = new StringReader(string);
-		RSPQLParser parser = new RSPQLParser(in);
+	private static void perform(Query query, CharSequence input, Action action) {
+		TokenSource source = TokenSource.acquire();
+		try {
+			perform(query, source.createParser(input), action);
+		} finally {
+			source.release();
+		}
+	}
 
+	// All throwable handling.
+	private static void perform(Query query, RSPQLParser parser, Action action) {
 		try {
 			query.setStrict(true);
 			parser.setQuery(query);
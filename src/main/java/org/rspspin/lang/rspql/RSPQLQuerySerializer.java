@@ -112,10 +112,10 @@ public class RSPQLQuerySerializer extends org.apache.own.sparql.serializer.RSPQL
 			out.print(" ON ");
 			out.print(FmtUtils.stringForNode(window.getStreamNameNode(), query.getPrefixMapping()));
 			out.print(" [");
-			out.print("FROM ");
-			out.print(stringForPastDuration(window.getFromNode()));
-			out.print(" TO ");
-			out.print(stringForPastDuration(window.getToNode()));
+			out.print("FROM NOW-");
+			out.print(stringForLiteral(window.getFromNode()));
+			out.print(" TO NOW-");
+			out.print(stringForLiteral(window.getToNode()));
 			if(window.getStepNode() != null){
 				out.print(" STEP ");
 				out.print(stringForLiteral(window.getStepNode()));
@@ -1,7 +1,9 @@
 package org.rspspin.lang.sparqlstream;
 
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 
 import org.apache.jena.atlas.io.IndentedWriter;
 import org.apache.jena.graph.Node;
@@ -28,7 +30,18 @@ public class SPARQLStreamSerializer extends RSPQLQuerySerializer implements RSPQ
 	@Override
 	public void visitWindowDecl(Query inputQuery) {
 		RSPQLQuery query = (RSPQLQuery)inputQuery;
+		for (String line : query.getWindowDeclarations("sparqlstream", this::renderWindowDecl))
+			out.println(line);
+	}
 
+	/**
+	 * Render the window declarations of a query, one line per stream. Windows
+	 * over the same stream are combined.
+	 * 
+	 * @param query
+	 * @return
+	 */
+	private List<String> renderWindowDecl(RSPQLQuery query) {
 		if (!query.getPhysicalWindows().isEmpty()) {
 			throw new QueryException("ERROR: SPARQLStream does not support physical windows.");
 		}
@@ -57,17 +70,19 @@ public class SPARQLStreamSerializer extends RSPQLQuerySerializer implements RSPQ
 			}
 		}
 
-		// Print windows
+		// Render windows
+		List<String> lines = new ArrayList<>();
 		for (ElementWindow window : windowsMap.values()) {
-			out.print(String.format("FROM STREAM <%s> ", window.getStreamNameNode().toString()));
+			StringBuilder line = new StringBuilder();
+			line.append("FROM STREAM <").append(window.getStreamNameNode().toString()).append("> ");
 			if (window.getClass().equals(ElementLogicalWindow.class)) {
 				ElementLogicalWindow w = (ElementLogicalWindow) window;
 				String range = sparqlstreamTime(w.getRangeNode());
 				if(w.getStepNode() != null){
 					String step = sparqlstreamTime(w.getStepNode());
-					out.println(String.format("[NOW-%s SLIDE %s]", range, step));
+					line.append("[NOW-").append(range).append(" SLIDE ").append(step).append("]");
 				} else {
-					out.println(String.format("[NOW-%s]", range));
+					line.append("[NOW-").append(range).append("]");
 				}
 			}
 			if (window.getClass().equals(ElementLogicalPastWindow.class)) {
@@ -76,12 +91,14 @@ public class SPARQLStreamSerializer extends RSPQLQuerySerializer implements RSPQ
 				String to = sparqlstreamTime(w.getToNode());
 				if(w.getStepNode() != null){
 					String step = sparqlstreamTime(w.getStepNode());
-					out.println(String.format("[NOW-%s TO NOW-%s SLIDE %s]", from, to, step));
+					line.append("[NOW-").append(from).append(" TO NOW-").append(to).append(" SLIDE ").append(step).append("]");
 				} else {
-					out.println(String.format("[NOW-%s TO %s]", from, to));
+					line.append("[NOW-").append(from).append(" TO ").append(to).append("]");
 				}
 			}
+			lines.add(line.toString());
 		}
+		return lines;
 	}
 
 	/**
@@ -119,7 +136,7 @@ public class SPARQLStreamSerializer extends RSPQLQuerySerializer implements RSPQ
 				time = time / 24;
 			}
 		}
-		return String.format("%d %s", (int) time, unit);
+		return Integer.toString((int) time) + " " + unit;
 	}
 
 	/**
@@ -3,6 +3,8 @@
  */
 package org.rspspin.syntax;
 
+import java.util.Objects;
+
 import org.apache.jena.graph.Node;
 import org.apache.jena.sparql.syntax.Element;
 import org.apache.jena.sparql.syntax.ElementVisitor;
@@ -26,7 +28,11 @@ public class ElementLogicalPastWindow extends ElementWindow {
 		if (!(el instanceof ElementLogicalPastWindow))
 			return false;
 		ElementLogicalPastWindow w = (ElementLogicalPastWindow) el;
-		return getWindowNameNode().equals(w.getWindowNameNode());
+		return getWindowNameNode().equals(w.getWindowNameNode())
+				&& getStreamNameNode().equals(w.getStreamNameNode())
+				&& Objects.equals(getFromNode(), w.getFromNode())
+				&& Objects.equals(getToNode(), w.getToNode())
+				&& Objects.equals(getStepNode(), w.getStepNode());
 	}
 
 	@Override
@@ -36,7 +42,7 @@ public class ElementLogicalPastWindow extends ElementWindow {
 
 	@Override
 	public int hashCode() {
-		return getWindowNameNode().hashCode() ^ getStreamNameNode().hashCode();
+		return Objects.hash(getWindowNameNode(), getStreamNameNode(), getFromNode(), getToNode(), getStepNode());
 	}
 
 
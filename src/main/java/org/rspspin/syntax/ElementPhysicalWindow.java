@@ -3,6 +3,8 @@
  */
 package org.rspspin.syntax;
 
+import java.util.Objects;
+
 import org.apache.jena.graph.Node;
 import org.apache.jena.sparql.syntax.Element;
 import org.apache.jena.sparql.syntax.ElementVisitor;
@@ -24,7 +26,10 @@ public class ElementPhysicalWindow extends ElementWindow {
 		if (!(el instanceof ElementPhysicalWindow))
 			return false;
 		ElementPhysicalWindow w = (ElementPhysicalWindow) el;
-		return getWindowNameNode().equals(w.getWindowNameNode());
+		return getWindowNameNode().equals(w.getWindowNameNode())
+				&& getStreamNameNode().equals(w.getStreamNameNode())
+				&& Objects.equals(getRangeNode(), w.getRangeNode())
+				&& Objects.equals(getStepNode(), w.getStepNode());
 	}
 
 	@Override
@@ -34,7 +39,7 @@ public class ElementPhysicalWindow extends ElementWindow {
 
 	@Override
 	public int hashCode() {
-		return getWindowNameNode().hashCode() ^ getStreamNameNode().hashCode();
+		return Objects.hash(getWindowNameNode(), getStreamNameNode(), getRangeNode(), getStepNode());
 	}
 
 	public void visit(WindowedElementVisitor v) {
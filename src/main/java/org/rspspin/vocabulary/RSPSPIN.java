@@ -39,6 +39,7 @@ public class RSPSPIN {
 	public final static Property to = ResourceFactory.createProperty(NS + "to");
 	public final static Property physicalRange = ResourceFactory.createProperty(NS + "physicalRange");
 	public final static Property physicalStep = ResourceFactory.createProperty(NS + "physicalStep");
+	public final static Property version = ResourceFactory.createProperty(NS + "version");
 	
     static {
 		RSPSPIN.init(BuiltinPersonalities.model);
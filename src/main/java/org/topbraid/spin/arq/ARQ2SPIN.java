@@ -707,7 +707,7 @@ public class ARQ2SPIN {
 
 				public void visit(ElementSubQuery subRSPQLQuery) {
 					RSPQLQuery arq = (RSPQLQuery) subRSPQLQuery.getQuery();
-					org.topbraid.spin.model.Query spinRSPQLQuery = createRSPQLQuery(arq, null);
+					org.topbraid.spin.model.Query spinRSPQLQuery = convertRSPQLQuery(arq, null);
 					members.add(SPINFactory.createSubQuery(model, spinRSPQLQuery));
 				}
 
@@ -1025,6 +1025,22 @@ public class ARQ2SPIN {
 	 * @return the RSPQLQuery
 	 */
 	public org.topbraid.spin.model.Query createRSPQLQuery(RSPQLQuery arq, String uri) {
+		long start = Metrics.start();
+		if (start == Metrics.DISABLED)
+			return convertRSPQLQuery(arq, uri);
+		long size = model.size();
+		try {
+			org.topbraid.spin.model.Query query = convertRSPQLQuery(arq, uri);
+			Metrics.stop(Instrumentation.ARQ2SPIN, start, model.size() - size);
+			return query;
+		} catch (RuntimeException e) {
+			Metrics.fail(Instrumentation.ARQ2SPIN, start, e);
+			throw e;
+		}
+	}
+
+	// Sub-queries are converted without being measured separately
+	private org.topbraid.spin.model.Query convertRSPQLQuery(RSPQLQuery arq, String uri) {
 
 		Resource spinRSPQLQuery = model.createResource(uri);
 		addOutputStream(arq, spinRSPQLQuery);
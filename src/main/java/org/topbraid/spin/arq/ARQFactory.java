@@ -5,7 +5,6 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.jena.query.*;
 import org.topbraid.spin.model.print.StringPrintContext;
@@ -22,6 +21,7 @@ import org.apache.jena.shared.impl.PrefixMappingImpl;
 import org.apache.jena.sparql.core.DatasetImpl;
 import org.apache.jena.sparql.engine.http.QueryEngineHTTP;
 import org.apache.jena.sparql.syntax.ElementNamedGraph;
+import org.apache.own.query.RSPQLQuery;
 import org.apache.own.sparql.syntax.ElementVisitorBase;
 import org.apache.own.sparql.syntax.ElementWalker;
 import org.apache.jena.update.UpdateFactory;
@@ -37,20 +37,30 @@ public class ARQFactory {
 
 	private static ARQFactory singleton = new ARQFactory();
 
+	static {
+		singleton.registerCaches();
+	}
+
+	/**
+	 * Default maximum number of entries of each cache.
+	 */
+	public static final long DEFAULT_CACHE_SIZE = 10000;
+
 	/**
 	 * Caches parsable query strings for each SPIN Command or expression Node.
 	 */
-	private Map<Node, String> node2String = new ConcurrentHashMap<Node, String>();
+	private BoundedCache<Node, String> node2String = new BoundedCache<Node, String>(DEFAULT_CACHE_SIZE);
 
 	/**
 	 * Caches Jena query objects for each SPIN Command or expression String.
 	 */
-	private Map<String, Query> string2Query = new ConcurrentHashMap<String, Query>();
+	private BoundedCache<String, Query> string2Query = new BoundedCache<String, Query>(DEFAULT_CACHE_SIZE);
 
 	/**
 	 * Caches Jena query objects for each SPIN Command or expression String.
 	 */
-	private Map<String, UpdateRequest> string2Update = new ConcurrentHashMap<String, UpdateRequest>();
+	private BoundedCache<String, UpdateRequest> string2Update = new BoundedCache<String, UpdateRequest>(
+			DEFAULT_CACHE_SIZE);
 
 	private boolean useCaches = true;
 
@@ -83,6 +93,16 @@ public class ARQFactory {
 	 */
 	public static void set(ARQFactory value) {
 		ARQFactory.singleton = value;
+		value.registerCaches();
+	}
+
+	/**
+	 * Publishes the statistics of the caches of this factory.
+	 */
+	private void registerCaches() {
+		Metrics.registerCache("arq.node2String", node2String);
+		Metrics.registerCache("arq.string2Query", string2Query);
+		Metrics.registerCache("arq.string2Update", string2Update);
 	}
 
 	/**
@@ -104,6 +124,61 @@ public class ARQFactory {
 		string2Update.clear();
 	}
 
+	/**
+	 * Bounds each cache to a maximum number of entries. Least recently used
+	 * entries are evicted first.
+	 * 
+	 * @param maximumSize
+	 *            the maximum number of entries per cache
+	 */
+	public void setCacheSize(long maximumSize) {
+		node2String.setMaximumWeight(maximumSize, null);
+		string2Query.setMaximumWeight(maximumSize, null);
+		string2Update.setMaximumWeight(maximumSize, null);
+	}
+
+	/**
+	 * Bounds each cache to a maximum total length of the cached command
+	 * strings, so that memory stays proportional to the bound regardless of
+	 * the size of individual queries. Least recently used entries are evicted
+	 * first.
+	 * 
+	 * @param maximumLength
+	 *            the maximum total string length per cache
+	 */
+	public void setCacheWeight(long maximumLength) {
+		node2String.setMaximumWeight(maximumLength, (node, string) -> string.length());
+		string2Query.setMaximumWeight(maximumLength, (string, query) -> string.length());
+		string2Update.setMaximumWeight(maximumLength, (string, update) -> string.length());
+	}
+
+	/**
+	 * Gets the statistics of the command string cache.
+	 * 
+	 * @return the cache statistics
+	 */
+	public BoundedCache.Stats getCommandStringCacheStats() {
+		return node2String.getStats();
+	}
+
+	/**
+	 * Gets the statistics of the query cache.
+	 * 
+	 * @return the cache statistics
+	 */
+	public BoundedCache.Stats getQueryCacheStats() {
+		return string2Query.getStats();
+	}
+
+	/**
+	 * Gets the statistics of the update cache.
+	 * 
+	 * @return the cache statistics
+	 */
+	public BoundedCache.Stats getUpdateCacheStats() {
+		return string2Update.getStats();
+	}
+
 	/**
 	 * Converts a given SPIN Command (Query or Update) into a parsable String.
 	 * This method is the recommended way of doing this task as it uses a cache
@@ -114,6 +189,7 @@ public class ARQFactory {
 	 * @return the String
 	 */
 	public String createCommandString(org.topbraid.spin.model.Command spinCommand) {
+		long start = Metrics.start();
 		String result = node2String.get(spinCommand.asNode());
 		if (result == null) {
 			String text = ARQ2SPIN.getTextOnly(spinCommand);
@@ -130,9 +206,27 @@ public class ARQFactory {
 				node2String.put(spinCommand.asNode(), result);
 			}
 		}
+		Metrics.stop(Instrumentation.COMMAND_STRING, start, result.length());
 		return result;
 	}
 
+	/**
+	 * Registers the String of a SPIN Command that has already been converted,
+	 * for example when restoring templates from a snapshot, so that later
+	 * calls to createCommandString do not convert it again. Does nothing if
+	 * caches are disabled.
+	 * 
+	 * @param spinCommand
+	 *            the SPIN Command
+	 * @param commandString
+	 *            the String created for the Command
+	 */
+	public void putCommandString(org.topbraid.spin.model.Command spinCommand, String commandString) {
+		if (useCaches) {
+			node2String.put(spinCommand.asNode(), commandString);
+		}
+	}
+
 	public String createExpressionString(RDFNode expression) {
 		String result = node2String.get(expression.asNode());
 		if (result == null) {
@@ -224,13 +318,20 @@ public class ARQFactory {
 	}
 
 	public Query createQuery(String queryString) {
+		long start = Metrics.start();
 		Query result = string2Query.get(queryString);
 		if (result == null) {
-			result = doCreateQuery(queryString);
+			try {
+				result = doCreateQuery(queryString);
+			} catch (RuntimeException e) {
+				Metrics.fail(Instrumentation.CREATE_QUERY, start, e);
+				throw e;
+			}
 			if (useCaches) {
 				string2Query.put(queryString, result);
 			}
 		}
+		Metrics.stop(Instrumentation.CREATE_QUERY, start, queryString.length());
 		return result;
 	}
 
@@ -250,7 +351,8 @@ public class ARQFactory {
 	 * @return the ARQ Query object
 	 */
 	protected Query doCreateQuery(String queryString, PrefixMapping prefixMapping) {
-		Query query = new Query();
+		// The RSP-QL parser needs an RSPQLQuery to hold the window clauses
+		Query query = new RSPQLQuery();
 		if (prefixMapping != null) {
 			query.setPrefixMapping(prefixMapping);
 		}
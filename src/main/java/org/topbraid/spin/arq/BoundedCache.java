@@ -0,0 +1,391 @@
+package org.topbraid.spin.arq;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.function.ToLongBiFunction;
+
+/**
+ * A thread-safe, size bounded cache with least recently used eviction. The
+ * bound is expressed as a maximum total weight, where each entry weighs 1 by
+ * default or the value of a weigher (e.g. the length of a query string). Hit,
+ * miss and eviction counts are recorded and exposed as {@link Stats}.
+ *
+ * Large caches are split into segments by key hash, each with its own lock
+ * and an equal share of the maximum weight, so that threads looking up
+ * different keys rarely wait for each other. Eviction is least recently used
+ * within a segment, and an entry heavier than the share of its segment is not
+ * kept. Caches with a maximum weight below {@value #MINIMUM_SEGMENT_WEIGHT}
+ * times two have a single segment. The segments are rebuilt when the maximum
+ * weight changes.
+ *
+ * @param <K>
+ *            key type
+ * @param <V>
+ *            value type
+ */
+public class BoundedCache<K, V> {
+	/**
+	 * The smallest share of the maximum weight a segment is given
+	 */
+	public static final int MINIMUM_SEGMENT_WEIGHT = 64;
+	private static final int MAXIMUM_SEGMENTS = 16;
+	private volatile Segment<K, V>[] segments;
+	private volatile ToLongBiFunction<? super K, ? super V> weigher;
+	private volatile long maximumWeight;
+
+	/**
+	 * Create a cache holding at most maximumSize entries.
+	 *
+	 * @param maximumSize
+	 */
+	public BoundedCache(long maximumSize) {
+		this(maximumSize, null);
+	}
+
+	/**
+	 * Create a cache with a maximum total weight.
+	 *
+	 * @param maximumWeight
+	 * @param weigher
+	 *            entry weigher, or null to count entries
+	 */
+	public BoundedCache(long maximumWeight, ToLongBiFunction<? super K, ? super V> weigher) {
+		this.maximumWeight = maximumWeight;
+		this.weigher = weigher;
+		segments = createSegments(maximumWeight);
+	}
+
+	/**
+	 * Get a cached value, or null if absent.
+	 *
+	 * @param key
+	 * @return
+	 */
+	public V get(K key) {
+		Segment<K, V> segment = segmentFor(segments, key);
+		synchronized (segment) {
+			if (!segment.retired)
+				return segment.get(key);
+		}
+		// The segments were replaced, which completes while holding the
+		// cache lock
+		synchronized (this) {
+			segment = segmentFor(segments, key);
+			synchronized (segment) {
+				return segment.get(key);
+			}
+		}
+	}
+
+	/**
+	 * Add a value to the cache, evicting the least recently used entries if
+	 * the cache exceeds its maximum weight.
+	 *
+	 * @param key
+	 * @param value
+	 */
+	public void put(K key, V value) {
+		Segment<K, V> segment = segmentFor(segments, key);
+		synchronized (segment) {
+			if (!segment.retired) {
+				segment.put(key, value);
+				return;
+			}
+		}
+		synchronized (this) {
+			segment = segmentFor(segments, key);
+			synchronized (segment) {
+				segment.put(key, value);
+			}
+		}
+	}
+
+	/**
+	 * Remove all entries with a key matching a predicate.
+	 *
+	 * @param predicate
+	 */
+	public synchronized void invalidateIf(Predicate<? super K> predicate) {
+		for (Segment<K, V> segment : segments) {
+			synchronized (segment) {
+				segment.invalidateIf(predicate);
+			}
+		}
+	}
+
+	/**
+	 * Remove all entries. Statistics are kept.
+	 */
+	public synchronized void clear() {
+		for (Segment<K, V> segment : segments) {
+			synchronized (segment) {
+				segment.clear();
+			}
+		}
+	}
+
+	/**
+	 * Change the bound of the cache, evicting entries if required. If the
+	 * number of segments changes the entries are moved to new segments, in
+	 * the order they were used within each old segment.
+	 *
+	 * @param maximumWeight
+	 * @param weigher
+	 *            entry weigher, or null to count entries
+	 */
+	public synchronized void setMaximumWeight(long maximumWeight, ToLongBiFunction<? super K, ? super V> weigher) {
+		this.maximumWeight = maximumWeight;
+		this.weigher = weigher;
+		Segment<K, V>[] old = segments;
+		Segment<K, V>[] resized = createSegments(maximumWeight);
+		if (resized.length == old.length) {
+			bound(old);
+			return;
+		}
+		for (Segment<K, V> segment : old) {
+			synchronized (segment) {
+				// Lookups of a retired segment wait for the cache lock and
+				// retry on the new segments
+				segment.retired = true;
+				resized[0].hitCount += segment.hitCount;
+				resized[0].missCount += segment.missCount;
+				resized[0].evictionCount += segment.evictionCount;
+				for (Map.Entry<K, V> entry : segment.map.entrySet())
+					segmentFor(resized, entry.getKey()).put(entry.getKey(), entry.getValue());
+			}
+		}
+		segments = resized;
+	}
+
+	/**
+	 * Get the number of cached entries.
+	 *
+	 * @return
+	 */
+	public synchronized int size() {
+		int size = 0;
+		for (Segment<K, V> segment : segments) {
+			synchronized (segment) {
+				size += segment.map.size();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Get a snapshot of the cache statistics. The segments are read one at a
+	 * time, so the snapshot may include lookups made while it is taken.
+	 *
+	 * @return
+	 */
+	public synchronized Stats getStats() {
+		long hitCount = 0;
+		long missCount = 0;
+		long evictionCount = 0;
+		long size = 0;
+		long weight = 0;
+		for (Segment<K, V> segment : segments) {
+			synchronized (segment) {
+				hitCount += segment.hitCount;
+				missCount += segment.missCount;
+				evictionCount += segment.evictionCount;
+				size += segment.map.size();
+				weight += segment.weight;
+			}
+		}
+		return new Stats(hitCount, missCount, evictionCount, size, weight, maximumWeight);
+	}
+
+	/**
+	 * Reset the hit, miss and eviction counts.
+	 */
+	public synchronized void resetStats() {
+		for (Segment<K, V> segment : segments) {
+			synchronized (segment) {
+				segment.resetStats();
+			}
+		}
+	}
+
+	/**
+	 * Create the segments for a maximum weight, each segment gets at least
+	 * {@value #MINIMUM_SEGMENT_WEIGHT}
+	 */
+	@SuppressWarnings("unchecked")
+	private Segment<K, V>[] createSegments(long maximumWeight) {
+		int count = 1;
+		while (count < MAXIMUM_SEGMENTS && maximumWeight / (count * 2) >= MINIMUM_SEGMENT_WEIGHT)
+			count *= 2;
+		Segment<K, V>[] created = new Segment[count];
+		for (int i = 0; i < count; i++)
+			created[i] = new Segment<K, V>(this);
+		bound(created);
+		return created;
+	}
+
+	/**
+	 * Share the maximum weight between segments and reweigh their entries
+	 */
+	private void bound(Segment<K, V>[] segments) {
+		long share = maximumWeight / segments.length;
+		long rest = maximumWeight % segments.length;
+		for (int i = 0; i < segments.length; i++) {
+			synchronized (segments[i]) {
+				segments[i].bound(i < rest ? share + 1 : share);
+			}
+		}
+	}
+
+	private static <K, V> Segment<K, V> segmentFor(Segment<K, V>[] segments, K key) {
+		// Pick the segment by the high bits of a mixed hash, the low bits
+		// select the bucket within the segment map
+		int h = key.hashCode() * 0x9E3779B9;
+		return segments[(h >>> 28) & (segments.length - 1)];
+	}
+
+	private long weigh(K key, V value) {
+		ToLongBiFunction<? super K, ? super V> w = weigher;
+		return w == null ? 1 : w.applyAsLong(key, value);
+	}
+
+	/**
+	 * A part of the cache with its own bound. The segment is the lock of its
+	 * state, which the cache holds while calling it.
+	 */
+	private static class Segment<K, V> {
+		private final BoundedCache<K, V> cache;
+		private final LinkedHashMap<K, V> map = new LinkedHashMap<K, V>(16, 0.75f, true);
+		private long maximumWeight;
+		private long weight = 0;
+		private long hitCount = 0;
+		private long missCount = 0;
+		private long evictionCount = 0;
+		// Set once the entries are moved to new segments
+		private boolean retired = false;
+
+		private Segment(BoundedCache<K, V> cache) {
+			this.cache = cache;
+		}
+
+		private V get(K key) {
+			V value = map.get(key);
+			if (value == null)
+				missCount++;
+			else
+				hitCount++;
+			return value;
+		}
+
+		private void put(K key, V value) {
+			V old = map.put(key, value);
+			if (old != null)
+				weight -= cache.weigh(key, old);
+			weight += cache.weigh(key, value);
+			evict();
+		}
+
+		private void invalidateIf(Predicate<? super K> predicate) {
+			Iterator<Map.Entry<K, V>> it = map.entrySet().iterator();
+			while (it.hasNext()) {
+				Map.Entry<K, V> entry = it.next();
+				if (predicate.test(entry.getKey())) {
+					weight -= cache.weigh(entry.getKey(), entry.getValue());
+					it.remove();
+				}
+			}
+		}
+
+		private void clear() {
+			map.clear();
+			weight = 0;
+		}
+
+		private void resetStats() {
+			hitCount = 0;
+			missCount = 0;
+			evictionCount = 0;
+		}
+
+		private void bound(long maximumWeight) {
+			this.maximumWeight = maximumWeight;
+			weight = 0;
+			for (Map.Entry<K, V> entry : map.entrySet())
+				weight += cache.weigh(entry.getKey(), entry.getValue());
+			evict();
+		}
+
+		private void evict() {
+			Iterator<Map.Entry<K, V>> it = map.entrySet().iterator();
+			while (weight > maximumWeight && it.hasNext()) {
+				Map.Entry<K, V> eldest = it.next();
+				weight -= cache.weigh(eldest.getKey(), eldest.getValue());
+				it.remove();
+				evictionCount++;
+			}
+		}
+	}
+
+	/**
+	 * Immutable snapshot of the statistics of a cache.
+	 */
+	public static class Stats {
+		private final long hitCount;
+		private final long missCount;
+		private final long evictionCount;
+		private final long size;
+		private final long weight;
+		private final long maximumWeight;
+
+		public Stats(long hitCount, long missCount, long evictionCount, long size, long weight, long maximumWeight) {
+			this.hitCount = hitCount;
+			this.missCount = missCount;
+			this.evictionCount = evictionCount;
+			this.size = size;
+			this.weight = weight;
+			this.maximumWeight = maximumWeight;
+		}
+
+		public long getHitCount() {
+			return hitCount;
+		}
+
+		public long getMissCount() {
+			return missCount;
+		}
+
+		public long getEvictionCount() {
+			return evictionCount;
+		}
+
+		public long getSize() {
+			return size;
+		}
+
+		public long getWeight() {
+			return weight;
+		}
+
+		public long getMaximumWeight() {
+			return maximumWeight;
+		}
+
+		/**
+		 * Get the ratio of lookups that were hits, 1.0 if there were no
+		 * lookups.
+		 *
+		 * @return
+		 */
+		public double getHitRate() {
+			long requests = hitCount + missCount;
+			return requests == 0 ? 1.0 : (double) hitCount / requests;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("hits=%d, misses=%d, evictions=%d, size=%d, weight=%d/%d", hitCount, missCount,
+					evictionCount, size, weight, maximumWeight);
+		}
+	}
+}
@@ -0,0 +1,59 @@
+package org.topbraid.spin.arq;
+
+import java.util.function.Supplier;
+
+/**
+ * Receives measurements of the hot paths of RSP-SPIN: parsing, conversion
+ * between ARQ and SPIN, query string creation, argument validation,
+ * serialization and library round trips. An implementation is installed with
+ * {@link Metrics#setInstrumentation(Instrumentation)}, without one nothing is
+ * measured.
+ *
+ * Implementations are called from the measured threads and must be thread
+ * safe and fast. A tracer can derive a span from each record, which ends when
+ * the record is received and started durationNanos earlier.
+ */
+public interface Instrumentation {
+	/** RSP-QL parsing, payload is the length of the query string */
+	public static final String PARSE = "parse";
+	/** ARQ to SPIN conversion, payload is the number of triples created */
+	public static final String ARQ2SPIN = "arq2spin";
+	/** SPIN command to string conversion, payload is the string length */
+	public static final String COMMAND_STRING = "commandString";
+	/** Query creation from a string, payload is the string length */
+	public static final String CREATE_QUERY = "createQuery";
+	/** Validation of template bindings, payload is the number of arguments */
+	public static final String VALIDATE = "validate";
+	/** Parameterized string injection, payload is the string length */
+	public static final String PARAMETERIZED_STRING = "parameterizedString";
+	/** Prefix of serializations, followed by the serializer name */
+	public static final String SERIALIZE = "serialize.";
+	/** Prefix of library round trips, followed by the library operation */
+	public static final String LIBRARY = "library.";
+
+	/**
+	 * Record a completed operation.
+	 *
+	 * @param operation
+	 *            operation name, one of the constants or starting with a
+	 *            prefix constant
+	 * @param durationNanos
+	 * @param payloadSize
+	 *            size of the input or output of the operation, -1 if unknown
+	 * @param error
+	 *            the exception the operation failed with, or null
+	 */
+	public void record(String operation, long durationNanos, long payloadSize, Throwable error);
+
+	/**
+	 * Called for each cache registered with {@link Metrics}, so that its
+	 * statistics (e.g. the hit ratio) can be published. Does nothing by
+	 * default.
+	 *
+	 * @param name
+	 * @param stats
+	 *            supplies a snapshot of the current statistics
+	 */
+	public default void registerCache(String name, Supplier<BoundedCache.Stats> stats) {
+	}
+}
@@ -0,0 +1,131 @@
+package org.topbraid.spin.arq;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Holds the installed {@link Instrumentation} and the named caches whose
+ * statistics are published. Measured code calls {@link #start()} before and
+ * {@link #stop(String, long, long)} after an operation. Without an installed
+ * instrumentation both are a single volatile read and no clock is read. This
+ * lives next to ARQFactory so that the SPIN layer, which is measured as well,
+ * does not depend on org.rspspin.core.
+ */
+public final class Metrics {
+	/**
+	 * The start time returned while measurements are disabled. System.nanoTime()
+	 * may return any value, including 0, so this is out of its practical range.
+	 */
+	public static final long DISABLED = Long.MIN_VALUE;
+
+	private static volatile Instrumentation instrumentation = null;
+	private static final ConcurrentHashMap<String, BoundedCache<?, ?>> caches = new ConcurrentHashMap<String, BoundedCache<?, ?>>();
+
+	private Metrics() {
+	}
+
+	/**
+	 * Install an instrumentation, null to disable measurements. The caches
+	 * registered so far are passed to the instrumentation.
+	 *
+	 * @param instrumentation
+	 */
+	public static void setInstrumentation(Instrumentation instrumentation) {
+		Metrics.instrumentation = instrumentation;
+		if (instrumentation != null)
+			caches.forEach((name, cache) -> instrumentation.registerCache(name, cache::getStats));
+	}
+
+	/**
+	 * Get the installed instrumentation, or null if none
+	 *
+	 * @return
+	 */
+	public static Instrumentation getInstrumentation() {
+		return instrumentation;
+	}
+
+	/**
+	 * Check if measurements are enabled
+	 *
+	 * @return
+	 */
+	public static boolean isEnabled() {
+		return instrumentation != null;
+	}
+
+	/**
+	 * Start measuring an operation
+	 *
+	 * @return the start time, or {@link #DISABLED} if measurements are disabled
+	 */
+	public static long start() {
+		return instrumentation == null ? DISABLED : System.nanoTime();
+	}
+
+	/**
+	 * Record a successful operation
+	 *
+	 * @param operation
+	 * @param start
+	 *            the value returned by {@link #start()}
+	 * @param payloadSize
+	 *            size of the input or output, -1 if unknown
+	 */
+	public static void stop(String operation, long start, long payloadSize) {
+		Instrumentation i = instrumentation;
+		if (i != null && start != DISABLED)
+			i.record(operation, System.nanoTime() - start, payloadSize, null);
+	}
+
+	/**
+	 * Record a failed operation
+	 *
+	 * @param operation
+	 * @param start
+	 *            the value returned by {@link #start()}
+	 * @param error
+	 */
+	public static void fail(String operation, long start, Throwable error) {
+		Instrumentation i = instrumentation;
+		if (i != null && start != DISABLED)
+			i.record(operation, System.nanoTime() - start, -1, error);
+	}
+
+	/**
+	 * Register a cache whose statistics are published, replacing a cache
+	 * registered with the same name.
+	 *
+	 * @param name
+	 * @param cache
+	 */
+	public static void registerCache(String name, BoundedCache<?, ?> cache) {
+		caches.put(name, cache);
+		Instrumentation i = instrumentation;
+		if (i != null)
+			i.registerCache(name, cache::getStats);
+	}
+
+	/**
+	 * Remove a registered cache if it is the given cache
+	 *
+	 * @param name
+	 * @param cache
+	 */
+	public static void unregisterCache(String name, BoundedCache<?, ?> cache) {
+		caches.remove(name, cache);
+	}
+
+	/**
+	 * Get the statistics of all registered caches, ordered by name
+	 *
+	 * @return
+	 */
+	public static Map<String, BoundedCache.Stats> getCacheStats() {
+		Map<String, BoundedCache.Stats> stats = new TreeMap<String, BoundedCache.Stats>();
+		caches.forEach((name, cache) -> stats.put(name, cache.getStats()));
+		return Collections.unmodifiableMap(stats);
+	}
+}
@@ -0,0 +1,107 @@
+package org.rspspin.tests;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+import org.topbraid.spin.arq.BoundedCache;
+
+public class TestBoundedCache {
+
+	/* Least recently used entries are evicted first */
+	@Test
+	public void evictLeastRecentlyUsed() {
+		BoundedCache<String, String> cache = new BoundedCache<>(2);
+		cache.put("a", "1");
+		cache.put("b", "2");
+		assertEquals("1", cache.get("a"));
+		cache.put("c", "3");
+		assertNull(cache.get("b"));
+		assertEquals("1", cache.get("a"));
+		assertEquals("3", cache.get("c"));
+
+		BoundedCache.Stats stats = cache.getStats();
+		assertEquals(3, stats.getHitCount());
+		assertEquals(1, stats.getMissCount());
+		assertEquals(1, stats.getEvictionCount());
+		assertEquals(2, stats.getSize());
+	}
+
+	/* Weight bound by key length */
+	@Test
+	public void evictByWeight() {
+		BoundedCache<String, String> cache = new BoundedCache<>(10, (k, v) -> k.length());
+		cache.put("aaaa", "1");
+		cache.put("bbbb", "2");
+		cache.put("cccc", "3");
+		assertNull(cache.get("aaaa"));
+		assertEquals(8, cache.getStats().getWeight());
+
+		cache.setMaximumWeight(1, null);
+		assertEquals(1, cache.size());
+		assertEquals("3", cache.get("cccc"));
+	}
+
+	/* The segments follow the maximum weight, so every key is cacheable after a resize */
+	@Test
+	public void resizeSegments() {
+		BoundedCache<Integer, String> cache = new BoundedCache<>(10000);
+		for (int i = 0; i < 100; i++)
+			cache.put(i, "value");
+		cache.get(99);
+		cache.setMaximumWeight(10, null);
+		assertEquals(10, cache.size());
+		assertEquals(10, cache.getStats().getWeight());
+		assertEquals(90, cache.getStats().getEvictionCount());
+		assertEquals(1, cache.getStats().getHitCount());
+		for (int i = 0; i < 1000; i++) {
+			cache.put(i, "value");
+			assertEquals("value", cache.get(i));
+		}
+
+		// An entry up to the whole bound is kept
+		cache.setMaximumWeight(100, (k, v) -> v.length());
+		for (int i = 0; i < 100; i++) {
+			cache.put(i, new String(new char[100]));
+			assertNotNull(cache.get(i));
+		}
+
+		// Growing again splits the entries over more segments
+		cache.setMaximumWeight(10000, null);
+		assertEquals(1, cache.size());
+		for (int i = 0; i < 1000; i++)
+			cache.put(i, "value");
+		assertEquals(1000, cache.size());
+	}
+
+	/* A segmented cache stays within its bound under concurrent use */
+	@Test
+	public void concurrentSegments() throws InterruptedException {
+		BoundedCache<Integer, Integer> cache = new BoundedCache<>(1000);
+		Thread[] threads = new Thread[8];
+		for (int t = 0; t < threads.length; t++) {
+			int offset = t * 10000;
+			threads[t] = new Thread(() -> {
+				for (int i = 0; i < 10000; i++) {
+					cache.put(offset + i, i);
+					cache.get(offset + i / 2);
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread thread : threads)
+			thread.join();
+
+		BoundedCache.Stats stats = cache.getStats();
+		assertTrue(stats.getSize() <= 1000);
+		assertEquals(stats.getSize(), stats.getWeight());
+		assertEquals(80000, stats.getHitCount() + stats.getMissCount());
+		assertEquals(80000 - stats.getSize(), stats.getEvictionCount());
+
+		cache.invalidateIf((key) -> key % 2 == 0);
+		assertEquals(cache.size(), cache.getStats().getWeight());
+		cache.clear();
+		assertEquals(0, cache.size());
+		cache.resetStats();
+		assertEquals(0, cache.getStats().getHitCount());
+	}
+}
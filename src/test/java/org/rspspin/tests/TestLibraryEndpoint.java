@@ -0,0 +1,194 @@
+package org.rspspin.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.jena.query.Dataset;
+import org.apache.jena.query.DatasetFactory;
+import org.apache.jena.query.Query;
+import org.apache.jena.query.QueryExecution;
+import org.apache.jena.query.QueryExecutionFactory;
+import org.apache.jena.query.QueryFactory;
+import org.apache.jena.query.ResultSetFormatter;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Property;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.sparql.core.DynamicDatasets;
+import org.apache.jena.vocabulary.RDFS;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.rspspin.core.LibraryEndpointServiceImpl;
+import org.rspspin.core.RSPSPINException;
+import org.rspspin.core.RSPSPINTemplateManager;
+import org.topbraid.spin.model.Template;
+import org.topbraid.spin.vocabulary.SPIN;
+
+import com.sun.net.httpserver.HttpServer;
+
+public class TestLibraryEndpoint {
+	private static final String GRAPH = "http://example.org/library";
+	private static final String NS = "http://example.org/templates#";
+	private static final String QUERY = ""
+			+ "PREFIX : <http://example.org/> "
+			+ "REGISTER STREAM ?out AS "
+			+ "SELECT ?a "
+			+ "FROM NAMED WINDOW :w ON ?stream [RANGE PT10M STEP PT1M] "
+			+ "WHERE { WINDOW :w { ?a :p ?c } }";
+
+	private HttpServer server;
+	private Dataset dataset = DatasetFactory.createMem();
+	private RSPSPINTemplateManager manager;
+	private LibraryEndpointServiceImpl library;
+
+	/* In-process SPARQL endpoint over an in-memory dataset */
+	@Before
+	public void start() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/sparql", (exchange) -> {
+			String params = exchange.getRequestURI().getRawQuery();
+			if ("POST".equals(exchange.getRequestMethod()))
+				params = new String(readAll(exchange.getRequestBody()), StandardCharsets.UTF_8);
+			String queryString = null;
+			for (String param : params.split("&")) {
+				if (param.startsWith("query="))
+					queryString = URLDecoder.decode(param.substring(6), "UTF-8");
+			}
+			Query query = QueryFactory.create(queryString);
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			String contentType;
+			// Apply FROM to the dataset, as an endpoint would
+			Dataset target = DynamicDatasets.dynamicDataset(query.getDatasetDescription(), dataset, false);
+			query.getGraphURIs().clear();
+			try (QueryExecution qe = QueryExecutionFactory.create(query, target)) {
+				if (query.isConstructType()) {
+					RDFDataMgr.write(out, qe.execConstruct(), Lang.NTRIPLES);
+					contentType = "application/n-triples";
+				} else {
+					ResultSetFormatter.outputAsXML(out, qe.execSelect());
+					contentType = "application/sparql-results+xml";
+				}
+			}
+			byte[] body = out.toByteArray();
+			exchange.getResponseHeaders().set("Content-Type", contentType);
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream os = exchange.getResponseBody()) {
+				os.write(body);
+			}
+			exchange.close();
+		});
+		server.start();
+
+		manager = new RSPSPINTemplateManager("rspspin-test.properties");
+		library = new LibraryEndpointServiceImpl("rspspin-test.properties");
+		library.setGraph(GRAPH);
+		library.setQueryEndpoint("http://localhost:" + server.getAddress().getPort() + "/sparql");
+	}
+
+	@After
+	public void stop() {
+		server.stop(0);
+	}
+
+	/* Templates sharing nested blank nodes each get the whole shared structure */
+	@Test
+	public void partitionSharedBlankNodes() throws RSPSPINException {
+		Model library = libraryModel();
+		List<Template> templates = this.library.loadTemplates();
+		assertEquals(3, templates.size());
+		for (Template template : templates)
+			assertTrue(template.getURI(), expected(library, template.getURI()).isIsomorphicWith(template.getModel()));
+	}
+
+	/* Streamed templates are the same as the loaded ones and arrive one by one */
+	@Test
+	public void loadTemplatesStreaming() throws RSPSPINException {
+		List<Template> streamed = new ArrayList<>();
+		library.loadTemplates(streamed::add);
+		assertTrue(streamed.isEmpty());
+
+		Model library = libraryModel();
+		this.library.loadTemplates(streamed::add);
+		assertEquals(3, streamed.size());
+		for (int i = 0; i < streamed.size(); i++) {
+			Template template = streamed.get(i);
+			assertEquals(NS + "t" + (i + 1), template.getURI());
+			assertTrue(template.getURI(), expected(library, template.getURI()).isIsomorphicWith(template.getModel()));
+		}
+		assertNotSame(streamed.get(0).getModel(), streamed.get(1).getModel());
+
+		// The manager registers each template before the next one arrives
+		manager.setLibrary(this.library);
+		List<Integer> registered = new ArrayList<>();
+		manager.loadTemplates((template) -> {
+			assertSame(template, manager.getRegisteredTemplates().get(template.getURI()));
+			registered.add(manager.getRegisteredTemplates().size());
+		});
+		assertEquals(Arrays.asList(1, 2, 3), registered);
+	}
+
+	/**
+	 * Store three templates in the library graph. The first two share a
+	 * constraint with a nested blank node, the second also refers to the
+	 * third.
+	 */
+	private Model libraryModel() throws RSPSPINException {
+		Model library = ModelFactory.createDefaultModel();
+		for (int i = 1; i <= 3; i++)
+			library.add(manager.createTemplate(NS + "t" + i, QUERY.replace(":p", ":p" + i)).getModel());
+		Property nested = library.createProperty("http://example.org/nested");
+		Resource shared = library.createResource()
+				.addProperty(RDFS.label, "shared")
+				.addProperty(nested, library.createResource()
+						.addProperty(RDFS.comment, "deep")
+						.addProperty(nested, library.createResource().addProperty(RDFS.label, "deeper")));
+		library.getResource(NS + "t1").addProperty(SPIN.constraint, shared);
+		library.getResource(NS + "t2").addProperty(SPIN.constraint, shared);
+		library.getResource(NS + "t2").addProperty(RDFS.seeAlso, library.getResource(NS + "t3"));
+		dataset.addNamedModel(GRAPH, library);
+		return library;
+	}
+
+	/**
+	 * The triples reachable from a template
+	 */
+	private static Model expected(Model library, String uri) {
+		Model model = ModelFactory.createDefaultModel();
+		List<Resource> queue = new ArrayList<>();
+		queue.add(library.getResource(uri));
+		while (!queue.isEmpty()) {
+			Resource s = queue.remove(0);
+			if (model.contains(s, null, (RDFNode) null))
+				continue;
+			library.listStatements(s, null, (RDFNode) null).forEachRemaining((st) -> {
+				model.add(st);
+				if (st.getObject().isResource())
+					queue.add(st.getResource());
+			});
+		}
+		return model;
+	}
+
+	private static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int n;
+		while ((n = in.read(buffer)) > 0)
+			out.write(buffer, 0, n);
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,130 @@
+package org.rspspin.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.rspspin.core.LibraryHttpClient;
+
+import com.sun.net.httpserver.HttpServer;
+
+public class TestLibraryHttpClient {
+	private HttpServer server;
+	private String url;
+	private AtomicInteger requests = new AtomicInteger();
+	private volatile int failures = 0;
+	private volatile int failureStatus = 503;
+	private volatile String authorization = null;
+
+	/* In-process stand-in for a SPARQL endpoint, echoes the request body */
+	@Before
+	public void start() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/sparql", (exchange) -> {
+			authorization = exchange.getRequestHeaders().getFirst("Authorization");
+			byte[] body = readAll(exchange.getRequestBody());
+			if (requests.incrementAndGet() <= failures) {
+				exchange.sendResponseHeaders(failureStatus, -1);
+			} else {
+				exchange.sendResponseHeaders(200, body.length);
+				try (OutputStream out = exchange.getResponseBody()) {
+					out.write(body);
+				}
+			}
+			exchange.close();
+		});
+		server.start();
+		url = "http://localhost:" + server.getAddress().getPort() + "/sparql";
+	}
+
+	@After
+	public void stop() {
+		server.stop(0);
+	}
+
+	/* Server errors are retried */
+	@Test
+	public void retryServerError() throws Exception {
+		failures = 2;
+		LibraryHttpClient client = new LibraryHttpClient(2, 1000, 1000, 2, 10);
+		client.setAuthentication("admin", "password");
+		String result = client.post(url, "application/sparql-query", "ASK {}", null, true, (in) -> {
+			return new String(readAll(in), StandardCharsets.UTF_8);
+		}).get();
+		assertEquals("ASK {}", result);
+		assertEquals(3, requests.get());
+		assertEquals("Basic YWRtaW46cGFzc3dvcmQ=", authorization);
+		client.shutdown();
+	}
+
+	/* Client errors fail without retrying */
+	@Test
+	public void failClientError() throws Exception {
+		failures = 1;
+		failureStatus = 400;
+		LibraryHttpClient client = new LibraryHttpClient(2, 1000, 1000, 2, 10);
+		try {
+			client.post(url, "application/sparql-query", "ASK {}", null, true, (in) -> null).get();
+			fail();
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IOException);
+		}
+		assertEquals(1, requests.get());
+		assertNull(authorization);
+		client.shutdown();
+	}
+
+	/* Updates are not replayed after the request was sent */
+	@Test
+	public void noRetryUpdate() throws Exception {
+		failures = 1;
+		LibraryHttpClient client = new LibraryHttpClient(2, 1000, 1000, 2, 10);
+		try {
+			client.post(url, "application/sparql-update", "INSERT DATA {}", null, false, (in) -> null).get();
+			fail();
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IOException);
+		}
+		assertEquals(1, requests.get());
+		client.shutdown();
+	}
+
+	/* A request waiting for a retry does not hold the only worker */
+	@Test
+	public void scheduledRetry() throws Exception {
+		failures = 1;
+		LibraryHttpClient client = new LibraryHttpClient(1, 1000, 1000, 1, 2000);
+		CompletableFuture<String> retried = client.post(url, "application/sparql-query", "ASK {}", null, true,
+				(in) -> new String(readAll(in), StandardCharsets.UTF_8));
+		while (requests.get() < 1)
+			Thread.sleep(1);
+		String second = client.post(url, "application/sparql-query", "SELECT * {}", null, true,
+				(in) -> new String(readAll(in), StandardCharsets.UTF_8)).get(1, TimeUnit.SECONDS);
+		assertEquals("SELECT * {}", second);
+		assertFalse(retried.isDone());
+		assertEquals("ASK {}", retried.get());
+		assertEquals(3, requests.get());
+		client.shutdown();
+	}
+
+	private static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int n;
+		while ((n = in.read(buffer)) >= 0)
+			out.write(buffer, 0, n);
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,76 @@
+package org.rspspin.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+import org.topbraid.spin.arq.BoundedCache;
+import org.topbraid.spin.arq.Instrumentation;
+import org.topbraid.spin.arq.Metrics;
+
+public class TestMetrics {
+
+	@After
+	public void uninstall() {
+		Metrics.setInstrumentation(null);
+	}
+
+	/* Nothing is measured without an instrumentation */
+	@Test
+	public void disabled() {
+		assertFalse(Metrics.isEnabled());
+		assertEquals(Metrics.DISABLED, Metrics.start());
+	}
+
+	/* Successful and failed operations are recorded */
+	@Test
+	public void record() {
+		List<String> records = new ArrayList<>();
+		Metrics.setInstrumentation((operation, durationNanos, payloadSize, error) -> records
+				.add(operation + " " + payloadSize + " " + (error == null ? "ok" : error.getMessage())));
+		long start = Metrics.start();
+		assertTrue(start != Metrics.DISABLED);
+		Metrics.stop(Instrumentation.PARSE, start, 42);
+		Metrics.fail(Instrumentation.VALIDATE, Metrics.start(), new RuntimeException("invalid"));
+		assertEquals("parse 42 ok", records.get(0));
+		assertEquals("validate -1 invalid", records.get(1));
+
+		// An operation started while disabled is not recorded
+		Metrics.stop(Instrumentation.PARSE, Metrics.DISABLED, 1);
+		assertEquals(2, records.size());
+	}
+
+	/* Caches registered before and after installing are passed on */
+	@Test
+	public void caches() {
+		BoundedCache<String, String> cache1 = new BoundedCache<>(10);
+		BoundedCache<String, String> cache2 = new BoundedCache<>(10);
+		Metrics.registerCache("test.cache1", cache1);
+		List<String> names = new ArrayList<>();
+		Metrics.setInstrumentation(new Instrumentation() {
+			@Override
+			public void record(String operation, long durationNanos, long payloadSize, Throwable error) {
+			}
+
+			@Override
+			public void registerCache(String name, java.util.function.Supplier<BoundedCache.Stats> stats) {
+				names.add(name);
+			}
+		});
+		Metrics.registerCache("test.cache2", cache2);
+		assertTrue(names.contains("test.cache1"));
+		assertTrue(names.contains("test.cache2"));
+
+		cache1.put("a", "1");
+		cache1.get("a");
+		cache1.get("b");
+		assertEquals(0.5, Metrics.getCacheStats().get("test.cache1").getHitRate(), 0.0);
+
+		Metrics.unregisterCache("test.cache1", cache1);
+		Metrics.unregisterCache("test.cache2", cache2);
+		assertFalse(Metrics.getCacheStats().containsKey("test.cache1"));
+	}
+}
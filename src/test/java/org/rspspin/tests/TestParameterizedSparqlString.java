@@ -0,0 +1,196 @@
+package org.rspspin.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.jena.datatypes.xsd.XSDDatatype;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.sparql.ARQException;
+import org.apache.own.query.ParameterizedSparqlString;
+import org.junit.Test;
+
+/**
+ * Compares the single pass injection of variable parameters with the
+ * sequential injection it replaces. A subclass of ParameterizedSparqlString
+ * always injects sequentially.
+ */
+public class TestParameterizedSparqlString {
+	private static final Pattern VARIABLE = Pattern.compile("[?$](\\w+)");
+	private static final Pattern TEMPLATE_QUERY = Pattern.compile("\"query\"\\s*:\\s*\"(.*?)\",\\s*\"parameters\"",
+			Pattern.DOTALL);
+	private static final Node[] VALUES = { NodeFactory.createURI("http://example.org/value"),
+			NodeFactory.createLiteral("value"), NodeFactory.createLiteral("it's \"quoted\" # not a comment"),
+			NodeFactory.createLiteral("10", XSDDatatype.XSDinteger),
+			NodeFactory.createLiteral("PT10S", XSDDatatype.XSDduration), NodeFactory.createBlankNode("b0"),
+			NodeFactory.createURI("http://example.org/ns#value") };
+
+	/* Random bindings of the CSRBench queries and scenario templates */
+	@Test
+	public void sameAsSequential() throws IOException {
+		List<String> commands = new ArrayList<>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(Paths.get("queries/csrbench/rspql"))) {
+			for (Path file : files)
+				commands.add(read(file));
+		}
+		try (DirectoryStream<Path> files = Files
+				.newDirectoryStream(Paths.get("papers/Template-based RSP Execution/Scenario templates"))) {
+			// Not all template files are valid JSON, so the query is cut out
+			for (Path file : files) {
+				Matcher matcher = TEMPLATE_QUERY.matcher(read(file));
+				assertTrue(file.toString(), matcher.find());
+				commands.add(matcher.group(1));
+			}
+		}
+		assertEquals(12, commands.size());
+
+		Random random = new Random(42);
+		for (String command : commands) {
+			List<String> vars = variables(command);
+			for (int i = 0; i < 50; i++) {
+				ParameterizedSparqlString single = new ParameterizedSparqlString(command);
+				ParameterizedSparqlString sequential = sequential(command);
+				for (String var : vars) {
+					if (random.nextInt(4) == 0)
+						continue;
+					Node value = VALUES[random.nextInt(VALUES.length)];
+					single.setParam(var, value);
+					sequential.setParam(var, value);
+				}
+				assertEquals(command, inject(sequential), inject(single));
+			}
+		}
+	}
+
+	/* Random commands full of delimiters, quotes and escapes */
+	@Test
+	public void sameAsSequentialDelimiters() {
+		String[] tokens = { "\"", "'", "\"\"\"", "'''", "<", ">", "#", "\n", "\\", ".", " ", "a", "?x", "?y", "?z",
+				"$x" };
+		Node[] values = { NodeFactory.createURI("http://example.org/value"), NodeFactory.createLiteral("value"),
+				NodeFactory.createLiteral("a\"b"), NodeFactory.createLiteral("it's"),
+				NodeFactory.createLiteral("\"\"\""), NodeFactory.createLiteral("a\\"),
+				NodeFactory.createLiteral("10", XSDDatatype.XSDinteger), NodeFactory.createBlankNode("b0") };
+		String[] vars = { "x", "y", "z" };
+
+		Random random = new Random(7);
+		for (int i = 0; i < 20000; i++) {
+			StringBuilder command = new StringBuilder();
+			int length = 1 + random.nextInt(16);
+			for (int j = 0; j < length; j++)
+				command.append(tokens[random.nextInt(tokens.length)]);
+
+			ParameterizedSparqlString single = new ParameterizedSparqlString(command.toString());
+			ParameterizedSparqlString sequential = sequential(command.toString());
+			for (String var : vars) {
+				if (random.nextInt(3) == 0)
+					continue;
+				Node value = values[random.nextInt(values.length)];
+				single.setParam(var, value);
+				sequential.setParam(var, value);
+			}
+			assertEquals(command.toString(), inject(sequential), inject(single));
+		}
+	}
+
+	/* Literals that must not be injected, whichever way they are injected */
+	@Test
+	public void unsafe() {
+		Node literal = NodeFactory.createLiteral("value");
+		assertUnsafe("SELECT * WHERE { ?s ?p \"text ?x here\" }", literal, "inside of a literal");
+		assertUnsafe("SELECT * WHERE { ?s ?p \"?x\" }", literal, "surrounded directly by quotes");
+		assertUnsafe("SELECT * WHERE { ?s ?p '?x' }", literal, "surrounded directly by quotes");
+
+		// Only unsafe once an earlier parameter is injected
+		ParameterizedSparqlString single = new ParameterizedSparqlString("SELECT * WHERE { ?s ?p ?a, \"text ?x\" }");
+		ParameterizedSparqlString sequential = sequential(single.getCommandText());
+		for (ParameterizedSparqlString pss : new ParameterizedSparqlString[] { single, sequential }) {
+			pss.setLiteral("a", "value");
+			pss.setLiteral("x", "value");
+		}
+		assertEquals(inject(sequential), inject(single));
+	}
+
+	/* Only literals inside of literals are rejected */
+	@Test
+	public void safe() {
+		ParameterizedSparqlString pss = new ParameterizedSparqlString("PREFIX ex: <http://example.org/ns#> "
+				+ "SELECT * WHERE { ?s ex:p \"a # b\", ?x . FILTER(?y < 10 && ?y > 1) } # ?z");
+		pss.setLiteral("x", "value");
+		pss.setLiteral("y", 5);
+		pss.setIri("z", "http://example.org/z");
+		assertEquals("PREFIX ex: <http://example.org/ns#> SELECT * WHERE { ?s ex:p \"a # b\", \"value\" . "
+				+ "FILTER(5 < 10 && 5 > 1) } # <http://example.org/z>", pss.toString());
+
+		pss = new ParameterizedSparqlString("SELECT * WHERE { FILTER(?a<?b&&?c>?d) }");
+		for (String var : new String[] { "a", "b", "c", "d" })
+			pss.setLiteral(var, 1);
+		assertEquals("SELECT * WHERE { FILTER(1<1&&1>1) }", pss.toString());
+	}
+
+	/* Positional parameters are checked like variables */
+	@Test
+	public void unsafePositional() {
+		Node literal = NodeFactory.createLiteral("value");
+		assertUnsafePositional("SELECT * WHERE { ?s ?p \"a ? b\" }", literal, "inside of a literal");
+
+		ParameterizedSparqlString pss = new ParameterizedSparqlString("SELECT * WHERE { ?s ?p ? . }");
+		pss.setParam(0, literal);
+		assertEquals("SELECT * WHERE { ?s ?p \"value\" . }", pss.toString());
+	}
+
+	private static void assertUnsafe(String command, Node value, String problem) {
+		ParameterizedSparqlString single = new ParameterizedSparqlString(command);
+		ParameterizedSparqlString sequential = sequential(command);
+		single.setParam("x", value);
+		sequential.setParam("x", value);
+		String result = inject(single);
+		assertTrue(result, result.startsWith("ARQException") && result.contains(problem));
+		assertEquals(result, inject(sequential));
+	}
+
+	private static void assertUnsafePositional(String command, Node value, String problem) {
+		ParameterizedSparqlString pss = new ParameterizedSparqlString(command);
+		pss.setParam(0, value);
+		String result = inject(pss);
+		assertTrue(result, result.startsWith("ARQException") && result.contains(problem));
+	}
+
+	private static ParameterizedSparqlString sequential(String command) {
+		return new ParameterizedSparqlString(command) {
+		};
+	}
+
+	private static String inject(ParameterizedSparqlString pss) {
+		try {
+			return pss.toString();
+		} catch (ARQException e) {
+			return "ARQException: " + e.getMessage();
+		}
+	}
+
+	private static List<String> variables(String command) {
+		Set<String> vars = new LinkedHashSet<>();
+		Matcher matcher = VARIABLE.matcher(command);
+		while (matcher.find())
+			vars.add(matcher.group(1));
+		return new ArrayList<>(vars);
+	}
+
+	private static String read(Path file) throws IOException {
+		return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+	}
+}
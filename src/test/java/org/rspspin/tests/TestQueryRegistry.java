@@ -0,0 +1,108 @@
+package org.rspspin.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.own.query.RSPQLQuery;
+import org.apache.own.query.RSPQLQueryFactory;
+import org.apache.own.query.RSPQLQueryFingerprint;
+import org.junit.Test;
+import org.rspspin.core.QueryRegistry;
+import org.rspspin.lang.rspql.ParserRSPQL;
+
+public class TestQueryRegistry {
+	private static final String QUERY = ""
+			+ "PREFIX : <http://example.org/> "
+			+ "REGISTER STREAM :%s AS "
+			+ "SELECT ?a "
+			+ "FROM NAMED WINDOW :w ON :%s [RANGE PT10M STEP PT1M] "
+			+ "WHERE { WINDOW :w { ?a :p ?c } }";
+
+	private RSPQLQuery query(String out, String stream) {
+		ParserRSPQL.register();
+		return RSPQLQueryFactory.create(String.format(QUERY, out, stream), ParserRSPQL.syntax);
+	}
+
+	/* Queries that only differ in the output stream share a registration */
+	@Test
+	public void sharedRegistration() {
+		QueryRegistry registry = new QueryRegistry();
+		List<String> events = new ArrayList<>();
+		registry.addListener(new QueryRegistry.Listener() {
+			@Override
+			public void queryRegistered(QueryRegistry.Registration registration) {
+				events.add("registered");
+			}
+
+			@Override
+			public void queryUnregistered(QueryRegistry.Registration registration) {
+				events.add("unregistered");
+			}
+
+			@Override
+			public void outputStreamAdded(QueryRegistry.Registration registration, Node outputStream) {
+				events.add("added " + outputStream.getURI());
+			}
+
+			@Override
+			public void outputStreamRemoved(QueryRegistry.Registration registration, Node outputStream) {
+				events.add("removed " + outputStream.getURI());
+			}
+		});
+
+		QueryRegistry.Registration r1 = registry.register(query("out1", "s1"));
+		QueryRegistry.Registration r2 = registry.register(query("out2", "s1"));
+		QueryRegistry.Registration r3 = registry.register(query("out1", "s2"));
+		assertSame(r1, r2);
+		assertNotSame(r1, r3);
+		assertEquals(2, registry.size());
+		assertEquals(2, r1.getOutputStreams().size());
+		assertEquals(NodeFactory.createURI("http://example.org/out2"), r1.getOutputStreams().get(1));
+
+		assertTrue(registry.unregister(query("out1", "s1")));
+		assertEquals(1, r1.getOutputStreams().size());
+		assertFalse(registry.unregister(query("out1", "s1")));
+		assertTrue(registry.unregister(query("out2", "s1")));
+		assertEquals(1, registry.size());
+		assertNull(registry.getRegistration(query("out2", "s1")));
+
+		assertEquals("registered", events.get(0));
+		assertEquals("added http://example.org/out2", events.get(1));
+		assertEquals("registered", events.get(2));
+		assertEquals("removed http://example.org/out1", events.get(3));
+		assertEquals("unregistered", events.get(4));
+	}
+
+	/* Different queries with the same fingerprint get their own registrations */
+	@Test
+	public void fingerprintCollision() {
+		RSPQLQueryFingerprint fingerprint = RSPQLQueryFingerprint.of(query("out", "s0"), false);
+		QueryRegistry registry = new QueryRegistry() {
+			@Override
+			protected RSPQLQueryFingerprint fingerprint(RSPQLQuery query) {
+				return fingerprint;
+			}
+		};
+
+		QueryRegistry.Registration r1 = registry.register(query("out1", "s1"));
+		QueryRegistry.Registration r2 = registry.register(query("out2", "s2"));
+		assertNotSame(r1, r2);
+		assertEquals(2, registry.size());
+		assertEquals(r1.getFingerprint(), r2.getFingerprint());
+		assertSame(r1, registry.register(query("out2", "s1")));
+		assertSame(r2, registry.getRegistration(query("out1", "s2")));
+		assertNull(registry.getRegistration(query("out1", "s3")));
+
+		assertFalse(registry.unregister(query("out1", "s2")));
+		assertTrue(registry.unregister(query("out2", "s2")));
+		assertEquals(1, registry.size());
+		assertSame(r1, registry.getRegistration(query("out1", "s1")));
+		assertTrue(registry.unregister(query("out1", "s1")));
+		assertTrue(registry.unregister(query("out2", "s1")));
+		assertEquals(0, registry.size());
+	}
+}
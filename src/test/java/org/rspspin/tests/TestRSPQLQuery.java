@@ -0,0 +1,379 @@
+package org.rspspin.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.query.QueryException;
+import org.apache.jena.query.Syntax;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.expr.ExprAggregator;
+import org.apache.jena.sparql.syntax.ElementGroup;
+import org.apache.own.query.RSPQLQuery;
+import org.apache.own.query.RSPQLQueryFactory;
+import org.junit.Test;
+import org.rspspin.lang.MultiSyntaxSerializer;
+import org.rspspin.lang.QueryWriter;
+import org.rspspin.lang.cqels.ParserCQELS;
+import org.rspspin.lang.csparql.ParserCSPARQL;
+import org.rspspin.lang.rspql.CharSequenceCharStream;
+import org.rspspin.lang.rspql.ParserRSPQL;
+import org.rspspin.lang.rspql.RSPQLParserTokenManager;
+import org.rspspin.lang.rspql.Token;
+import org.rspspin.lang.sparqlstream.ParserSPARQLStream;
+
+public class TestRSPQLQuery {
+
+	/* Queries parsed from other inputs than a String are the same */
+	@Test
+	public void parseInputs() throws IOException {
+		ParserRSPQL.register();
+		String query = ""
+				+ "REGISTER STREAM ?out AS "
+				+ "SELECT * "
+				+ "FROM NAMED WINDOW <http://window> ON <http://stream> [RANGE PT10M STEP PT1M] "
+				+ "WHERE { WINDOW <http://window> { ?a ?b \"café\" } }";
+		String expected = RSPQLQueryFactory.create(query, ParserRSPQL.syntax).toString();
+		byte[] bytes = query.getBytes(StandardCharsets.UTF_8);
+		assertEquals(expected, RSPQLQueryFactory.create(new StringBuilder(query)).toString());
+		assertEquals(expected, RSPQLQueryFactory.create(new StringReader(query)).toString());
+		assertEquals(expected, RSPQLQueryFactory.create(new ByteArrayInputStream(bytes)).toString());
+		assertEquals(expected, RSPQLQueryFactory.create(ByteBuffer.wrap(bytes)).toString());
+		Path path = Files.createTempFile("query", ".rspql");
+		try {
+			Files.write(path, bytes);
+			assertEquals(expected, RSPQLQueryFactory.read(path).toString());
+		} finally {
+			Files.delete(path);
+		}
+	}
+
+	/* The pooled token source of a thread is reused by each parse */
+	@Test
+	public void pooledParses() {
+		ParserRSPQL.register();
+		String q1 = ""
+				+ "REGISTER STREAM ?out AS "
+				+ "SELECT * "
+				+ "FROM NAMED WINDOW <http://window> ON <http://stream> [RANGE PT10M STEP PT1M] "
+				+ "WHERE { WINDOW <http://window> { ?a ?b \"x\" } }";
+		String q2 = "SELECT ?s WHERE { ?s ?p 'y' . _:b ?p ?s } LIMIT 5";
+		StringBuilder literal = new StringBuilder();
+		while (literal.length() < 20000)
+			literal.append("long literal ");
+		String q3 = q1.replace("\"x\"", "\"" + literal + "\"");
+		List<String> queries = Arrays.asList(q1, q2, q3, q1, q3, q2);
+
+		ParserRSPQL.setPooling(false);
+		List<String> expected = new ArrayList<>();
+		try {
+			for (String query : queries)
+				expected.add(RSPQLQueryFactory.create(query, ParserRSPQL.syntax).toString());
+		} finally {
+			ParserRSPQL.setPooling(true);
+		}
+
+		// Back to back, including after a token grew the buffer
+		for (int i = 0; i < queries.size(); i++)
+			assertEquals(expected.get(i), RSPQLQueryFactory.create(queries.get(i), ParserRSPQL.syntax).toString());
+
+		// A parse error leaves no state behind
+		for (String broken : Arrays.asList(q1.replace("WHERE", "WHERE WHERE"), "SELECT * WHERE { ?s ?p \"open",
+				q3.substring(0, q3.length() / 2))) {
+			try {
+				RSPQLQueryFactory.create(broken, ParserRSPQL.syntax);
+				fail(broken);
+			} catch (QueryException e) {
+			}
+			assertEquals(expected.get(0), RSPQLQueryFactory.create(q1, ParserRSPQL.syntax).toString());
+		}
+
+		// A parse nested in a parse on the same thread, started by reading the input
+		List<String> nested = new ArrayList<>();
+		CharSequence input = new CharSequence() {
+			@Override
+			public char charAt(int index) {
+				if (index == q1.length() / 2 && nested.isEmpty()) {
+					nested.add(RSPQLQueryFactory.create(q2, ParserRSPQL.syntax).toString());
+					nested.add(RSPQLQueryFactory.create(new StringBuilder(q3)).toString());
+				}
+				return q1.charAt(index);
+			}
+
+			@Override
+			public int length() {
+				return q1.length();
+			}
+
+			@Override
+			public CharSequence subSequence(int start, int end) {
+				return q1.subSequence(start, end);
+			}
+
+			@Override
+			public String toString() {
+				return q1;
+			}
+		};
+		assertEquals(expected.get(0), RSPQLQueryFactory.create(input).toString());
+		assertEquals(Arrays.asList(expected.get(1), expected.get(2)), nested);
+		assertEquals(expected.get(1), RSPQLQueryFactory.create(q2, ParserRSPQL.syntax).toString());
+	}
+
+	/* A token buffer grown past its limit is replaced on reinitialisation */
+	@Test
+	public void charStreamBuffer() throws IOException {
+		StringBuilder literal = new StringBuilder("\"");
+		while (literal.length() < 20000)
+			literal.append("long literal ");
+		literal.append("\"");
+		BufferStream stream = new BufferStream();
+		RSPQLParserTokenManager tokenManager = new RSPQLParserTokenManager(stream);
+
+		for (String input : Arrays.asList("?a <http://b> 'c'", literal + " ?a", "?a <http://b> 'c'")) {
+			stream.ReInit(input);
+			tokenManager.ReInit(stream);
+			assertTrue(stream.bufferSize() <= 16384);
+			StringBuilder images = new StringBuilder();
+			for (Token token = tokenManager.getNextToken(); token.kind != 0; token = tokenManager.getNextToken())
+				images.append(token.image).append(' ');
+			assertEquals(input + " ", images.toString());
+			if (input.startsWith("\""))
+				assertTrue(stream.bufferSize() > 16384);
+		}
+	}
+
+	/**
+	 * Exposes the token buffer size
+	 */
+	private static class BufferStream extends CharSequenceCharStream {
+		BufferStream() {
+			super("");
+		}
+
+		int bufferSize() {
+			return buffer.length;
+		}
+	}
+
+	/* Serializing in several syntaxes at once gives the same result as one at a time */
+	@Test
+	public void multiSyntax() {
+		ParserRSPQL.register();
+		ParserCQELS.register();
+		ParserCSPARQL.register();
+		ParserSPARQLStream.register();
+		String query = ""
+				+ "PREFIX : <http://example.org/> "
+				+ "REGISTER STREAM :out AS "
+				+ "SELECT ?a "
+				+ "FROM NAMED WINDOW :w ON :stream [RANGE PT10M STEP PT1M] "
+				+ "WHERE { WINDOW :w { ?a :p ?c FILTER(?c > 10) } }";
+		RSPQLQuery q = RSPQLQueryFactory.create(query, ParserRSPQL.syntax);
+		List<Syntax> syntaxes = Arrays.asList(ParserRSPQL.syntax, ParserCQELS.syntax, ParserCSPARQL.syntax,
+				ParserSPARQLStream.syntax);
+		Map<Syntax, String> serializations = MultiSyntaxSerializer.serialize(q, syntaxes);
+		assertEquals(syntaxes, Arrays.asList(serializations.keySet().toArray()));
+		for (Syntax syntax : syntaxes) {
+			q.setSyntax(syntax);
+			assertEquals(q.toString(), serializations.get(syntax));
+		}
+	}
+
+	/* Queries written to a stream or an Appendable are the same as toString() */
+	@Test
+	public void queryWriter() throws IOException {
+		ParserRSPQL.register();
+		ParserCQELS.register();
+		ParserCSPARQL.register();
+		ParserSPARQLStream.register();
+		String query = ""
+				+ "PREFIX : <http://example.org/> "
+				+ "REGISTER STREAM :out AS "
+				+ "SELECT ?a "
+				+ "FROM NAMED WINDOW :w ON :stream [RANGE PT10M STEP PT1M] "
+				+ "WHERE { WINDOW :w { ?a :p \"caf\u00e9 \ud83d\ude00\" } }";
+		RSPQLQuery q = RSPQLQueryFactory.create(query, ParserRSPQL.syntax);
+		for (Syntax syntax : Arrays.asList(ParserRSPQL.syntax, ParserCQELS.syntax, ParserCSPARQL.syntax,
+				ParserSPARQLStream.syntax)) {
+			q.setSyntax(syntax);
+			String expected = q.toString();
+			StringBuilder sb = new StringBuilder();
+			QueryWriter.write(q, sb);
+			assertEquals(expected, sb.toString());
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			QueryWriter.write(q, out);
+			assertEquals(expected, new String(out.toByteArray(), StandardCharsets.UTF_8));
+		}
+
+		// Surrogate pairs split by the end of the 4096 char buffer
+		boolean split = false;
+		for (int padding = 0; padding < 2; padding++) {
+			StringBuilder literal = new StringBuilder();
+			for (int i = 0; i < padding; i++)
+				literal.append('x');
+			while (literal.length() < 10000)
+				literal.append("\ud83d\ude00");
+			q = RSPQLQueryFactory.create(query.replace("caf", literal), ParserRSPQL.syntax);
+			String expected = q.toString();
+			split |= Character.isHighSurrogate(expected.charAt(4095));
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			QueryWriter.write(q, out);
+			assertArrayEquals(expected.getBytes(StandardCharsets.UTF_8), out.toByteArray());
+		}
+		assertTrue(split);
+
+		// A write started while writing to a stream on the same thread
+		RSPQLQuery outer = RSPQLQueryFactory.create(query, ParserRSPQL.syntax);
+		RSPQLQuery inner = RSPQLQueryFactory.create(query.replace(":out", ":inner"), ParserRSPQL.syntax);
+		ByteArrayOutputStream nested = new ByteArrayOutputStream();
+		ByteArrayOutputStream out = new ByteArrayOutputStream() {
+			@Override
+			public void write(byte[] b, int off, int len) {
+				if (nested.size() == 0) {
+					try {
+						QueryWriter.write(inner, nested);
+					} catch (IOException e) {
+						throw new RuntimeException(e);
+					}
+				}
+				super.write(b, off, len);
+			}
+		};
+		QueryWriter.write(outer, out);
+		assertEquals(outer.toString(), new String(out.toByteArray(), StandardCharsets.UTF_8));
+		assertEquals(inner.toString(), new String(nested.toByteArray(), StandardCharsets.UTF_8));
+		out.reset();
+		QueryWriter.write(inner, out);
+		assertEquals(inner.toString(), new String(out.toByteArray(), StandardCharsets.UTF_8));
+	}
+
+	/* Window declarations are rendered once and again when the windows change */
+	@Test
+	public void windowDeclarationCache() {
+		ParserRSPQL.register();
+		ParserCSPARQL.register();
+		String query = ""
+				+ "PREFIX : <http://example.org/> "
+				+ "REGISTER STREAM :out AS "
+				+ "SELECT ?a "
+				+ "FROM NAMED WINDOW :w ON :stream [RANGE PT10M STEP PT1M] "
+				+ "WHERE { WINDOW :w { ?a :p ?c } }";
+		RSPQLQuery q = RSPQLQueryFactory.create(query, ParserRSPQL.syntax);
+		q.setSyntax(ParserCSPARQL.syntax);
+		String first = q.toString();
+		assertEquals(first, q.toString());
+		assertTrue(first.contains("FROM STREAM <http://example.org/stream> [RANGE "));
+
+		AtomicInteger renders = new AtomicInteger();
+		Function<RSPQLQuery, List<String>> render = rendered -> {
+			renders.incrementAndGet();
+			return Arrays.asList(rendered.getLogicalWindows().size() + " " + rendered.getPhysicalWindows().size());
+		};
+		assertEquals(Arrays.asList("1 0"), q.getWindowDeclarations("test", render));
+		assertEquals(Arrays.asList("1 0"), q.getWindowDeclarations("test", render));
+		assertEquals(1, renders.get());
+
+		q.addPhysicalWindow(NodeFactory.createURI("http://example.org/w2"),
+				NodeFactory.createURI("http://example.org/stream2"), NodeFactory.createLiteral("5"), null);
+		assertEquals(Arrays.asList("1 1"), q.getWindowDeclarations("test", render));
+		assertTrue(q.toString().contains("[TRIPLES 5]"));
+
+		// Windows changed through the window lists are seen as well
+		q.getPhysicalWindows().clear();
+		assertEquals(Arrays.asList("1 0"), q.getWindowDeclarations("test", render));
+		assertFalse(q.toString().contains("[TRIPLES 5]"));
+		assertEquals(3, renders.get());
+	}
+
+	/* Fingerprints ignore prefixes and window order, copies keep the fingerprint */
+	@Test
+	public void fingerprint() {
+		ParserRSPQL.register();
+		String query1 = ""
+				+ "PREFIX : <http://example.org/> "
+				+ "REGISTER STREAM :out AS "
+				+ "SELECT ?a "
+				+ "FROM NAMED WINDOW :w1 ON :s1 [RANGE PT10M STEP PT1M] "
+				+ "FROM NAMED WINDOW :w2 ON :s2 [RANGE PT5M STEP PT1M] "
+				+ "WHERE { WINDOW :w1 { ?a :p ?c } WINDOW :w2 { ?a :q ?d } }";
+		String query2 = ""
+				+ "PREFIX ex: <http://example.org/> "
+				+ "REGISTER STREAM ex:out AS "
+				+ "SELECT ?a "
+				+ "FROM NAMED WINDOW ex:w2 ON ex:s2 [RANGE PT5M STEP PT1M] "
+				+ "FROM NAMED WINDOW ex:w1 ON ex:s1 [RANGE PT10M STEP PT1M] "
+				+ "WHERE { WINDOW ex:w1 { ?a ex:p ?c } WINDOW ex:w2 { ?a ex:q ?d } }";
+		RSPQLQuery q1 = RSPQLQueryFactory.create(query1, ParserRSPQL.syntax);
+		RSPQLQuery q2 = RSPQLQueryFactory.create(query2, ParserRSPQL.syntax);
+		assertEquals(q1.getFingerprint(), q2.getFingerprint());
+		assertEquals(q1.getFingerprint(), q1.cloneQuery().getFingerprint());
+		assertEquals(compress(q1.toString()), compress(q1.cloneQuery().toString()));
+
+		RSPQLQuery q3 = RSPQLQueryFactory.create(query1.replace("PT10M", "PT20M"), ParserRSPQL.syntax);
+		assertNotEquals(q1.getFingerprint(), q3.getFingerprint());
+	}
+
+	/* A copy shares nothing with the original that changes through the copy */
+	@Test
+	public void cloneIndependence() {
+		ParserRSPQL.register();
+		String query = ""
+				+ "PREFIX : <http://example.org/> "
+				+ "REGISTER STREAM :out AS "
+				+ "SELECT ?a (COUNT(?c) AS ?n) (SUM(?c * 2) AS ?s) "
+				+ "FROM NAMED WINDOW :w ON :stream [RANGE PT10M STEP PT1M] "
+				+ "WHERE { WINDOW :w { ?a :p ?c } } "
+				+ "GROUP BY ?a HAVING (COUNT(?c) > 1) ORDER BY ?a LIMIT 10 "
+				+ "VALUES ?a { :x :y }";
+		RSPQLQuery original = RSPQLQueryFactory.create(query, ParserRSPQL.syntax);
+		String expected = original.toString();
+		List<ExprAggregator> aggregators = new ArrayList<>(original.getAggregators());
+
+		RSPQLQuery copy = original.cloneQuery();
+		assertEquals(expected, copy.toString());
+		assertEquals(aggregators, copy.getAggregators());
+		for (int i = 0; i < aggregators.size(); i++) {
+			assertNotSame(aggregators.get(i), copy.getAggregators().get(i));
+			assertNotSame(aggregators.get(i).getAggregator(), copy.getAggregators().get(i).getAggregator());
+		}
+
+		copy.getPrefixMapping().setNsPrefix("ex", "http://example.org/ex#");
+		copy.setOutputstream(NodeFactory.createURI("http://example.org/out2"));
+		copy.addLogicalWindow(NodeFactory.createURI("http://example.org/w2"),
+				NodeFactory.createURI("http://example.org/stream2"), NodeFactory.createLiteral("PT5M"), null);
+		copy.getLogicalWindows().remove(0);
+		copy.getProject().add(Var.alloc("extra"));
+		copy.getAggregators().clear();
+		copy.getGroupBy().add(Var.alloc("c"));
+		copy.getHavingExprs().clear();
+		copy.getOrderBy().clear();
+		copy.getValuesData().clear();
+		((ElementGroup) copy.getQueryPattern()).addTriplePattern(Triple.create(Var.alloc("a"),
+				NodeFactory.createURI("http://example.org/q"), Var.alloc("d")));
+		copy.setLimit(20);
+
+		assertEquals(expected, original.toString());
+		assertEquals(aggregators, original.getAggregators());
+		assertEquals(original.getFingerprint(), RSPQLQueryFactory.create(query, ParserRSPQL.syntax).getFingerprint());
+	}
+
+	public String compress(String s) {
+		return s.replaceAll("\\s+", " ").trim();
+	}
+}
@@ -0,0 +1,155 @@
+package org.rspspin.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.rspspin.core.LibraryEndpointServiceImpl;
+import org.rspspin.core.RSPSPINException;
+import org.rspspin.core.RSPSPINTemplateManager;
+import org.rspspin.core.RemoteTemplateCache;
+import org.rspspin.vocabulary.RSPSPIN;
+import org.topbraid.spin.model.Template;
+
+public class TestRemoteTemplateCache {
+	private static final String NS = "http://example.org/templates#";
+	private static final long TTL = 100;
+	private static final String QUERY = ""
+			+ "PREFIX : <http://example.org/> "
+			+ "REGISTER STREAM ?out AS "
+			+ "SELECT ?a "
+			+ "FROM NAMED WINDOW :w ON ?stream [RANGE PT10M STEP PT1M] "
+			+ "WHERE { WINDOW :w { ?a :p ?c } }";
+
+	private RSPSPINTemplateManager manager;
+	private Library library;
+
+	@Before
+	public void createLibrary() throws IOException {
+		manager = new RSPSPINTemplateManager("rspspin-test.properties");
+		library = new Library();
+	}
+
+	/* Lookups return copies that can be changed without changing the cache */
+	@Test
+	public void copies() {
+		RemoteTemplateCache cache = new RemoteTemplateCache(library, 60000);
+		Template t1 = cache.get(NS + "t1");
+		Template t2 = cache.get(NS + "t1");
+		assertEquals(1, cache.getLoadCount());
+		assertEquals(1, cache.getHitCount());
+		assertNotSame(t1.getModel(), t2.getModel());
+		assertTrue(t1.getModel().isIsomorphicWith(t2.getModel()));
+
+		long size = t2.getModel().size();
+		t1.getModel().setNsPrefix("changed", "http://example.org/changed#");
+		t1.removeAll(RSPSPIN.version);
+		Template t3 = cache.get(NS + "t1");
+		assertNull(t3.getModel().getNsPrefixURI("changed"));
+		assertEquals(size, t3.getModel().size());
+		assertNotNull(t3.getProperty(RSPSPIN.version));
+	}
+
+	/* The templates checked least recently are dropped */
+	@Test
+	public void bounded() throws InterruptedException {
+		RemoteTemplateCache cache = new RemoteTemplateCache(library, 60000, 2);
+		cache.get(NS + "t1");
+		Thread.sleep(1);
+		cache.get(NS + "t2");
+		Thread.sleep(1);
+		cache.get(NS + "t3");
+		assertEquals(2, cache.size());
+		cache.get(NS + "t3");
+		cache.get(NS + "t2");
+		assertEquals(3, cache.getLoadCount());
+		cache.get(NS + "t1");
+		assertEquals(4, cache.getLoadCount());
+		assertEquals(2, cache.size());
+	}
+
+	/* Expired templates are only fetched again when their version changed */
+	@Test
+	public void expiry() throws InterruptedException {
+		RemoteTemplateCache cache = new RemoteTemplateCache(library, TTL);
+		cache.get(NS + "t1");
+		Thread.sleep(TTL + 20);
+		assertNotNull(cache.get(NS + "t1"));
+		assertEquals(1, cache.getCheckCount());
+		assertEquals(1, cache.getLoadCount());
+
+		// The check starts another time to live
+		cache.get(NS + "t1");
+		assertEquals(1, cache.getHitCount());
+		assertEquals(1, cache.getCheckCount());
+
+		library.version = "2";
+		Thread.sleep(TTL + 20);
+		assertEquals("2", cache.get(NS + "t1").getProperty(RSPSPIN.version).getString());
+		assertEquals(2, cache.getCheckCount());
+		assertEquals(2, cache.getLoadCount());
+	}
+
+	/* Expired templates are checked in a single request */
+	@Test
+	public void refresh() throws InterruptedException {
+		RemoteTemplateCache cache = new RemoteTemplateCache(library, TTL);
+		cache.get(NS + "t1");
+		cache.get(NS + "t2");
+		cache.refresh();
+		assertEquals(0, cache.getCheckCount());
+
+		Thread.sleep(TTL + 20);
+		cache.refresh();
+		assertEquals(1, cache.getCheckCount());
+		assertEquals(2, library.checked);
+		cache.get(NS + "t1");
+		cache.get(NS + "t2");
+		assertEquals(2, cache.getHitCount());
+		assertEquals(2, cache.getLoadCount());
+
+		library.version = "2";
+		Thread.sleep(TTL + 20);
+		cache.refresh();
+		assertEquals(2, cache.getCheckCount());
+		assertEquals(0, cache.size());
+		cache.get(NS + "t1");
+		assertEquals(3, cache.getLoadCount());
+	}
+
+	/* A library that creates its templates instead of querying an endpoint */
+	private class Library extends LibraryEndpointServiceImpl {
+		private volatile String version = "1";
+		// Number of templates in the last version check
+		private volatile int checked;
+
+		private Library() throws IOException {
+			super("rspspin-test.properties");
+		}
+
+		@Override
+		public Template getTemplate(String uri) {
+			try {
+				Template template = manager.createTemplate(uri, QUERY);
+				template.addProperty(RSPSPIN.version, version);
+				return template;
+			} catch (RSPSPINException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		@Override
+		public Map<String, String> getTemplateVersions(Collection<String> uris) {
+			Map<String, String> versions = new HashMap<String, String>();
+			for (String uri : uris)
+				versions.put(uri, version);
+			checked = uris.size();
+			return versions;
+		}
+	}
+}
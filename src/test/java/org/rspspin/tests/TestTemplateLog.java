@@ -0,0 +1,97 @@
+package org.rspspin.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.rspspin.core.TemplateLog;
+
+public class TestTemplateLog {
+	private Path path;
+
+	@Before
+	public void createFile() throws IOException {
+		path = Files.createTempFile("templates", ".log");
+		Files.delete(path);
+	}
+
+	@After
+	public void deleteFile() throws IOException {
+		Files.deleteIfExists(path);
+	}
+
+	/* Records are read back after reopening the log */
+	@Test
+	public void reopen() throws IOException {
+		try (TemplateLog log = new TemplateLog(path, true)) {
+			Map<String, byte[]> records = new LinkedHashMap<>();
+			records.put("http://example.org/t1", bytes("t1"));
+			records.put("http://example.org/t2", bytes("t2"));
+			log.putAll(records);
+			log.put("http://example.org/t1", bytes("t1 v2"));
+			assertTrue(log.delete("http://example.org/t2"));
+			assertFalse(log.delete("http://example.org/t3"));
+			assertEquals("t1 v2", string(log.get("http://example.org/t1")));
+		}
+		try (TemplateLog log = new TemplateLog(path, true)) {
+			assertEquals(1, log.size());
+			assertEquals("t1 v2", string(log.get("http://example.org/t1")));
+			assertNull(log.get("http://example.org/t2"));
+			assertTrue(log.getGarbageSize() > 0);
+		}
+	}
+
+	/* An incomplete record at the end of the log is discarded */
+	@Test
+	public void truncatedRecord() throws IOException {
+		try (TemplateLog log = new TemplateLog(path, true)) {
+			log.put("http://example.org/t1", bytes("t1"));
+			log.put("http://example.org/t2", bytes("t2"));
+		}
+		byte[] data = Files.readAllBytes(path);
+		Files.write(path, Arrays.copyOf(data, data.length - 3));
+		try (TemplateLog log = new TemplateLog(path, true)) {
+			assertEquals(1, log.size());
+			assertEquals("t1", string(log.get("http://example.org/t1")));
+			log.put("http://example.org/t2", bytes("t2"));
+		}
+		try (TemplateLog log = new TemplateLog(path, true)) {
+			assertEquals(2, log.size());
+			assertEquals("t2", string(log.get("http://example.org/t2")));
+		}
+	}
+
+	/* Compaction keeps only the latest records */
+	@Test
+	public void compact() throws IOException {
+		try (TemplateLog log = new TemplateLog(path, true)) {
+			for (int i = 0; i < 10; i++)
+				log.put("http://example.org/t" + (i % 3), bytes("v" + i));
+			log.delete("http://example.org/t0");
+			long size = Files.size(path);
+			log.compact();
+			assertTrue(Files.size(path) < size);
+			assertEquals(0, log.getGarbageSize());
+			assertEquals(2, log.size());
+			assertEquals("v7", string(log.get("http://example.org/t1")));
+			assertEquals("v8", string(log.get("http://example.org/t2")));
+		}
+	}
+
+	private static byte[] bytes(String s) {
+		return s.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static String string(byte[] b) {
+		return new String(b, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,304 @@
+package org.rspspin.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.jena.datatypes.xsd.XSDDatatype;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.query.Query;
+import org.apache.jena.query.QuerySolutionMap;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.ResourceFactory;
+
+import org.apache.own.query.RSPQLQuery;
+import org.apache.own.query.RSPQLQueryFingerprint;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.rspspin.core.ArgumentConstraintException;
+import org.rspspin.core.ArgumentValidator;
+import org.rspspin.core.LocalLibraryEndpointServiceImpl;
+import org.rspspin.core.RSPSPINArgumentChecker;
+import org.rspspin.core.RSPSPINException;
+import org.rspspin.core.RSPSPINTemplateManager;
+import org.topbraid.spin.arq.BoundedCache;
+import org.topbraid.spin.model.Template;
+import org.topbraid.spin.system.SPINArgumentChecker;
+
+public class TestTemplateManager {
+	private static final String NS = "http://example.org/templates#";
+	private static final String QUERY = ""
+			+ "PREFIX : <http://example.org/> "
+			+ "REGISTER STREAM ?out AS "
+			+ "SELECT ?a "
+			+ "FROM NAMED WINDOW :w ON ?stream [RANGE ?range STEP PT1M] "
+			+ "WHERE { WINDOW :w { ?a :p ?c } }";
+	private static final Pattern TEMPLATE_QUERY = Pattern.compile("\"query\"\\s*:\\s*\"(.*?)\",\\s*\"parameters\"",
+			Pattern.DOTALL);
+	private static final Pattern PARAMETER = Pattern
+			.compile("\"varName\"\\s*:\\s*\"(\\w+)\",\\s*\"valueType\"\\s*:\\s*\"([\\w:]+)\"");
+
+	private Path path;
+	private LocalLibraryEndpointServiceImpl library;
+	private RSPSPINTemplateManager manager;
+
+	@Before
+	public void createManager() throws IOException {
+		path = Files.createTempFile("templates", ".log");
+		Files.delete(path);
+		library = new LocalLibraryEndpointServiceImpl(path, false);
+		manager = new RSPSPINTemplateManager("rspspin-test.properties");
+		manager.setLibrary(library);
+	}
+
+	@After
+	public void deleteFile() throws IOException {
+		library.close();
+		Files.deleteIfExists(path);
+	}
+
+	/* Templates are not kept when the library refuses to store them */
+	@Test
+	public void addTemplatesRollback() throws RSPSPINException {
+		Template t1 = manager.createTemplate(NS + "t1", QUERY);
+		Template t2 = manager.createTemplate(NS + "t2", QUERY);
+		library.storeTemplate(manager.createTemplate(NS + "t2", QUERY));
+		try {
+			manager.addTemplates(Arrays.asList(t1, t2), true);
+			fail();
+		} catch (RSPSPINException e) {
+			assertTrue(e.getMessage().contains("already in use"));
+		}
+		assertTrue(manager.getRegisteredTemplates().isEmpty());
+
+		manager.addTemplates(Arrays.asList(t1), true);
+		assertSame(t1, manager.getRegisteredTemplates().get(NS + "t1"));
+		assertNotNull(library.getTemplate(NS + "t1"));
+
+		// The HashMap kept for compatibility is a copy
+		manager.getTemplates().clear();
+		assertEquals(1, manager.getRegisteredTemplates().size());
+	}
+
+	/* A manager with its own validator leaves the global checkers alone */
+	@Test
+	public void ownValidator() throws RSPSPINException, ArgumentConstraintException {
+		SPINArgumentChecker installed = SPINArgumentChecker.get();
+		assertSame(RSPSPINArgumentChecker.get(), installed);
+		ArgumentValidator lenient = new ArgumentValidator(false, ModelFactory.createDefaultModel());
+		RSPSPINTemplateManager own = new RSPSPINTemplateManager("rspspin-test.properties", lenient);
+		assertSame(installed, SPINArgumentChecker.get());
+		assertSame(lenient, own.getArgumentValidator());
+		assertTrue(manager.getArgumentValidator().isStrict());
+
+		QuerySolutionMap bindings = new QuerySolutionMap();
+		bindings.add("notAParameter", ResourceFactory.createPlainLiteral("value"));
+		own.instantiateQuery(own.createTemplate(NS + "t1", QUERY), bindings);
+		try {
+			manager.instantiateQuery(manager.createTemplate(NS + "t1", QUERY), bindings);
+			fail();
+		} catch (ArgumentConstraintException e) {
+			assertTrue(e.getMessage().contains("notAParameter"));
+		}
+
+		// Changing the global checker replaces its validator
+		ArgumentValidator before = RSPSPINArgumentChecker.get().getValidator();
+		RSPSPINArgumentChecker.get().setStrict(false);
+		try {
+			assertFalse(before.equals(RSPSPINArgumentChecker.get().getValidator()));
+			assertTrue(before.isStrict());
+			assertFalse(manager.getArgumentValidator().isStrict());
+		} finally {
+			RSPSPINArgumentChecker.get().setStrict(true);
+		}
+	}
+
+	/* Repeated bindings are answered from the query cache with a copy */
+	@Test
+	public void queryCacheHits() throws Exception {
+		manager.setQueryCacheSize(10);
+		Template template = parameterTemplate(NS + "t1", QUERY);
+		manager.addTemplate(template, false, false);
+
+		Query q1 = manager.instantiateQuery(template, bindings("s1"));
+		Query q2 = manager.instantiateQuery(template, bindings("s1"));
+		manager.instantiateQuery(template, bindings("s2"));
+		BoundedCache.Stats stats = manager.getQueryCacheStats();
+		assertEquals(1, stats.getHitCount());
+		assertEquals(2, stats.getMissCount());
+		assertEquals(2, stats.getSize());
+		assertEquals(q1.toString(), q2.toString());
+		assertTrue(q1.toString().contains("<http://example.org/s1>"));
+
+		// Results are copies that callers may change
+		assertNotSame(q1, q2);
+		q1.setLimit(5);
+		((RSPQLQuery) q1).setOutputstream(NodeFactory.createURI("http://example.org/changed"));
+		Query q3 = manager.instantiateQuery(template, bindings("s1"));
+		assertEquals(q2.toString(), q3.toString());
+		assertEquals(2, manager.getQueryCacheStats().getHitCount());
+
+		// Templates that are not registered are not cached
+		Template other = parameterTemplate(NS + "t2", QUERY);
+		manager.instantiateQuery(other, bindings("s1"));
+		manager.instantiateQuery(other, bindings("s1"));
+		assertEquals(2, manager.getQueryCacheStats().getSize());
+	}
+
+	/* Cached instantiations go when their template is added, replaced or deleted */
+	@Test
+	public void queryCacheInvalidation() throws Exception {
+		manager.setQueryCacheSize(10);
+		Template t1 = parameterTemplate(NS + "t1", QUERY);
+		Template t2 = parameterTemplate(NS + "t2", QUERY);
+		manager.addTemplates(Arrays.asList(t1, t2), false);
+		manager.instantiateQuery(t1, bindings("s1"));
+		manager.instantiateQuery(t2, bindings("s1"));
+		assertEquals(2, manager.getQueryCacheStats().getSize());
+
+		Template replacement = parameterTemplate(NS + "t1", QUERY.replace("?a :p ?c", "?a :q ?c"));
+		manager.addTemplate(replacement, false, true);
+		assertEquals(1, manager.getQueryCacheStats().getSize());
+		assertTrue(manager.instantiateQuery(replacement, bindings("s1")).toString().contains("<http://example.org/q>"));
+		assertEquals(2, manager.getQueryCacheStats().getSize());
+
+		// The replaced template is no longer registered
+		manager.instantiateQuery(t1, bindings("s1"));
+		assertEquals(2, manager.getQueryCacheStats().getSize());
+
+		manager.deleteTemplate(NS + "t1", false);
+		assertEquals(1, manager.getQueryCacheStats().getSize());
+		manager.deleteTemplate(NS + "t2", false);
+		assertEquals(0, manager.getQueryCacheStats().getSize());
+
+		manager.addTemplate(t2, false, false);
+		manager.instantiateQuery(t2, bindings("s1"));
+		assertEquals(1, manager.getQueryCacheStats().getSize());
+		manager.addTemplates(Arrays.asList(t1), false);
+		manager.instantiateQuery(t1, bindings("s1"));
+		assertEquals(2, manager.getQueryCacheStats().getSize());
+
+		// A new argument applies to the next instantiation
+		manager.addArgumentConstraint(manager.createArgument("c", null, null, true, t1.getModel()), t1);
+		assertEquals(1, manager.getQueryCacheStats().getSize());
+		QuerySolutionMap bindings = bindings("s1");
+		bindings.add("c", ResourceFactory.createResource("http://example.org/o"));
+		assertTrue(manager.instantiateQuery(t1, bindings).toString().contains("<http://example.org/o>"));
+	}
+
+	/* Bindings that fail validation are never cached */
+	@Test
+	public void queryCacheValidation() throws Exception {
+		manager.setQueryCacheSize(10);
+		Template template = parameterTemplate(NS + "t1", QUERY);
+		manager.addTemplate(template, false, false);
+		QuerySolutionMap bindings = bindings("s1");
+		bindings.add("range", ResourceFactory.createPlainLiteral("ten minutes"));
+		for (int i = 0; i < 2; i++) {
+			try {
+				manager.instantiateQuery(template, bindings);
+				fail();
+			} catch (ArgumentConstraintException e) {
+				assertTrue(e.getMessage().contains("range"));
+			}
+		}
+		assertEquals(0, manager.getQueryCacheStats().getSize());
+	}
+
+	/* Compiled templates give the same queries as the text path */
+	@Test
+	public void compiledSameAsText() throws Exception {
+		RSPSPINTemplateManager lenient = new RSPSPINTemplateManager("rspspin-test.properties",
+				new ArgumentValidator(false, ModelFactory.createDefaultModel()));
+		Map<String, Map<String, String>> scenarios = new LinkedHashMap<>();
+		try (DirectoryStream<Path> files = Files
+				.newDirectoryStream(Paths.get("papers/Template-based RSP Execution/Scenario templates"))) {
+			// Not all template files are valid JSON, so the query and parameters are cut out
+			for (Path file : files) {
+				String text = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+				Matcher query = TEMPLATE_QUERY.matcher(text);
+				assertTrue(file.toString(), query.find());
+				Map<String, String> parameters = new LinkedHashMap<>();
+				Matcher parameter = PARAMETER.matcher(text);
+				while (parameter.find())
+					parameters.put(parameter.group(1), parameter.group(2));
+				// Dataset clauses cannot be variables in RSP-QL, so they are dropped
+				scenarios.put(query.group(1).replaceAll("FROM \\?\\w+", ""), parameters);
+			}
+		}
+		assertEquals(5, scenarios.size());
+		Map<String, String> parameters = new LinkedHashMap<>();
+		parameters.put("out", "rdfs:Resource");
+		parameters.put("stream", "rdfs:Resource");
+		parameters.put("range", "xsd:duration");
+		scenarios.put(QUERY, parameters);
+
+		boolean duration = false;
+		int i = 0;
+		for (Map.Entry<String, Map<String, String>> scenario : scenarios.entrySet()) {
+			Template template = lenient.createTemplate(NS + "t" + i++, scenario.getKey());
+			for (int variant = 0; variant < 2; variant++) {
+				QuerySolutionMap bindings = new QuerySolutionMap();
+				for (Map.Entry<String, String> parameter : scenario.getValue().entrySet())
+					bindings.add(parameter.getKey(), value(parameter.getKey(), parameter.getValue(), variant));
+				duration |= scenario.getValue().containsValue("xsd:duration");
+
+				RSPQLQuery text = (RSPQLQuery) lenient.instantiateQuery(template, bindings);
+				RSPQLQuery compiled = lenient.instantiateQuery(lenient.getCompiledTemplate(template), bindings);
+				assertEquals(template.getURI(), RSPQLQueryFingerprint.of(text), RSPQLQueryFingerprint.of(compiled));
+				assertEquals(text.getOutputStream(), compiled.getOutputStream());
+				assertEquals(NodeFactory.createURI("http://example.org/out" + variant), compiled.getOutputStream());
+				assertEquals(text.getLogicalWindows(), compiled.getLogicalWindows());
+				assertEquals(text.getPhysicalWindows(), compiled.getPhysicalWindows());
+				assertEquals(text.toString(), compiled.toString());
+				assertTrue(compiled.toString().contains("<http://example.org/stream" + variant + ">"));
+			}
+		}
+		assertTrue(duration);
+	}
+
+	/**
+	 * Get a value of a parameter type, the variant changes the value
+	 */
+	private static RDFNode value(String varName, String valueType, int variant) {
+		switch (valueType) {
+		case "xsd:duration":
+			return ResourceFactory.createTypedLiteral("PT" + (variant + 1) + "M", XSDDatatype.XSDduration);
+		case "xsd:string":
+			return ResourceFactory.createPlainLiteral(varName + " it's \"" + variant + "\"");
+		default:
+			return ResourceFactory.createResource("http://example.org/" + varName + variant);
+		}
+	}
+
+	/**
+	 * Create a template with a required ?stream parameter and an optional
+	 * ?range duration
+	 */
+	private Template parameterTemplate(String uri, String query) throws RSPSPINException {
+		Template template = manager.createTemplate(uri, query);
+		manager.addArgumentConstraint(manager.createArgument("stream", null, null, false, template.getModel()),
+				template);
+		manager.addArgumentConstraint(
+				manager.createArgument("range", "xsd:duration", "PT10M", true, template.getModel()), template);
+		return template;
+	}
+
+	private static QuerySolutionMap bindings(String stream) {
+		QuerySolutionMap bindings = new QuerySolutionMap();
+		bindings.add("stream", ResourceFactory.createResource("http://example.org/" + stream));
+		return bindings;
+	}
+}
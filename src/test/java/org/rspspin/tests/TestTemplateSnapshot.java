@@ -0,0 +1,70 @@
+package org.rspspin.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.rspspin.core.TemplateSnapshot;
+
+public class TestTemplateSnapshot {
+	private Path path;
+
+	@Before
+	public void createFile() throws IOException {
+		path = Files.createTempFile("templates", ".snapshot");
+	}
+
+	@After
+	public void deleteFile() throws IOException {
+		Files.deleteIfExists(path);
+	}
+
+	/* A snapshot is read back as written */
+	@Test
+	public void roundTrip() throws IOException {
+		Map<String, String> versions = new HashMap<>();
+		versions.put("http://example.org/t1", "v1");
+		versions.put("http://example.org/t2", null);
+		TemplateSnapshot.ArgumentRecord arg = new TemplateSnapshot.ArgumentRecord("limit",
+				"http://www.w3.org/2001/XMLSchema#integer", true, "\"10\"^^<http://www.w3.org/2001/XMLSchema#integer>",
+				"Limit", null);
+		TemplateSnapshot.Record record = new TemplateSnapshot.Record("http://example.org/t1",
+				"<http://example.org/t1> <http://example.org/p> \"\u00e9\" .\n", "SELECT * WHERE { ?s ?p ?o }",
+				Arrays.asList(arg));
+		new TemplateSnapshot(versions, Collections.singletonList(record)).write(path);
+
+		TemplateSnapshot snapshot = TemplateSnapshot.read(path);
+		assertEquals(versions, snapshot.getLibraryVersions());
+		assertEquals(1, snapshot.getRecords().size());
+		TemplateSnapshot.Record r = snapshot.getRecords().get(0);
+		assertEquals(record.getURI(), r.getURI());
+		assertEquals(record.getRDF(), r.getRDF());
+		assertEquals(record.getCommandText(), r.getCommandText());
+		TemplateSnapshot.ArgumentRecord a = r.getArguments().get(0);
+		assertEquals("limit", a.getVarName());
+		assertEquals(arg.getValueType(), a.getValueType());
+		assertTrue(a.isOptional());
+		assertEquals(arg.getDefaultValue(), a.getDefaultValue());
+		assertEquals("Limit", a.getLabel());
+		assertNull(a.getComment());
+	}
+
+	/* A corrupt snapshot is rejected */
+	@Test(expected = IOException.class)
+	public void corrupt() throws IOException {
+		new TemplateSnapshot(null, Collections.emptyList()).write(path);
+		byte[] data = Files.readAllBytes(path);
+		data[10] ^= 1;
+		Files.write(path, data);
+		TemplateSnapshot.read(path);
+	}
+}
@@ -0,0 +1,216 @@
+package org.rspspin.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.jena.datatypes.xsd.XSDDatatype;
+import org.apache.jena.query.QuerySolutionMap;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.rdf.model.ResourceFactory;
+import org.apache.jena.vocabulary.RDF;
+import org.apache.jena.vocabulary.RDFS;
+import org.apache.jena.vocabulary.XSD;
+import org.junit.Before;
+import org.junit.Test;
+import org.rspspin.core.ArgumentConstraintException;
+import org.rspspin.core.ArgumentValidator;
+import org.rspspin.core.RSPSPINException;
+import org.rspspin.core.RSPSPINTemplateManager;
+import org.rspspin.core.RSPSPINUtils;
+import org.rspspin.core.ValidationPlan;
+import org.topbraid.spin.model.Argument;
+import org.topbraid.spin.model.Module;
+import org.topbraid.spin.model.Template;
+import org.topbraid.spin.util.JenaUtil;
+
+/**
+ * Compares validation against a precompiled plan with validation that reads
+ * the spl:Argument declarations from the template graph for every call.
+ */
+public class TestValidationPlan {
+	private static final String QUERY = ""
+			+ "PREFIX : <http://example.org/> "
+			+ "REGISTER STREAM ?out AS "
+			+ "SELECT ?a "
+			+ "FROM NAMED WINDOW :w ON ?stream [RANGE ?range STEP PT1M] "
+			+ "WHERE { WINDOW :w { ?a :p ?c } }";
+	private static final Resource STREAM_TYPE = ResourceFactory.createResource("http://example.org/Stream");
+
+	private Template template;
+	private Model ontModel;
+
+	@Before
+	public void createTemplate() throws RSPSPINException {
+		RSPSPINTemplateManager manager = new RSPSPINTemplateManager("rspspin-test.properties");
+		template = manager.createTemplate("http://example.org/templates#t1", QUERY);
+		Model model = template.getModel();
+		manager.addArgumentConstraint(manager.createArgument("stream", null, null, false, model), template);
+		manager.addArgumentConstraint(manager.createArgument("c", "xsd:integer", null, false, model), template);
+		manager.addArgumentConstraint(manager.createArgument("range", "xsd:duration", "PT10M", true, model),
+				template);
+		manager.addArgumentConstraint(
+				manager.createArgument("out", STREAM_TYPE.getURI(), null, true, model), template);
+
+		ontModel = ModelFactory.createDefaultModel();
+		ontModel.add(ontModel.createResource("http://example.org/typed"), RDF.type, STREAM_TYPE);
+	}
+
+	/* The plan holds the declarations of the template graph */
+	@Test
+	public void declarations() {
+		ValidationPlan plan = new ValidationPlan(template);
+		List<Argument> args = template.getArguments(false);
+		assertEquals(args.size(), plan.size());
+		assertEquals(template.getArgumentsMap().keySet(), plan.getParameterNames());
+		for (int i = 0; i < plan.size(); i++) {
+			Argument arg = args.get(i);
+			assertEquals(arg.getVarName(), plan.getVarName(i));
+			assertEquals(arg.getValueType(), plan.getValueType(i));
+			assertEquals(arg.isOptional(), plan.isOptional(i));
+			assertEquals(arg.getDefaultValue(), plan.getDefaultValue(i));
+		}
+		ValidationPlan restored = new ValidationPlan(template, plan.toArgumentRecords());
+		for (int i = 0; i < plan.size(); i++) {
+			assertEquals(plan.getVarName(i), restored.getVarName(i));
+			assertEquals(plan.getValueType(i), restored.getValueType(i));
+			assertEquals(plan.isOptional(i), restored.isOptional(i));
+			assertEquals(String.valueOf(plan.getDefaultValue(i)), String.valueOf(restored.getDefaultValue(i)));
+		}
+	}
+
+	/* Missing, optional and defaulted arguments and mismatched values */
+	@Test
+	public void sameAsArguments() {
+		RDFNode stream = ResourceFactory.createResource("http://example.org/stream");
+		RDFNode integer = ResourceFactory.createTypedLiteral("5", XSDDatatype.XSDinteger);
+		List<Map<String, RDFNode>> cases = new ArrayList<>();
+		cases.add(bindings());
+		cases.add(bindings("stream", stream));
+		cases.add(bindings("stream", stream, "c", integer));
+		cases.add(bindings("stream", stream, "c", ResourceFactory.createPlainLiteral("5")));
+		cases.add(bindings("stream", stream, "c", ResourceFactory.createLangLiteral("5", "en")));
+		cases.add(bindings("stream", stream, "c", integer, "range",
+				ResourceFactory.createTypedLiteral("PT5M", XSDDatatype.XSDduration)));
+		cases.add(bindings("stream", stream, "c", integer, "range", ResourceFactory.createPlainLiteral("PT5M")));
+		cases.add(bindings("stream", stream, "c", integer, "range", stream));
+		cases.add(bindings("stream", ResourceFactory.createResource("http://example.org/not a uri"), "c", integer));
+		cases.add(bindings("stream", stream, "c", integer, "out",
+				ResourceFactory.createResource("http://example.org/typed")));
+		cases.add(bindings("stream", stream, "c", integer, "out",
+				ResourceFactory.createResource("http://example.org/untyped")));
+		cases.add(bindings("stream", stream, "c", integer, "other", stream));
+		cases.add(bindings("c", ResourceFactory.createTypedLiteral("x", XSDDatatype.XSDstring), "other", stream));
+
+		Set<String> outcomes = new HashSet<>();
+		for (boolean strict : new boolean[] { true, false }) {
+			ArgumentValidator validator = new ArgumentValidator(strict, ontModel);
+			ValidationPlan plan = new ValidationPlan(template);
+			ValidationPlan restored = new ValidationPlan(template, plan.toArgumentRecords());
+			for (Map<String, RDFNode> values : cases) {
+				QuerySolutionMap bindings = new QuerySolutionMap();
+				values.forEach(bindings::add);
+				String expected = validateArguments(template, bindings, strict);
+				outcomes.add(expected);
+				assertEquals(values.toString(), expected, validate(validator, plan, bindings));
+				assertEquals(values.toString(), expected, validate(validator, restored, bindings));
+			}
+		}
+		// Both valid bindings and each kind of error are covered
+		String all = String.join("\n", outcomes);
+		assertTrue(outcomes.contains(""));
+		for (String error : new String[] { "Missing required parameter", "is not a parameter", "must have datatype",
+				"is not a valid URI", "must have direct/indirect type" })
+			assertTrue(error, all.contains(error));
+	}
+
+	private static Map<String, RDFNode> bindings(Object... pairs) {
+		Map<String, RDFNode> bindings = new LinkedHashMap<>();
+		for (int i = 0; i < pairs.length; i += 2)
+			bindings.put((String) pairs[i], (RDFNode) pairs[i + 1]);
+		return bindings;
+	}
+
+	private static String validate(ArgumentValidator validator, ValidationPlan plan, QuerySolutionMap bindings) {
+		try {
+			validator.validate(plan, bindings);
+			return "";
+		} catch (ArgumentConstraintException e) {
+			return e.getMessage();
+		} catch (RuntimeException e) {
+			return e.getClass().getName();
+		}
+	}
+
+	/**
+	 * Validation as done before validation plans, reading each spl:Argument
+	 * from the template graph
+	 */
+	private String validateArguments(Module module, QuerySolutionMap bindings, boolean strict) {
+		try {
+			List<String> errors = new LinkedList<String>();
+			if (strict) {
+				Map<String, Argument> argMap = module.getArgumentsMap();
+				bindings.varNames().forEachRemaining((v) -> {
+					if (!argMap.containsKey(v))
+						errors.add(String.format("Variable '%s' is not a parameter in the template", v));
+				});
+			}
+			for (Argument arg : module.getArguments(false)) {
+				String varName = arg.getVarName();
+				RDFNode value = bindings.get(varName);
+				Resource valueType = arg.getValueType();
+				if (value == null) {
+					if (!arg.isOptional()) {
+						errors.add(String.format("Missing required parameter ", varName));
+						continue;
+					}
+					value = arg.getDefaultValue();
+				}
+				if (value == null)
+					continue;
+				String e = validateBinding(varName, value, valueType);
+				if (e != null)
+					errors.add(e);
+			}
+			return String.join("\n", errors);
+		} catch (RuntimeException e) {
+			return e.getClass().getName();
+		}
+	}
+
+	private String validateBinding(String varName, RDFNode value, Resource valueType) {
+		if (value.isResource()) {
+			if (!RSPSPINUtils.isValidUri(value.toString()))
+				return String.format("Value '%s' for parameter '%s' is not a valid URI", value, varName);
+			if (valueType == null || RDFS.Resource.equals(valueType))
+				return null;
+			value = value.inModel(ontModel);
+			valueType = valueType.inModel(ontModel);
+			if (JenaUtil.hasIndirectType((Resource) value, valueType)) {
+				return String.format("Resource '%s' for parameter '%s' must have direct/indirect type '%s'", value,
+						varName, valueType);
+			}
+		} else {
+			if (RDFS.Literal.equals(valueType))
+				return null;
+			String datatypeURI = value.asLiteral().getDatatypeURI();
+			if (value.asLiteral().getLanguage().length() > 0)
+				datatypeURI = XSD.xstring.getURI();
+			if (!valueType.getURI().equals(datatypeURI)) {
+				return String.format("Literal '%s' for parameter '%s' must have datatype '%s'", value, varName,
+						valueType);
+			}
+		}
+		return null;
+	}
+}